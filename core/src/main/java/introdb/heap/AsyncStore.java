@@ -0,0 +1,18 @@
+package introdb.heap;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking variant of {@link Store}. Futures complete exceptionally with
+ * the same exceptions {@link Store} operations throw.
+ */
+interface AsyncStore {
+
+	CompletableFuture<Object> removeAsync(Serializable key);
+
+	CompletableFuture<Object> getAsync(Serializable key);
+
+	CompletableFuture<Void> putAsync(Entry entry);
+
+}
@@ -0,0 +1,64 @@
+package introdb.heap;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs operations of blocking store on executor, so callers can keep many
+ * operations in flight without blocking their own threads. Store has to be
+ * safe for concurrent use, executor sets how many operations run at once.
+ */
+class ExecutorAsyncStore implements AsyncStore {
+
+	private final Store store;
+	private final Executor executor;
+
+	ExecutorAsyncStore(Store store, Executor executor) {
+		this.store = store;
+		this.executor = executor;
+	}
+
+	@Override
+	public CompletableFuture<Object> removeAsync(Serializable key) {
+		return submit(() -> store.remove(key));
+	}
+
+	@Override
+	public CompletableFuture<Object> getAsync(Serializable key) {
+		return submit(() -> store.get(key));
+	}
+
+	@Override
+	public CompletableFuture<Void> putAsync(Entry entry) {
+		return submit(() -> {
+			store.put(entry);
+			return null;
+		});
+	}
+
+	private <R> CompletableFuture<R> submit(StoreOperation<R> operation) {
+		var future = new CompletableFuture<R>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(operation.apply());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	@FunctionalInterface
+	private interface StoreOperation<R> {
+
+		R apply() throws Exception;
+
+	}
+
+}
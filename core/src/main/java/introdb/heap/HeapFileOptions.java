@@ -0,0 +1,276 @@
+package introdb.heap;
+
+import java.time.Duration;
+import java.util.function.IntFunction;
+
+import introdb.heap.lock.LockExecution;
+import introdb.heap.lock.LockManager.LockType;
+import introdb.heap.page.ClockPolicy;
+import introdb.heap.page.EvictionPolicy;
+import introdb.heap.page.FlushPolicy;
+import introdb.heap.serial.CompactSerializer;
+import introdb.heap.serial.Serializer;
+import introdb.heap.wal.CommitPolicy;
+
+/**
+ * Tunables of {@link UnorderedHeapFile}, defaults are used for anything which
+ * is not set.
+ */
+class HeapFileOptions {
+
+	enum PageIO {
+		/**
+		 * Positional reads and writes through file channel.
+		 */
+		CHANNEL,
+		/**
+		 * Memory mapped file, reads go straight to mapped pages.
+		 */
+		MAPPED
+	}
+
+	private PageIO pageIO = PageIO.CHANNEL;
+	private FlushPolicy flushPolicy = FlushPolicy.onClose();
+	private int bufferPoolSize = 1024;
+	private IntFunction<EvictionPolicy> evictionPolicy = ClockPolicy::new;
+	private Serializer serializer = new CompactSerializer();
+	private CommitPolicy commitPolicy;
+	private long checkpointSize = 64 * 1024 * 1024;
+	private int allocatorStripes = Runtime.getRuntime().availableProcessors();
+	private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+	private Duration compactionInterval;
+	private long compactionBudget = 1024 * 1024;
+	private boolean compression;
+	private LockType lockType = LockType.READ_WRITE;
+	private int lockStripes;
+	private Duration lockTimeout = Duration.ofSeconds(10);
+	private LockExecution lockExecution = LockExecution.callerRuns();
+	private long bloomFilterMemory;
+	private double bloomFilterFalsePositiveRate = 0.01;
+
+	PageIO pageIO() {
+		return pageIO;
+	}
+
+	HeapFileOptions pageIO(PageIO pageIO) {
+		this.pageIO = pageIO;
+		return this;
+	}
+
+	FlushPolicy flushPolicy() {
+		return flushPolicy;
+	}
+
+	HeapFileOptions flushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+		return this;
+	}
+
+	/**
+	 * Number of page frames in buffer pool, not used with mapped I/O.
+	 */
+	int bufferPoolSize() {
+		return bufferPoolSize;
+	}
+
+	HeapFileOptions bufferPoolSize(int bufferPoolSize) {
+		this.bufferPoolSize = bufferPoolSize;
+		return this;
+	}
+
+	/**
+	 * Creates eviction policy for given number of buffer pool frames.
+	 */
+	IntFunction<EvictionPolicy> evictionPolicy() {
+		return evictionPolicy;
+	}
+
+	HeapFileOptions evictionPolicy(IntFunction<EvictionPolicy> evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+		return this;
+	}
+
+	/**
+	 * Serializer of keys and values, heap file has to be always opened with the
+	 * same serializer it was written with.
+	 */
+	Serializer serializer() {
+		return serializer;
+	}
+
+	HeapFileOptions serializer(Serializer serializer) {
+		this.serializer = serializer;
+		return this;
+	}
+
+	/**
+	 * Commit policy of write ahead log, log is not used when it is not set.
+	 */
+	CommitPolicy commitPolicy() {
+		return commitPolicy;
+	}
+
+	HeapFileOptions commitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+		return this;
+	}
+
+	/**
+	 * Size of write ahead log in bytes, after which pages are flushed and log
+	 * is truncated.
+	 */
+	long checkpointSize() {
+		return checkpointSize;
+	}
+
+	HeapFileOptions checkpointSize(long checkpointSize) {
+		this.checkpointSize = checkpointSize;
+		return this;
+	}
+
+	/**
+	 * Number of allocator stripes, every writer thread allocates regions from
+	 * pages of its own stripe.
+	 */
+	int allocatorStripes() {
+		return allocatorStripes;
+	}
+
+	HeapFileOptions allocatorStripes(int allocatorStripes) {
+		this.allocatorStripes = allocatorStripes;
+		return this;
+	}
+
+	/**
+	 * Number of threads reading pages in parallel, when allocator or index has
+	 * to be rebuilt on open. It is capped by half of buffer pool size.
+	 */
+	int recoveryThreads() {
+		return recoveryThreads;
+	}
+
+	HeapFileOptions recoveryThreads(int recoveryThreads) {
+		this.recoveryThreads = recoveryThreads;
+		return this;
+	}
+
+	/**
+	 * Delay between background compaction runs, compaction is disabled when it
+	 * is not set.
+	 */
+	Duration compactionInterval() {
+		return compactionInterval;
+	}
+
+	HeapFileOptions compactionInterval(Duration compactionInterval) {
+		this.compactionInterval = compactionInterval;
+		return this;
+	}
+
+	/**
+	 * Bytes of records moved by a single compaction run.
+	 */
+	long compactionBudget() {
+		return compactionBudget;
+	}
+
+	HeapFileOptions compactionBudget(long compactionBudget) {
+		this.compactionBudget = compactionBudget;
+		return this;
+	}
+
+	/**
+	 * Values are compressed, each of them is stored raw when compression
+	 * doesn't pay off.
+	 */
+	boolean compression() {
+		return compression;
+	}
+
+	HeapFileOptions compression(boolean compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Memory taken at most by Bloom filter of keys, which answers lookups of
+	 * absent keys without reading index, 0 means there is no filter.
+	 */
+	long bloomFilterMemory() {
+		return bloomFilterMemory;
+	}
+
+	HeapFileOptions bloomFilterMemory(long bloomFilterMemory) {
+		this.bloomFilterMemory = bloomFilterMemory;
+		return this;
+	}
+
+	/**
+	 * False positive rate Bloom filter is sized for, as long as it fits its
+	 * memory.
+	 */
+	double bloomFilterFalsePositiveRate() {
+		return bloomFilterFalsePositiveRate;
+	}
+
+	HeapFileOptions bloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+		this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+		return this;
+	}
+
+	/**
+	 * Type of page locks, with {@link LockType#STAMPED} lookups read pages
+	 * optimistically.
+	 */
+	LockType lockType() {
+		return lockType;
+	}
+
+	HeapFileOptions lockType(LockType lockType) {
+		this.lockType = lockType;
+		return this;
+	}
+
+	/**
+	 * Number of page locks shared by all pages, rounded up to a power of two, 0
+	 * means every page gets its own lock. Striping is supported only with
+	 * {@link LockType#READ_WRITE} locks, as overflow values are read under two
+	 * page locks, which may turn out to be the same one.
+	 */
+	int lockStripes() {
+		return lockStripes;
+	}
+
+	HeapFileOptions lockStripes(int lockStripes) {
+		this.lockStripes = lockStripes;
+		return this;
+	}
+
+	/**
+	 * How long writes of several pages at once wait for each page lock.
+	 */
+	Duration lockTimeout() {
+		return lockTimeout;
+	}
+
+	HeapFileOptions lockTimeout(Duration lockTimeout) {
+		this.lockTimeout = lockTimeout;
+		return this;
+	}
+
+	/**
+	 * Where page operations run, heap file waits for each of them anyway, so
+	 * it only moves blocking on page locks, and writing back flushed pages,
+	 * to other threads. Pages are still pinned by the caller, so reading a
+	 * missing page, and writing back its victim, always block the caller.
+	 */
+	LockExecution lockExecution() {
+		return lockExecution;
+	}
+
+	HeapFileOptions lockExecution(LockExecution lockExecution) {
+		this.lockExecution = lockExecution;
+		return this;
+	}
+
+}
@@ -0,0 +1,211 @@
+package introdb.heap;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Layout of a heap file page. Page is a chain of regions, every region starts
+ * with a header which holds its state and size, so page can be walked from the
+ * first region without any other metadata. Region with {@link #EMPTY} state
+ * marks start of never used page tail.
+ * <p>
+ * Record region layout is: state (byte), region size (int), key length (int),
+ * value length (int), key and value bytes. Value of {@link #OVERFLOW} record
+ * is a descriptor of {@link OverflowValue}, stored in chain pages, value of
+ * {@link #COMPRESSED} record is compressed by
+ * {@link introdb.heap.compress.ValueCompressor}.
+ * <p>
+ * Chain page is a single {@link #CHAIN} region of the whole page, its layout
+ * is: state (byte), region size (int), next page (int), data length (int),
+ * chain id (long), padding and data bytes.
+ */
+class HeapPage {
+
+	static final byte EMPTY = 0;
+	static final byte FREE = 1;
+	static final byte LIVE = 2;
+	static final byte OVERFLOW = 3;
+	static final byte CHAIN = 4;
+	static final byte COMPRESSED = 5;
+
+	static final int HEADER_SIZE = 13;
+	// all regions are aligned to it, so there is always room for a free region header
+	static final int ALIGNMENT = 8;
+	static final int CHAIN_HEADER_SIZE = 24;
+	static final int NO_PAGE = -1;
+
+	private final int pageNr;
+	private final ByteBuffer buffer;
+
+	HeapPage(int pageNr, ByteBuffer buffer) {
+		this.pageNr = pageNr;
+		this.buffer = buffer;
+	}
+
+	static int recordSize(int keyLength, int valueLength) {
+		var size = HEADER_SIZE + keyLength + valueLength;
+		return (size + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+	int pageNr() {
+		return pageNr;
+	}
+
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	static int chainCapacity(int pageSize) {
+		return pageSize - CHAIN_HEADER_SIZE;
+	}
+
+	boolean isLive(int offset) {
+		var state = buffer.get(offset);
+		return state == LIVE || state == OVERFLOW || state == COMPRESSED;
+	}
+
+	boolean isOverflow(int offset) {
+		return buffer.get(offset) == OVERFLOW;
+	}
+
+	boolean isCompressed(int offset) {
+		return buffer.get(offset) == COMPRESSED;
+	}
+
+	byte state(int offset) {
+		return buffer.get(offset);
+	}
+
+	int regionSize(int offset) {
+		return buffer.getInt(offset + 1);
+	}
+
+	int keyLength(int offset) {
+		return buffer.getInt(offset + 5);
+	}
+
+	int valueLength(int offset) {
+		return buffer.getInt(offset + 9);
+	}
+
+	boolean keyEquals(int offset, byte[] key) {
+		if (!isLive(offset) || keyLength(offset) != key.length) {
+			return false;
+		}
+		var start = offset + HEADER_SIZE;
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(start + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * View of key bytes, valid as long as page buffer is.
+	 */
+	ByteBuffer key(int offset) {
+		return slice(offset + HEADER_SIZE, keyLength(offset));
+	}
+
+	/**
+	 * View of value bytes, valid as long as page buffer is.
+	 */
+	ByteBuffer value(int offset) {
+		return slice(offset + HEADER_SIZE + keyLength(offset), valueLength(offset));
+	}
+
+	void writeRecord(int offset, int regionSize, byte[] key, byte[] value) {
+		writeRecord(offset, regionSize, LIVE, key, value);
+	}
+
+	void writeRecord(int offset, int regionSize, byte state, byte[] key, byte[] value) {
+		markRemainderFree(offset, regionSize);
+		buffer.put(offset, state)
+			.putInt(offset + 1, regionSize)
+			.putInt(offset + 5, key.length)
+			.putInt(offset + 9, value.length);
+		buffer.duplicate().limit(offset + regionSize).position(offset + HEADER_SIZE).put(key).put(value);
+	}
+
+	void markFree(int offset) {
+		buffer.put(offset, FREE);
+	}
+
+	void writeChain(long chainId, int nextPage, ByteBuffer data) {
+		buffer.put(0, CHAIN)
+			.putInt(1, buffer.capacity())
+			.putInt(5, nextPage)
+			.putInt(9, data.remaining())
+			.putLong(13, chainId);
+		buffer.duplicate().position(CHAIN_HEADER_SIZE).put(data);
+	}
+
+	/**
+	 * True when page holds part of a value of the chain.
+	 */
+	boolean isChain(long chainId) {
+		return buffer.get(0) == CHAIN && buffer.getLong(13) == chainId;
+	}
+
+	int nextPage() {
+		return buffer.getInt(5);
+	}
+
+	/**
+	 * View of chain data, valid as long as page buffer is.
+	 */
+	ByteBuffer chainData() {
+		return slice(CHAIN_HEADER_SIZE, buffer.getInt(9));
+	}
+
+	/**
+	 * Calls consumer with offsets of all live records in page.
+	 */
+	void forEachRecord(IntConsumer consumer) {
+		var offset = 0;
+		while (offset + HEADER_SIZE <= buffer.capacity() && buffer.get(offset) != EMPTY) {
+			if (isLive(offset)) {
+				consumer.accept(offset);
+			}
+			offset += regionSize(offset);
+		}
+	}
+
+	private ByteBuffer slice(int start, int length) {
+		return buffer.duplicate().limit(start + length).position(start).slice();
+	}
+
+	/*
+	 * Allocator merges adjacent free regions, and hands out parts of them to
+	 * writers, which can write in any order. So region can start or end in a
+	 * middle of a free region of page, or of never used tail, which is walked
+	 * to from page start. What is left around region gets header, so chain of
+	 * regions stays intact.
+	 */
+	private void markRemainderFree(int offset, int regionSize) {
+		var start = 0;
+		while (buffer.get(start) != EMPTY && start + regionSize(start) <= offset) {
+			start += regionSize(start);
+		}
+		if (buffer.get(start) == EMPTY) {
+			// page tail was never used, so it starts again after region
+			if (start < offset) {
+				buffer.put(start, FREE).putInt(start + 1, offset - start);
+			}
+			return;
+		}
+		var next = start + regionSize(start);
+		if (start < offset) {
+			buffer.put(start, FREE).putInt(start + 1, offset - start);
+		}
+		var end = offset + regionSize;
+		while (next < end && buffer.get(next) != EMPTY) {
+			next += regionSize(next);
+		}
+		if (next > end) {
+			buffer.put(end, FREE).putInt(end + 1, next - end);
+		}
+	}
+
+}
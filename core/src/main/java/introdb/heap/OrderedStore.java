@@ -0,0 +1,591 @@
+package introdb.heap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import introdb.heap.TreePage.Cell;
+import introdb.heap.alloc.Region;
+import introdb.heap.alloc.RegionAllocator;
+import introdb.heap.lock.LockManager;
+import introdb.heap.lock.LockSupport.Lease;
+import introdb.heap.page.Frame;
+import introdb.heap.page.PageCache;
+import introdb.heap.serial.Serializer;
+
+/**
+ * Store of entries sorted by key, in a B+tree of {@link TreePage} nodes, so
+ * keys in a range are read from consecutive leaves, after a single descent.
+ * Keys are compared deserialized, by given comparator or by their natural
+ * order.
+ * <p>
+ * Nodes are latched by their page locks, from the root down, and a latch of
+ * a parent is released only once latch of its child is taken. Writers first
+ * descend with read latches and take write latch of a leaf only, and when
+ * leaf would split, descend again with write latches, releasing ancestors of
+ * every node which has room for a split of its child. Leaves are only linked
+ * to their right siblings, so latches are always taken top down and left to
+ * right, and never deadlock.
+ * <p>
+ * Root stays at page 0, its cells move to two new pages when it splits. Nodes
+ * are not merged, page of a leaf which becomes empty is reused by later puts
+ * into its key range.
+ */
+class OrderedStore implements Store, Closeable {
+
+	private static final int ROOT = 0;
+
+	private final int pageSize;
+	private final int maxCellSize;
+	private final Serializer serializer;
+	private final Comparator<Object> comparator;
+	private final LockManager lockManager;
+	private final PageCache pages;
+	// guarded by itself, allocates whole pages
+	private final RegionAllocator allocator;
+
+	OrderedStore(Path path, int maxNrPages, int pageSize) throws IOException {
+		this(path, maxNrPages, pageSize, new HeapFileOptions());
+	}
+
+	/**
+	 * Store of {@link Comparable} keys.
+	 */
+	OrderedStore(Path path, int maxNrPages, int pageSize, HeapFileOptions options) throws IOException {
+		this(path, maxNrPages, pageSize, options, naturalOrder());
+	}
+
+	OrderedStore(Path path, int maxNrPages, int pageSize, HeapFileOptions options, Comparator<Object> comparator) throws IOException {
+		if (options.lockStripes() > 0) {
+			// latch of a child is taken while latch of its parent is held
+			throw new IllegalArgumentException("tree page locks cannot be striped");
+		}
+		this.pageSize = pageSize;
+		this.maxCellSize = TreePage.maxCellSize(pageSize);
+		this.serializer = options.serializer();
+		this.comparator = comparator;
+		this.lockManager = new LockManager(options.lockType(), 0, options.lockTimeout(), options.lockExecution());
+		this.allocator = new RegionAllocator(maxNrPages, pageSize, pageSize);
+		this.pages = UnorderedHeapFile.openPageCache(path, maxNrPages, pageSize, options, lockManager);
+		try {
+			open();
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public Object get(Serializable key) throws IOException, ClassNotFoundException {
+		byte[] value;
+		try (var leaf = descend(key, false)) {
+			var i = lowerBound(leaf.page, key);
+			if (!matches(leaf.page, i, key)) {
+				return null;
+			}
+			value = bytes(leaf.page.value(i));
+		}
+		return serializer.deserialize(ByteBuffer.wrap(value));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             when entry exceeds a quarter of page
+	 */
+	@Override
+	public void put(Entry entry) throws IOException, ClassNotFoundException {
+		var key = serializer.serialize(entry.key());
+		var value = serializer.serialize(entry.value());
+		if (TreePage.cellSize(key.length, value.length) > maxCellSize) {
+			throw new IllegalArgumentException("entry of " + (key.length + value.length) + " bytes exceeds quarter of page");
+		}
+		var cell = Cell.leaf(key, value);
+		try (var leaf = writeLeaf(entry.key())) {
+			var cells = withCell(leaf.page, entry.key(), cell);
+			if (TreePage.fits(cells, pageSize)) {
+				leaf.write(0, cells, leaf.page.link());
+				return;
+			}
+		}
+		putSplitting(entry.key(), cell);
+	}
+
+	@Override
+	public Object remove(Serializable key) throws IOException, ClassNotFoundException {
+		byte[] value;
+		try (var leaf = writeLeaf(key)) {
+			var i = lowerBound(leaf.page, key);
+			if (!matches(leaf.page, i, key)) {
+				return null;
+			}
+			value = bytes(leaf.page.value(i));
+			var cells = leaf.page.cells();
+			cells.remove(i);
+			leaf.write(0, cells, leaf.page.link());
+		}
+		return serializer.deserialize(ByteBuffer.wrap(value));
+	}
+
+	/**
+	 * Lazy stream of entries with keys from {@code from} inclusive to
+	 * {@code to} exclusive, in key order, either bound can be null for no
+	 * bound. Leaves are read one at a time, under their read latch, so stream
+	 * is weakly consistent as {@link #entries()}.
+	 */
+	public Stream<Entry> range(Serializable from, Serializable to) {
+		return scan(from, to, true, cell -> new Entry((Serializable) deserialize(cell.key), (Serializable) deserialize(cell.value)));
+	}
+
+	/**
+	 * Entries in key order, see {@link #range(Serializable, Serializable)}.
+	 */
+	@Override
+	public Stream<Entry> entries() {
+		return range(null, null);
+	}
+
+	@Override
+	public Stream<Serializable> keys() {
+		return scan(null, null, false, cell -> (Serializable) deserialize(cell.key));
+	}
+
+	void flush() throws IOException {
+		pages.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			pages.close();
+		} finally {
+			try {
+				lockManager.shutdown();
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/*
+	 * Only pages reachable from root belong to the tree, whatever size of file
+	 * is, so pages written by a split which never reached its parent stay
+	 * free. Leaves are found as children of the lowest inner nodes, so they
+	 * are not read.
+	 */
+	private void open() throws IOException {
+		allocator.reserve(new Region(ROOT, 0, pageSize));
+		try (var root = latch(ROOT, true)) {
+			if (!root.page.isFormatted()) {
+				root.write(0, List.of(), TreePage.NO_PAGE);
+			} else if (!root.page.isLeaf()) {
+				reserveChildren(root.page);
+			}
+		}
+	}
+
+	private void reserveChildren(TreePage node) throws IOException {
+		for (int i = 0; i <= node.count(); i++) {
+			var child = node.child(i);
+			allocator.reserve(new Region(child, 0, pageSize));
+			if (node.level() > 1) {
+				try (var latch = latch(child, false)) {
+					reserveChildren(latch.page);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Leaf which holds key, or the leftmost one when key is null. With write
+	 * latch of a leaf, there is no such leaf when root is a leaf itself, as its
+	 * read latch can't be upgraded.
+	 */
+	private Latch descend(Object key, boolean writeLeaf) throws IOException, ClassNotFoundException {
+		var node = latch(ROOT, false);
+		try {
+			if (writeLeaf && node.page.isLeaf()) {
+				node.close();
+				return null;
+			}
+			while (!node.page.isLeaf()) {
+				var child = node.page.child(key == null ? 0 : upperBound(node.page, key));
+				var parent = node;
+				node = latch(child, writeLeaf && parent.page.level() == 1);
+				parent.close();
+			}
+			return node;
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			release(node, e);
+			throw e;
+		}
+	}
+
+	private Latch writeLeaf(Object key) throws IOException, ClassNotFoundException {
+		while (true) {
+			var leaf = descend(key, true);
+			if (leaf != null) {
+				return leaf;
+			}
+			var root = latch(ROOT, true);
+			if (root.page.isLeaf()) {
+				return root;
+			}
+			// root split in a meantime
+			root.close();
+		}
+	}
+
+	/*
+	 * Descends with write latches, and keeps only latches of nodes which may
+	 * split, below the last one which has room for a cell of its child.
+	 */
+	private void putSplitting(Object key, Cell cell) throws IOException, ClassNotFoundException {
+		var path = new ArrayList<Latch>();
+		try {
+			var node = latch(ROOT, true);
+			path.add(node);
+			while (!node.page.isLeaf()) {
+				var slot = upperBound(node.page, key);
+				var child = latch(node.page.child(slot), true);
+				child.slot = slot;
+				if (child.page.freeSpace() >= maxCellSize) {
+					releaseAll(path);
+					path.clear();
+				}
+				path.add(child);
+				node = child;
+			}
+			var separator = store(node, withCell(node.page, key, cell), node.page.link());
+			for (int i = path.size() - 2; i >= 0 && separator != null; i--) {
+				var parent = path.get(i);
+				var cells = parent.page.cells();
+				cells.add(path.get(i + 1).slot, separator);
+				separator = store(parent, cells, parent.page.link());
+			}
+		} finally {
+			releaseAll(path);
+		}
+	}
+
+	/*
+	 * Writes cells to a node, or splits it in halves by size, when they don't
+	 * fit. Right half goes to a new page.
+	 *
+	 * @return cell of the new page for parent, or null when nothing is split
+	 * or root is split
+	 */
+	private Cell store(Latch node, List<Cell> cells, int link) throws IOException {
+		var level = node.page.level();
+		if (TreePage.fits(cells, pageSize)) {
+			node.write(level, cells, link);
+			return null;
+		}
+		var leaf = level == 0;
+		var middle = splitIndex(cells);
+		var separator = cells.get(middle);
+		var left = cells.subList(0, middle);
+		// separator of inner node moves up, its child becomes leftmost of the right node
+		var right = cells.subList(leaf ? middle : middle + 1, cells.size());
+		var rightLink = leaf ? link : separator.child;
+		var rightPage = allocate();
+		if (node.page.pageNr() == ROOT) {
+			int leftPage;
+			try {
+				leftPage = allocate();
+			} catch (IOException e) {
+				free(rightPage);
+				throw e;
+			}
+			writeNew(leftPage, level, left, leaf ? rightPage : link);
+			writeNew(rightPage, level, right, rightLink);
+			node.write(level + 1, List.of(Cell.inner(separator.key, rightPage)), leftPage);
+			return null;
+		}
+		writeNew(rightPage, level, right, rightLink);
+		node.write(level, left, leaf ? rightPage : link);
+		return Cell.inner(separator.key, rightPage);
+	}
+
+	private void writeNew(int pageNr, int level, List<Cell> cells, int link) throws IOException {
+		try (var latch = latch(pageNr, true)) {
+			latch.write(level, cells, link);
+		}
+	}
+
+	/*
+	 * First cell of the right half, which takes at most half of the size, every
+	 * cell is smaller than half, so both halves are not empty.
+	 */
+	private static int splitIndex(List<Cell> cells) {
+		var half = TreePage.size(cells) / 2;
+		var size = 0;
+		var i = 0;
+		while (size < half) {
+			size += TreePage.cellSize(cells.get(i++));
+		}
+		return Math.min(Math.max(i, 1), cells.size() - 1);
+	}
+
+	/*
+	 * Cells of a leaf, with the cell put in place of a cell of the same key.
+	 */
+	private List<Cell> withCell(TreePage page, Object key, Cell cell) throws IOException, ClassNotFoundException {
+		var i = lowerBound(page, key);
+		var replace = matches(page, i, key);
+		var cells = page.cells();
+		if (replace) {
+			cells.set(i, cell);
+		} else {
+			cells.add(i, cell);
+		}
+		return cells;
+	}
+
+	private boolean matches(TreePage page, int i, Object key) throws IOException, ClassNotFoundException {
+		return i < page.count() && compare(page.key(i), key) == 0;
+	}
+
+	// first cell with key equal or larger, searching from cell from
+	private int lowerBound(TreePage page, Object key, int from) throws IOException, ClassNotFoundException {
+		int low = from;
+		int high = page.count();
+		while (low < high) {
+			var middle = (low + high) >>> 1;
+			if (compare(page.key(middle), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int lowerBound(TreePage page, Object key) throws IOException, ClassNotFoundException {
+		return lowerBound(page, key, 0);
+	}
+
+	// first cell with larger key, which is also the child of an inner node which holds key
+	private int upperBound(TreePage page, Object key) throws IOException, ClassNotFoundException {
+		int low = 0;
+		int high = page.count();
+		while (low < high) {
+			var middle = (low + high) >>> 1;
+			if (compare(page.key(middle), key) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int compare(ByteBuffer key, Object other) throws IOException, ClassNotFoundException {
+		return comparator.compare(serializer.deserialize(key), other);
+	}
+
+	private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		return serializer.deserialize(ByteBuffer.wrap(bytes));
+	}
+
+	private int allocate() throws IOException {
+		synchronized (allocator) {
+			return allocator.alloc(pageSize).orElseThrow(() -> new IOException("ordered store is full")).pageNr();
+		}
+	}
+
+	private void free(int pageNr) {
+		synchronized (allocator) {
+			allocator.free(new Region(pageNr, 0, pageSize));
+		}
+	}
+
+	private Latch latch(int pageNr, boolean write) throws IOException {
+		var frame = pages.pin(pageNr);
+		try {
+			var lease = write ? frame.lock().writeLease() : frame.lock().readLease();
+			return new Latch(frame, lease);
+		} catch (RuntimeException e) {
+			pages.unpin(frame, false);
+			throw e;
+		}
+	}
+
+	private static void release(Latch latch, Exception failure) {
+		try {
+			latch.close();
+		} catch (IOException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	private static void releaseAll(List<Latch> latches) throws IOException {
+		IOException error = null;
+		for (var latch : latches) {
+			try {
+				latch.close();
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				} else {
+					error.addSuppressed(e);
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		var bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Comparator<Object> naturalOrder() {
+		return (a, b) -> ((Comparable) a).compareTo(b);
+	}
+
+	private <T> Stream<T> scan(Serializable from, Serializable to, boolean values, CellMapper<T> mapper) {
+		return StreamSupport.stream(new LeafSpliterator<>(from, to, values, mapper), false);
+	}
+
+	@FunctionalInterface
+	private interface CellMapper<T> {
+
+		T map(Cell cell) throws IOException, ClassNotFoundException;
+
+	}
+
+	/*
+	 * Page pinned and latched until it is closed.
+	 */
+	private class Latch implements Closeable {
+
+		private final Frame frame;
+		private final Lease lease;
+		final TreePage page;
+		// child of parent which leads to this node
+		int slot;
+		private boolean dirty;
+		private boolean closed;
+
+		Latch(Frame frame, Lease lease) {
+			this.frame = frame;
+			this.lease = lease;
+			this.page = new TreePage(frame.pageNr(), frame.buffer());
+		}
+
+		void write(int level, List<Cell> cells, int link) {
+			page.write(level, cells, link);
+			dirty = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				lease.close();
+			} finally {
+				pages.unpin(frame, dirty);
+			}
+		}
+
+	}
+
+	/*
+	 * Copies cells of one leaf at a time, and follows link of the leaf it read,
+	 * so every leaf is read once and nothing stays latched between reads. Cells
+	 * only move right when leaves split, so a cell is never missed, only cells
+	 * put after their leaf was read are.
+	 */
+	private class LeafSpliterator<T> implements Spliterator<T> {
+
+		private final Serializable from;
+		private final Serializable to;
+		private final boolean values;
+		private final CellMapper<T> mapper;
+		private boolean started;
+		private int nextLeaf = ROOT;
+		private Iterator<Cell> current = Collections.emptyIterator();
+
+		LeafSpliterator(Serializable from, Serializable to, boolean values, CellMapper<T> mapper) {
+			this.from = from;
+			this.to = to;
+			this.values = values;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			try {
+				while (!current.hasNext()) {
+					if (nextLeaf == TreePage.NO_PAGE) {
+						return false;
+					}
+					current = readLeaf().iterator();
+				}
+				action.accept(mapper.map(current.next()));
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (ClassNotFoundException e) {
+				throw new UncheckedIOException(new IOException(e));
+			}
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+
+		private List<Cell> readLeaf() throws IOException, ClassNotFoundException {
+			try (var leaf = started ? latch(nextLeaf, false) : descend(from, false)) {
+				var page = leaf.page;
+				var first = started || from == null ? 0 : lowerBound(page, from);
+				started = true;
+				var end = page.count();
+				// only the last key is compared, unless range ends in this leaf
+				if (to != null && end > first && compare(page.key(end - 1), to) >= 0) {
+					end = lowerBound(page, to, first);
+					nextLeaf = TreePage.NO_PAGE;
+				} else {
+					nextLeaf = page.link();
+				}
+				var cells = new ArrayList<Cell>(end - first);
+				for (int i = first; i < end; i++) {
+					cells.add(Cell.leaf(bytes(page.key(i)), values ? bytes(page.value(i)) : null));
+				}
+				return cells;
+			}
+		}
+
+	}
+
+}
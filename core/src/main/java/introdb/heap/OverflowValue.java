@@ -0,0 +1,78 @@
+package introdb.heap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Descriptor of a value which doesn't fit a page, it is kept as value of
+ * {@link HeapPage#OVERFLOW} record, and value itself in a chain of pages.
+ * Serialized value is prefix, followed by data of all chain pages. Prefix of a
+ * byte array is array header of serializer, so chain data is the array itself
+ * and it can be streamed.
+ * <p>
+ * Every chain has random id, which is written to all its pages, so a chain
+ * broken by a crash is recognized.
+ */
+class OverflowValue {
+
+	// chain id, first page, length and byte array flag
+	static final int HEADER_SIZE = 21;
+
+	private final long chainId;
+	private final int firstPage;
+	private final long length;
+	private final boolean byteArray;
+	private final byte[] prefix;
+
+	OverflowValue(long chainId, int firstPage, long length, boolean byteArray, byte[] prefix) {
+		this.chainId = chainId;
+		this.firstPage = firstPage;
+		this.length = length;
+		this.byteArray = byteArray;
+		this.prefix = prefix;
+	}
+
+	static OverflowValue decode(ByteBuffer descriptor) {
+		var buffer = descriptor.duplicate();
+		var chainId = buffer.getLong();
+		var firstPage = buffer.getInt();
+		var length = buffer.getLong();
+		var byteArray = buffer.get() == 1;
+		var prefix = new byte[buffer.remaining()];
+		buffer.get(prefix);
+		return new OverflowValue(chainId, firstPage, length, byteArray, prefix);
+	}
+
+	byte[] encode() {
+		return ByteBuffer.allocate(HEADER_SIZE + prefix.length)
+			.putLong(chainId)
+			.putInt(firstPage)
+			.putLong(length)
+			.put((byte) (byteArray ? 1 : 0))
+			.put(prefix)
+			.array();
+	}
+
+	long chainId() {
+		return chainId;
+	}
+
+	int firstPage() {
+		return firstPage;
+	}
+
+	/**
+	 * Length of chain data.
+	 */
+	long length() {
+		return length;
+	}
+
+	boolean isByteArray() {
+		return byteArray;
+	}
+
+	byte[] prefix() {
+		return prefix;
+	}
+
+}
@@ -0,0 +1,105 @@
+package introdb.heap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import introdb.heap.page.PageCache;
+
+/**
+ * Spliterator of items read from a range of pages, which is split by page
+ * number, so every task of a parallel stream scans its own pages. Every page
+ * is read once, and only items of the current page are kept in memory. Pages
+ * are read in ascending order, a few pages ahead are prefetched.
+ */
+class PageSpliterator<T> implements Spliterator<T> {
+
+	static final int READ_AHEAD = 8;
+	// smaller ranges are not worth a task of their own
+	private static final int MIN_SPLIT = 16;
+
+	@FunctionalInterface
+	interface PageReader<T> {
+
+		List<T> read(int pageNr) throws IOException;
+
+	}
+
+	private final PageCache pages;
+	private final PageReader<T> reader;
+	private final int estimatedPerPage;
+	private int nextPage;
+	private final int endPage;
+	private int prefetched;
+	private Iterator<T> current = Collections.emptyIterator();
+
+	PageSpliterator(PageCache pages, PageReader<T> reader, int firstPage, int endPage, int estimatedPerPage) {
+		this.pages = pages;
+		this.reader = reader;
+		this.nextPage = firstPage;
+		this.endPage = endPage;
+		this.prefetched = firstPage;
+		this.estimatedPerPage = estimatedPerPage;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		while (!current.hasNext()) {
+			if (nextPage >= endPage) {
+				return false;
+			}
+			current = readPage(nextPage++).iterator();
+		}
+		action.accept(current.next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		current.forEachRemaining(action);
+		while (nextPage < endPage) {
+			readPage(nextPage++).forEach(action);
+		}
+		current = Collections.emptyIterator();
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		// items of current page belong to this one, which keeps the suffix
+		if (current.hasNext() || endPage - nextPage < 2 * MIN_SPLIT) {
+			return null;
+		}
+		var middle = nextPage + (endPage - nextPage) / 2;
+		var prefix = new PageSpliterator<>(pages, reader, nextPage, middle, estimatedPerPage);
+		nextPage = middle;
+		prefetched = middle;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return (long) (endPage - nextPage) * estimatedPerPage;
+	}
+
+	@Override
+	public int characteristics() {
+		return NONNULL;
+	}
+
+	private List<T> readPage(int pageNr) {
+		try {
+			prefetched = Math.max(prefetched, pageNr + 1);
+			for (; prefetched < Math.min(pageNr + 1 + READ_AHEAD, endPage); prefetched++) {
+				pages.prefetch(prefetched);
+			}
+			return reader.read(pageNr);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package introdb.heap;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import introdb.heap.serial.Serializer;
+
+/**
+ * Store of independent heap files, partitions, which keys are routed to by hash
+ * of their serialized form. Every partition has its own file, allocator, buffer
+ * pool and locks, so operations on different partitions never contend, and
+ * partitions spread over given directories, which can sit on different disks.
+ * <p>
+ * Number of partitions is fixed when store is created, as keys would be routed
+ * elsewhere otherwise.
+ */
+class PartitionedStore implements Store, Closeable {
+
+	private final Serializer serializer;
+	private final UnorderedHeapFile[] partitions;
+
+	/**
+	 * @param directories partition i is placed in directory i modulo number of
+	 *                    directories
+	 * @param maxNrPages  maximum number of pages of every partition
+	 * @param options     options of every partition
+	 */
+	PartitionedStore(List<Path> directories, String name, int nrOfPartitions, int maxNrPages, int pageSize, HeapFileOptions options) throws IOException {
+		if (directories.isEmpty() || nrOfPartitions < 1) {
+			throw new IllegalArgumentException("store needs at least one directory and partition");
+		}
+		checkPartitions(manifestPath(directories, name), nrOfPartitions);
+		this.serializer = options.serializer();
+		this.partitions = new UnorderedHeapFile[nrOfPartitions];
+		try {
+			for (int i = 0; i < nrOfPartitions; i++) {
+				partitions[i] = new UnorderedHeapFile(partitionPath(directories, name, i), maxNrPages, pageSize, options);
+			}
+		} catch (IOException | RuntimeException e) {
+			close(e);
+			throw e;
+		}
+	}
+
+	static Path partitionPath(List<Path> directories, String name, int partition) {
+		return directories.get(partition % directories.size()).resolve(name + "-" + partition);
+	}
+
+	/**
+	 * File which keeps number of partitions, in the first directory.
+	 */
+	static Path manifestPath(List<Path> directories, String name) {
+		return directories.get(0).resolve(name + ".partitions");
+	}
+
+	@Override
+	public Object remove(Serializable key) throws IOException, ClassNotFoundException {
+		return partition(key).remove(key);
+	}
+
+	@Override
+	public Object get(Serializable key) throws IOException, ClassNotFoundException {
+		return partition(key).get(key);
+	}
+
+	@Override
+	public void put(Entry entry) throws IOException, ClassNotFoundException {
+		partition(entry.key()).put(entry);
+	}
+
+	/**
+	 * Puts entries of every partition as a single batch.
+	 */
+	@Override
+	public void putAll(Collection<Entry> entries) throws IOException, ClassNotFoundException {
+		var batches = new LinkedHashMap<UnorderedHeapFile, List<Entry>>();
+		for (var entry : entries) {
+			batches.computeIfAbsent(partition(entry.key()), partition -> new ArrayList<>()).add(entry);
+		}
+		for (var batch : batches.entrySet()) {
+			batch.getKey().putAll(batch.getValue());
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<Serializable> keys) throws IOException, ClassNotFoundException {
+		var batches = new LinkedHashMap<UnorderedHeapFile, List<Serializable>>();
+		for (var key : keys) {
+			batches.computeIfAbsent(partition(key), partition -> new ArrayList<>()).add(key);
+		}
+		for (var batch : batches.entrySet()) {
+			batch.getKey().removeAll(batch.getValue());
+		}
+	}
+
+	/**
+	 * Entries of all partitions, parallel stream splits partitions between
+	 * threads first, and only then pages of a partition.
+	 */
+	@Override
+	public Stream<Entry> entries() {
+		return StreamSupport.stream(new PartitionSpliterator<>(partitions, UnorderedHeapFile::entries, 0, partitions.length), false);
+	}
+
+	@Override
+	public Stream<Serializable> keys() {
+		return StreamSupport.stream(new PartitionSpliterator<>(partitions, UnorderedHeapFile::keys, 0, partitions.length), false);
+	}
+
+	int nrOfPartitions() {
+		return partitions.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		close(null);
+	}
+
+	/*
+	 * Closes all partitions, even when some of them fail to close.
+	 */
+	private void close(Exception failure) throws IOException {
+		IOException error = null;
+		for (var partition : partitions) {
+			if (partition == null) {
+				continue;
+			}
+			try {
+				partition.close();
+			} catch (IOException e) {
+				if (failure != null) {
+					failure.addSuppressed(e);
+				} else if (error == null) {
+					error = e;
+				} else {
+					error.addSuppressed(e);
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/*
+	 * Hash of serialized key is spread, and mapped onto partitions by its high
+	 * bits, so it doesn't correlate with hash index of a partition.
+	 */
+	private UnorderedHeapFile partition(Serializable key) throws IOException {
+		var hash = Arrays.hashCode(serializer.serialize(key)) * 0x9e3779b9;
+		return partitions[(int) (((hash & 0xffffffffL) * partitions.length) >>> 32)];
+	}
+
+	private static void checkPartitions(Path manifest, int nrOfPartitions) throws IOException {
+		if (!Files.exists(manifest)) {
+			Files.write(manifest, Integer.toString(nrOfPartitions).getBytes(US_ASCII));
+			return;
+		}
+		var stored = new String(Files.readAllBytes(manifest), US_ASCII).trim();
+		if (!stored.equals(Integer.toString(nrOfPartitions))) {
+			throw new IllegalArgumentException("store was created with " + stored + " partitions, not " + nrOfPartitions);
+		}
+	}
+
+	/*
+	 * Splits range of partitions in halves, and a single partition by its own
+	 * spliterator, which is created once partition is traversed or split.
+	 */
+	private static class PartitionSpliterator<T> implements Spliterator<T> {
+
+		private final UnorderedHeapFile[] partitions;
+		private final Function<UnorderedHeapFile, Stream<T>> scan;
+		private int from;
+		private int to;
+		private Spliterator<T> current;
+
+		PartitionSpliterator(UnorderedHeapFile[] partitions, Function<UnorderedHeapFile, Stream<T>> scan, int from, int to) {
+			this.partitions = partitions;
+			this.scan = scan;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			while (true) {
+				if (current == null) {
+					if (from == to) {
+						return false;
+					}
+					current = scan.apply(partitions[from++]).spliterator();
+				}
+				if (current.tryAdvance(action)) {
+					return true;
+				}
+				current = null;
+			}
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			if (current != null && from < to) {
+				// partitions left are not ordered after the current one
+				var rest = new PartitionSpliterator<>(partitions, scan, from, to);
+				from = to;
+				return rest;
+			}
+			if (current == null && to - from > 1) {
+				var middle = (from + to) >>> 1;
+				var prefix = new PartitionSpliterator<>(partitions, scan, from, middle);
+				from = middle;
+				return prefix;
+			}
+			if (current == null && to - from == 1) {
+				current = scan.apply(partitions[from++]).spliterator();
+			}
+			return current != null ? current.trySplit() : null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return from < to ? Long.MAX_VALUE : current != null ? current.estimateSize() : 0;
+		}
+
+		@Override
+		public int characteristics() {
+			return NONNULL;
+		}
+
+	}
+
+}
@@ -2,6 +2,8 @@ package introdb.heap;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.stream.Stream;
 
 interface Store {
 
@@ -15,8 +17,38 @@ interface Store {
 	 * @throws ClassNotFoundException 
 	 * @throws IOException 
 	 * @throws IllegalArgumentException
-	 *             when entry exceeds page size
+	 *             when key exceeds page size
 	 */
 	void put(Entry entry) throws IOException, ClassNotFoundException;
 
+	/**
+	 * Puts all entries, as if they were put one by one, in iteration order.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when key of any entry exceeds page size
+	 */
+	default void putAll(Collection<Entry> entries) throws IOException, ClassNotFoundException {
+		for (var entry : entries) {
+			put(entry);
+		}
+	}
+
+	default void removeAll(Collection<Serializable> keys) throws IOException, ClassNotFoundException {
+		for (var key : keys) {
+			remove(key);
+		}
+	}
+
+	/**
+	 * Lazy stream of all entries, in no particular order. Stream is weakly
+	 * consistent, entries put or removed while it is consumed may or may not be
+	 * seen. I/O failures are thrown as {@link java.io.UncheckedIOException}.
+	 */
+	Stream<Entry> entries();
+
+	/**
+	 * Keys of {@link #entries()}, values are not read at all.
+	 */
+	Stream<Serializable> keys();
+
 }
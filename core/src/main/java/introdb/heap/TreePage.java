@@ -0,0 +1,199 @@
+package introdb.heap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a B+tree node page of {@link OrderedStore}. Page starts with a
+ * header: level (int, 0 for leaves), number of cells (int), link (int) and
+ * start of cell data (int), followed by an array of cell offsets, sorted by
+ * key. Cells are written from the end of page towards the header.
+ * <p>
+ * Cell layout is: key length (int), value length of a leaf cell or child page
+ * of an inner cell (int), key and value bytes. Link of a leaf is its right
+ * sibling, link of an inner node is its leftmost child, which holds keys
+ * smaller than key of the first cell, child of every cell holds keys equal to
+ * or larger than its key.
+ * <p>
+ * Page is always rewritten as a whole, so it has no holes, and its free space
+ * is exact.
+ */
+class TreePage {
+
+	static final int HEADER_SIZE = 16;
+	static final int SLOT_SIZE = Integer.BYTES;
+	static final int CELL_HEADER_SIZE = 2 * Integer.BYTES;
+	static final int NO_PAGE = -1;
+
+	private static final int LEVEL = 0;
+	private static final int COUNT = 4;
+	private static final int LINK = 8;
+	private static final int DATA_START = 12;
+
+	private final int pageNr;
+	private final ByteBuffer buffer;
+
+	TreePage(int pageNr, ByteBuffer buffer) {
+		this.pageNr = pageNr;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Space taken by a cell, including its slot.
+	 */
+	static int cellSize(int keyLength, int valueLength) {
+		return SLOT_SIZE + CELL_HEADER_SIZE + keyLength + valueLength;
+	}
+
+	static int cellSize(Cell cell) {
+		return cellSize(cell.key.length, cell.value != null ? cell.value.length : 0);
+	}
+
+	/**
+	 * Largest cell, so that node of any cells which overflow a page splits into
+	 * two nodes which fit.
+	 */
+	static int maxCellSize(int pageSize) {
+		return (pageSize - HEADER_SIZE) / 4;
+	}
+
+	static boolean fits(List<Cell> cells, int pageSize) {
+		return size(cells) <= pageSize - HEADER_SIZE;
+	}
+
+	static int size(List<Cell> cells) {
+		var size = 0;
+		for (var cell : cells) {
+			size += cellSize(cell);
+		}
+		return size;
+	}
+
+	int pageNr() {
+		return pageNr;
+	}
+
+	/**
+	 * False for a page which was never written.
+	 */
+	boolean isFormatted() {
+		return buffer.getInt(DATA_START) != 0;
+	}
+
+	int level() {
+		return buffer.getInt(LEVEL);
+	}
+
+	boolean isLeaf() {
+		return level() == 0;
+	}
+
+	int count() {
+		return buffer.getInt(COUNT);
+	}
+
+	int link() {
+		return buffer.getInt(LINK);
+	}
+
+	int freeSpace() {
+		return buffer.getInt(DATA_START) - HEADER_SIZE - count() * SLOT_SIZE;
+	}
+
+	ByteBuffer key(int i) {
+		var offset = cellOffset(i);
+		var start = offset + CELL_HEADER_SIZE;
+		return buffer.duplicate().limit(start + buffer.getInt(offset)).position(start).slice();
+	}
+
+	ByteBuffer value(int i) {
+		var offset = cellOffset(i);
+		var start = offset + CELL_HEADER_SIZE + buffer.getInt(offset);
+		return buffer.duplicate().limit(start + buffer.getInt(offset + Integer.BYTES)).position(start).slice();
+	}
+
+	/**
+	 * Child page of an inner node, child 0 is the leftmost one, child i is the
+	 * one of cell i - 1.
+	 */
+	int child(int i) {
+		return i == 0 ? link() : buffer.getInt(cellOffset(i - 1) + Integer.BYTES);
+	}
+
+	/**
+	 * Copies of all cells.
+	 */
+	List<Cell> cells() {
+		var count = count();
+		var leaf = isLeaf();
+		var cells = new ArrayList<Cell>(count + 1);
+		for (int i = 0; i < count; i++) {
+			cells.add(leaf ? Cell.leaf(bytes(key(i)), bytes(value(i))) : Cell.inner(bytes(key(i)), child(i + 1)));
+		}
+		return cells;
+	}
+
+	/**
+	 * Rewrites whole page, cells have to fit it.
+	 */
+	void write(int level, List<Cell> cells, int link) {
+		if (!fits(cells, buffer.capacity())) {
+			throw new IllegalStateException("cells overflow page " + pageNr);
+		}
+		var dataStart = buffer.capacity();
+		for (int i = 0; i < cells.size(); i++) {
+			var cell = cells.get(i);
+			var leaf = cell.value != null;
+			dataStart -= CELL_HEADER_SIZE + cell.key.length + (leaf ? cell.value.length : 0);
+			buffer.putInt(HEADER_SIZE + i * SLOT_SIZE, dataStart);
+			buffer.putInt(dataStart, cell.key.length);
+			buffer.putInt(dataStart + Integer.BYTES, leaf ? cell.value.length : cell.child);
+			buffer.duplicate().position(dataStart + CELL_HEADER_SIZE).put(cell.key);
+			if (leaf) {
+				buffer.duplicate().position(dataStart + CELL_HEADER_SIZE + cell.key.length).put(cell.value);
+			}
+		}
+		buffer.putInt(LEVEL, level);
+		buffer.putInt(COUNT, cells.size());
+		buffer.putInt(LINK, link);
+		buffer.putInt(DATA_START, dataStart);
+	}
+
+	private int cellOffset(int i) {
+		return buffer.getInt(HEADER_SIZE + i * SLOT_SIZE);
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		var bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Cell of a leaf, with a value, or of an inner node, with a child page.
+	 */
+	static class Cell {
+
+		final byte[] key;
+		// null for inner cell
+		final byte[] value;
+		final int child;
+
+		private Cell(byte[] key, byte[] value, int child) {
+			this.key = key;
+			this.value = value;
+			this.child = child;
+		}
+
+		static Cell leaf(byte[] key, byte[] value) {
+			return new Cell(key, value, NO_PAGE);
+		}
+
+		static Cell inner(byte[] key, int child) {
+			return new Cell(key, null, child);
+		}
+
+	}
+
+}
@@ -1,26 +1,1709 @@
 package introdb.heap;
 
+import static introdb.heap.index.HashIndex.NOT_FOUND;
+import static introdb.heap.index.HashIndex.fingerprint;
+import static introdb.heap.index.HashIndex.location;
+import static introdb.heap.index.HashIndex.offset;
+import static introdb.heap.index.HashIndex.pageNr;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import introdb.heap.alloc.ConcurrentRegionAllocator;
+import introdb.heap.alloc.FreeSpaceMap;
+import introdb.heap.alloc.Region;
+import introdb.heap.compress.ValueCompressor;
+import introdb.heap.index.BloomFilter;
+import introdb.heap.index.HashIndex;
+import introdb.heap.index.IndexFilter;
+import introdb.heap.lock.LockManager;
+import introdb.heap.lock.LockManager.LockType;
+import introdb.heap.lock.LockStats;
+import introdb.heap.lock.LockSupport.Lease;
+import introdb.heap.page.BufferPool;
+import introdb.heap.page.BufferPoolStats;
+import introdb.heap.page.ChannelPageFile;
+import introdb.heap.page.Frame;
+import introdb.heap.page.MappedPageCache;
+import introdb.heap.page.MappedPageFile;
+import introdb.heap.page.PageCache;
+import introdb.heap.serial.Serializer;
+import introdb.heap.wal.WriteAheadLog;
+
+/**
+ * Heap file of entries, every page access goes through page cache, and page
+ * content is accessed only under page lock. Index and allocator guard their
+ * own state, and index matches keys against pages without holding its locks,
+ * so operations on different pages don't block each other.
+ * <p>
+ * When commit policy is set, every modification is also appended to write
+ * ahead log, and pages are written lazily. Replaced record stays live until
+ * log is forced past its replacement, so whenever its page is written, a
+ * crash never leaves a key without either of them. Log is replayed on open,
+ * and truncated on checkpoint, once all pages are flushed.
+ * <p>
+ * Allocator state is saved to free space map on close, and loaded on open.
+ * When heap file was not closed properly, allocator and index are rebuilt by
+ * reading all pages in parallel.
+ * <p>
+ * Records of sparse pages can be moved to denser ones by compaction, which
+ * runs in background, a record at a time, so readers of a page never wait
+ * for more than a single record copy.
+ */
+class UnorderedHeapFile implements Store, Closeable {
+
+	private static final int MIN_REGION_SIZE = 32;
+	private static final int KEY_LOCKS = 64;
+	private static final byte[] NO_VALUE = new byte[0];
+	// pages read by recovery thread at once
+	private static final int RECOVERY_BATCH = 64;
+	// pages which have at least this part free are compacted
+	private static final int SPARSE_PAGE_RATIO = 2;
+	// pages written at once under multi page lock
+	private static final int MAX_LOCKED_PAGES = 8;
+
+	private final Path path;
+	private final int pageSize;
+	private final LockManager lockManager;
+	private final int lockedPages;
+	private final PageCache pages;
+	private final ConcurrentRegionAllocator allocator;
+	private final HashIndex index;
+	// null when there is no filter
+	private IndexFilter filter;
+	private final Serializer serializer;
+	// null when values are stored raw
+	private final ValueCompressor compressor;
+	private final WriteAheadLog log;
+	private final long checkpointSize;
+	// shared by logged operations, exclusive for checkpoint
+	private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	// records replaced by operations which are not durable yet
+	private final Queue<ReplacedRecords> replacedRecords = new ConcurrentLinkedQueue<>();
+	// keep log order and heap order of operations on the same key consistent
+	private final ReentrantLock[] keyLocks = new ReentrantLock[KEY_LOCKS];
+	// free space map is not saved, when heap file failed to open
+	private boolean opened;
+	private final ScheduledExecutorService compactor;
+	// background compaction stops on first failure, which is reported on close
+	private volatile IOException compactionFailure;
+
+	UnorderedHeapFile(Path path, int maxNrPages, int pageSize) throws IOException {
+		this(path, maxNrPages, pageSize, new HeapFileOptions());
+	}
 
-class UnorderedHeapFile implements Store{
+	UnorderedHeapFile(Path path, int maxNrPages, int pageSize, HeapFileOptions options) throws IOException {
+		if (pageSize % HeapPage.ALIGNMENT != 0) {
+			throw new IllegalArgumentException("page size has to be multiple of " + HeapPage.ALIGNMENT);
+		}
+		if (options.lockStripes() > 0 && options.lockType() != LockType.READ_WRITE) {
+			// stamped locks are not reentrant
+			throw new IllegalArgumentException("only read write locks can be striped");
+		}
+		this.path = path;
+		this.pageSize = pageSize;
+		this.serializer = options.serializer();
+		this.compressor = options.compression() ? new ValueCompressor() : null;
+		this.lockManager = new LockManager(options.lockType(), options.lockStripes(), options.lockTimeout(), options.lockExecution());
+		this.lockedPages = lockedPages(options);
+		this.pages = openPageCache(path, maxNrPages, pageSize, options, lockManager);
+		this.allocator = new ConcurrentRegionAllocator(maxNrPages, pageSize, MIN_REGION_SIZE, options.allocatorStripes());
+		this.index = HashIndex.open(indexPath(path), pageSize);
+		this.checkpointSize = options.checkpointSize();
+		this.log = options.commitPolicy() != null ? new WriteAheadLog(logPath(path), options.commitPolicy()) : null;
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			keyLocks[i] = new ReentrantLock();
+		}
+		this.compactor = options.compactionInterval() != null ? newCompactor(path) : null;
+		try {
+			recover(recoveryThreads(options));
+			if (options.bloomFilterMemory() > 0) {
+				filter = IndexFilter.open(bloomFilterPath(path), index, options.bloomFilterFalsePositiveRate(), options.bloomFilterMemory());
+			} else {
+				BloomFilter.invalidate(bloomFilterPath(path));
+			}
+			if (log != null) {
+				replayLog();
+			}
+			opened = true;
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+		if (compactor != null) {
+			var interval = options.compactionInterval().toNanos();
+			var budget = options.compactionBudget();
+			compactor.scheduleWithFixedDelay(() -> {
+				try {
+					compact(budget);
+				} catch (IOException e) {
+					compactionFailure = e;
+					throw new UncheckedIOException(e);
+				}
+			}, interval, interval, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	static Path indexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".idx");
+	}
+
+	static Path logPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".wal");
+	}
+
+	static Path freeSpaceMapPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".fsm");
+	}
 
-	UnorderedHeapFile(Path path, int maxNrPages, int pageSize) {
+	static Path bloomFilterPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".bloom");
 	}
 
+	/**
+	 * Puts entry, its value is stored in a chain of overflow pages when it
+	 * doesn't fit a page, even compressed.
+	 *
+	 * @throws IllegalArgumentException
+	 *             when key doesn't fit a page
+	 */
 	@Override
 	public void put(Entry entry) throws IOException, ClassNotFoundException {
+		var key = serializer.serialize(entry.key());
+		var value = serializer.serialize(entry.value());
+		var stored = store(value);
+		if (HeapPage.recordSize(key.length, stored.bytes.length) > pageSize) {
+			putOverflow(key, value, entry.value());
+			return;
+		}
+		putSerialized(key, stored);
 	}
-	
+
+	/**
+	 * Puts byte array value read from channel, until its end. Value which
+	 * doesn't fit a page is written page by page, so it is never materialized.
+	 */
+	void put(Serializable key, ReadableByteChannel value) throws IOException {
+		var keyBytes = serializer.serialize(key);
+		var head = ByteBuffer.allocate(pageSize);
+		while (head.hasRemaining() && value.read(head) >= 0) {
+			// read until page is full or channel ends
+		}
+		head.flip();
+		var complete = head.remaining() < pageSize;
+		if (complete) {
+			var prefix = serializer.byteArrayPrefix(head.remaining());
+			var stored = store(ByteBuffer.allocate(prefix.length + head.remaining()).put(prefix).put(head.duplicate()).array());
+			if (HeapPage.recordSize(keyBytes.length, stored.bytes.length) <= pageSize) {
+				putSerialized(keyBytes, stored);
+				return;
+			}
+		}
+		putChain(keyBytes, head, complete ? null : value, true, null);
+	}
+
+	/**
+	 * @see #put(Serializable, ReadableByteChannel)
+	 */
+	void put(Serializable key, InputStream value) throws IOException {
+		put(key, Channels.newChannel(value));
+	}
+
+	/*
+	 * Value as it is stored in a record, compressed when it pays off.
+	 */
+	private StoredValue store(byte[] value) {
+		var compressed = compressor != null ? compressor.compress(value) : null;
+		return compressed != null ? new StoredValue(HeapPage.COMPRESSED, compressed) : new StoredValue(HeapPage.LIVE, value);
+	}
+
+	private void putSerialized(byte[] key, StoredValue value) throws IOException {
+		try {
+			if (log == null) {
+				release(putRecord(key, value.bytes, value.state));
+				return;
+			}
+			checkpointLock.readLock().lock();
+			try {
+				long lsn;
+				long previous;
+				var locked = lockKeys(key);
+				try {
+					previous = putRecord(key, value.bytes, value.state);
+					lsn = log.append(logType(value.state), key, value.bytes);
+				} finally {
+					unlockKeys(locked);
+				}
+				commit(lsn, previous != NOT_FOUND ? List.of(previous) : List.of(), true);
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+			checkpointWhenFull();
+		} catch (OperationException e) {
+			throw e.unwrapIOException();
+		}
+	}
+
+	/*
+	 * Serialized byte array is split into its prefix, kept with the record, and
+	 * array itself written to chain, so it can be streamed later.
+	 */
+	private void putOverflow(byte[] key, byte[] value, Serializable object) throws IOException {
+		var prefixLength = object instanceof byte[] ? value.length - ((byte[]) object).length : 0;
+		var prefix = Arrays.copyOf(value, prefixLength);
+		putChain(key, ByteBuffer.wrap(value, prefixLength, value.length - prefixLength), null, object instanceof byte[], prefix);
+	}
+
+	/*
+	 * Writes head and rest of channel to a new chain, and puts record which
+	 * points to it. Prefix of a streamed byte array is known only at the end.
+	 */
+	private void putChain(byte[] key, ByteBuffer head, ReadableByteChannel tail, boolean byteArray, byte[] prefix) throws IOException {
+		var prefixLength = prefix != null ? prefix.length : serializer.byteArrayPrefix(head.remaining()).length;
+		if (HeapPage.recordSize(key.length, OverflowValue.HEADER_SIZE + prefixLength) > pageSize) {
+			throw new IllegalArgumentException("key exceeds page size " + pageSize);
+		}
+		var chainId = ThreadLocalRandom.current().nextLong();
+
+		try {
+			if (log == null) {
+				release(putRecord(key, writeChain(new ChainWriter(chainId, null), head, tail, byteArray, prefix), HeapPage.OVERFLOW));
+				return;
+			}
+			checkpointLock.readLock().lock();
+			try {
+				long lsn;
+				long previous;
+				var locked = lockKeys(key);
+				try {
+					// chunks are logged as chain pages are written
+					var descriptor = writeChain(new ChainWriter(chainId, key), head, tail, byteArray, prefix);
+					previous = putRecord(key, descriptor, HeapPage.OVERFLOW);
+					lsn = log.append(WriteAheadLog.PUT_OVERFLOW, key, descriptor);
+				} finally {
+					unlockKeys(locked);
+				}
+				commit(lsn, previous != NOT_FOUND ? List.of(previous) : List.of(), true);
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+			checkpointWhenFull();
+		} catch (OperationException e) {
+			throw e.unwrapIOException();
+		}
+	}
+
+	/*
+	 * Returns descriptor of written chain.
+	 */
+	private byte[] writeChain(ChainWriter writer, ByteBuffer head, ReadableByteChannel tail, boolean byteArray, byte[] prefix) throws IOException {
+		try {
+			writer.write(head);
+			if (tail != null) {
+				var buffer = ByteBuffer.allocate(HeapPage.chainCapacity(pageSize));
+				while (tail.read(buffer.clear()) >= 0) {
+					writer.write(buffer.flip());
+				}
+			}
+			var firstPage = writer.finish();
+			var chainPrefix = prefix != null ? prefix : serializer.byteArrayPrefix(writer.length());
+			return new OverflowValue(writer.chainId, firstPage, writer.length(), byteArray, chainPrefix).encode();
+		} catch (IOException | RuntimeException e) {
+			writer.abort();
+			throw e;
+		}
+	}
+
 	@Override
 	public Object get(Serializable key) throws IOException, ClassNotFoundException {
-		return null;
+		var keyBytes = serializer.serialize(key);
+		if (!mightContain(keyBytes)) {
+			return null;
+		}
+
+		try {
+			// value is copied with key check under page lock, so region released and reused in a meantime doesn't match
+			var matcher = new KeyMatcher(keyBytes, UnorderedHeapFile::copyValue, true);
+			var location = index.get(fingerprint(keyBytes), matcher);
+			if (location == NOT_FOUND) {
+				return null;
+			}
+			var copy = (StoredValue) matcher.result;
+			if (copy != null) {
+				var value = ByteBuffer.wrap(copy.bytes);
+				return serializer.deserialize(copy.state == HeapPage.COMPRESSED ? ByteBuffer.wrap(ValueCompressor.decompress(value)) : value);
+			}
+			// overflow value is read from its chain under page lock
+			matcher = new KeyMatcher(keyBytes, this::value);
+			location = index.get(fingerprint(keyBytes), matcher);
+			return location == NOT_FOUND ? null : matcher.result;
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
 	}
-	
+
+	@Override
 	public Object remove(Serializable key) throws IOException, ClassNotFoundException {
-		return null;
+		var keyBytes = serializer.serialize(key);
+		if (!mightContain(keyBytes)) {
+			return null;
+		}
+
+		try {
+			var matcher = new KeyMatcher(keyBytes, this::value);
+			if (log == null) {
+				return removeRecord(keyBytes, matcher) ? matcher.result : null;
+			}
+			long lsn;
+			checkpointLock.readLock().lock();
+			try {
+				var locked = lockKeys(keyBytes);
+				try {
+					if (!removeRecord(keyBytes, matcher)) {
+						return null;
+					}
+					lsn = log.append(WriteAheadLog.REMOVE, keyBytes, NO_VALUE);
+				} finally {
+					unlockKeys(locked);
+				}
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+			commit(lsn);
+			return matcher.result;
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
 	}
 
-}
+	/**
+	 * Copies byte array value into buffer, only when it has enough space
+	 * remaining, so caller can retry with a larger one.
+	 *
+	 * @return length of value, or -1 when there is no value for a key
+	 * @throws IOException
+	 *             when value is not a byte array
+	 */
+	int get(Serializable key, ByteBuffer dst) throws IOException, ClassNotFoundException {
+		try (var channel = getChannel(key)) {
+			if (channel == null) {
+				return -1;
+			}
+			var length = (int) Math.min(channel.length(), Integer.MAX_VALUE);
+			if (channel.length() <= dst.remaining()) {
+				while (channel.read(dst) > 0) {
+					// channel reads page by page
+				}
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Channel of byte array value, which reads it from pages, without
+	 * materializing it.
+	 *
+	 * @return open channel, which has to be closed, or null when there is no
+	 *         value for a key
+	 * @throws IOException
+	 *             when value is not a byte array
+	 */
+	ValueChannel getChannel(Serializable key) throws IOException, ClassNotFoundException {
+		var keyBytes = serializer.serialize(key);
+		if (!mightContain(keyBytes)) {
+			return null;
+		}
+
+		try {
+			var matcher = new LeaseMatcher<>(keyBytes, (page, offset, frame, lease) -> {
+				if (!page.isOverflow(offset)) {
+					return ValueChannel.ofInline(pages, frame, lease, serializer.byteArray(inlineValue(page, offset)).asReadOnlyBuffer());
+				}
+				var overflow = OverflowValue.decode(page.value(offset));
+				if (!overflow.isByteArray()) {
+					throw new IOException("value is not a byte array");
+				}
+				return ValueChannel.ofChain(pages, frame, lease, overflow);
+			});
+			var location = index.get(fingerprint(keyBytes), matcher);
+			return location == NOT_FOUND ? null : matcher.result;
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
+	}
+
+	/**
+	 * @see #getChannel(Serializable)
+	 */
+	InputStream getStream(Serializable key) throws IOException, ClassNotFoundException {
+		var channel = getChannel(key);
+		return channel != null ? Channels.newInputStream(channel) : null;
+	}
+
+	/**
+	 * View of byte array value over page buffer, without copying it, only
+	 * compressed value is decompressed into a copy.
+	 *
+	 * @return open view, which has to be closed, or null when there is no value
+	 *         for a key
+	 * @throws IOException
+	 *             when value is not a byte array, or it doesn't fit a page
+	 */
+	ValueView getView(Serializable key) throws IOException, ClassNotFoundException {
+		var keyBytes = serializer.serialize(key);
+		if (!mightContain(keyBytes)) {
+			return null;
+		}
+
+		try {
+			var matcher = new LeaseMatcher<>(keyBytes, (page, offset, frame, lease) -> {
+				if (page.isOverflow(offset)) {
+					throw new IOException("value doesn't fit a page, it can be read only from channel");
+				}
+				return new ValueView(pages, frame, lease, serializer.byteArray(inlineValue(page, offset)).asReadOnlyBuffer());
+			});
+			var location = index.get(fingerprint(keyBytes), matcher);
+			return location == NOT_FOUND ? null : matcher.result;
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
+	}
+
+	/**
+	 * Allocates regions for all entries at once, and writes every page only
+	 * once, with all its records.
+	 */
+	@Override
+	public void putAll(Collection<Entry> entries) throws IOException, ClassNotFoundException {
+		// later entry of the same key wins, as with consecutive puts
+		var records = new LinkedHashMap<ByteBuffer, StoredValue>();
+		// values which don't fit a page are put one by one
+		var overflows = new LinkedHashMap<ByteBuffer, Entry>();
+		for (var entry : entries) {
+			var key = ByteBuffer.wrap(serializer.serialize(entry.key()));
+			var value = store(serializer.serialize(entry.value()));
+			if (HeapPage.recordSize(key.remaining(), value.bytes.length) > pageSize) {
+				records.remove(key);
+				overflows.put(key, entry);
+			} else {
+				overflows.remove(key);
+				records.put(key, value);
+			}
+		}
+		for (var overflow : overflows.values()) {
+			put(overflow);
+		}
+		if (records.isEmpty()) {
+			return;
+		}
+		var keys = new byte[records.size()][];
+		var values = new StoredValue[records.size()];
+		var i = 0;
+		for (var record : records.entrySet()) {
+			keys[i] = record.getKey().array();
+			values[i++] = record.getValue();
+		}
+
+		try {
+			if (log == null) {
+				releaseAll(putRecords(keys, values));
+				return;
+			}
+			checkpointLock.readLock().lock();
+			try {
+				long lsn = 0;
+				List<Long> previous;
+				var locked = lockKeys(keys);
+				try {
+					previous = putRecords(keys, values);
+					for (int j = 0; j < keys.length; j++) {
+						lsn = log.append(logType(values[j].state), keys[j], values[j].bytes);
+					}
+				} finally {
+					unlockKeys(locked);
+				}
+				commit(lsn, previous, true);
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+			checkpointWhenFull();
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
+	}
+
+	/**
+	 * Removes records of all keys, and marks them free page by page.
+	 */
+	@Override
+	public void removeAll(Collection<Serializable> keys) throws IOException, ClassNotFoundException {
+		var unique = new LinkedHashSet<ByteBuffer>();
+		for (var key : keys) {
+			unique.add(ByteBuffer.wrap(serializer.serialize(key)));
+		}
+		var keyBytes = new byte[unique.size()][];
+		var i = 0;
+		for (var key : unique) {
+			keyBytes[i++] = key.array();
+		}
+
+		try {
+			if (log == null) {
+				removeRecords(keyBytes);
+				return;
+			}
+			long lsn = 0;
+			checkpointLock.readLock().lock();
+			try {
+				var locked = lockKeys(keyBytes);
+				try {
+					for (var key : removeRecords(keyBytes)) {
+						lsn = log.append(WriteAheadLog.REMOVE, key, NO_VALUE);
+					}
+				} finally {
+					unlockKeys(locked);
+				}
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+			if (lsn > 0) {
+				commit(lsn);
+			}
+		} catch (OperationException e) {
+			throw e.unwrap();
+		}
+	}
+
+	/**
+	 * Writes all modified pages to heap file.
+	 */
+	void flush() throws IOException {
+		pages.flush();
+	}
+
+	BufferPoolStats bufferPoolStats() {
+		return pages.stats();
+	}
+
+	LockStats lockStats() {
+		return lockManager.stats();
+	}
+
+	long indexLookups() {
+		return index.lookups();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stopCompaction();
+		try {
+			if (log != null) {
+				releaseReplaced();
+			}
+			if (filter != null) {
+				filter.close();
+			}
+			index.close();
+			pages.close();
+			// only once all pages are written
+			if (opened) {
+				FreeSpaceMap.save(freeSpaceMapPath(path), pageSize, allocator);
+				if (filter != null) {
+					filter.save(bloomFilterPath(path));
+				}
+			}
+			if (log != null) {
+				log.truncate();
+			}
+		} finally {
+			try {
+				if (log != null) {
+					log.close();
+				}
+			} finally {
+				try {
+					lockManager.shutdown();
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+		}
+		if (compactionFailure != null) {
+			throw new IOException("compaction of " + path + " failed", compactionFailure);
+		}
+	}
+
+	/**
+	 * Scans pages up to the last allocated one, records of every page are read
+	 * under its read lock. Records moved by compaction while stream is
+	 * consumed can be seen twice or missed.
+	 */
+	@Override
+	public Stream<Entry> entries() {
+		return scan((page, offset) -> new Entry((Serializable) serializer.deserialize(page.key(offset)), (Serializable) value(page, offset)));
+	}
+
+	@Override
+	public Stream<Serializable> keys() {
+		return scan((page, offset) -> (Serializable) serializer.deserialize(page.key(offset)));
+	}
+
+	private <T> Stream<T> scan(RecordOperation<T> operation) {
+		PageSpliterator.PageReader<T> reader = pageNr -> {
+			try {
+				return read(pageNr, page -> {
+					var offsets = new ArrayList<Integer>();
+					page.forEachRecord(offsets::add);
+					var items = new ArrayList<T>(offsets.size());
+					for (var offset : offsets) {
+						items.add(operation.apply(page, offset));
+					}
+					return items;
+				});
+			} catch (OperationException e) {
+				throw e.unwrapIOException();
+			}
+		};
+		return StreamSupport.stream(new PageSpliterator<>(pages, reader, 0, allocator.touchedPages(), pageSize / MIN_REGION_SIZE), false);
+	}
+
+	/**
+	 * Moves live records out of sparse pages, the ones with most free space
+	 * first, until records of {@code byteBudget} bytes are moved, so emptied
+	 * pages go back to allocator as a whole. Page is claimed from allocator
+	 * while its records are moved, so nothing new is allocated from it, and
+	 * every record is moved with its own page operations, so page readers
+	 * never wait for the whole page.
+	 *
+	 * @return number of bytes moved
+	 */
+	long compact(long byteBudget) throws IOException {
+		var minFreeBytes = pageSize / SPARSE_PAGE_RATIO;
+		var limit = (int) Math.min(Integer.MAX_VALUE, byteBudget / (pageSize - minFreeBytes) + 1);
+		var moved = 0L;
+		for (var pageNr : allocator.sparsePages(minFreeBytes, limit)) {
+			if (moved >= byteBudget) {
+				break;
+			}
+			moved += compactPage(pageNr);
+		}
+		return moved;
+	}
+
+	/*
+	 * Restores allocator state from free space map, and rebuilds it from pages
+	 * of existing heap file when map is missing or stale, and index as well when
+	 * it was not closed properly.
+	 */
+	private void recover(int nrOfThreads) throws IOException {
+		var nrOfPages = pages.nrOfPages();
+		if (nrOfPages == 0) {
+			if (index.size() > 0) {
+				index.clear();
+			}
+			FreeSpaceMap.invalidate(freeSpaceMapPath(path));
+			return;
+		}
+		var rebuildIndex = !index.isValid();
+		if (rebuildIndex) {
+			index.clear();
+			FreeSpaceMap.invalidate(freeSpaceMapPath(path));
+		} else if (FreeSpaceMap.load(freeSpaceMapPath(path), pageSize, nrOfPages, allocator)) {
+			return;
+		}
+
+		// crash could leave both new and replaced record of a key live
+		var duplicates = new ConcurrentLinkedQueue<Long>();
+		var reservedChains = ConcurrentHashMap.<Long> newKeySet();
+		var nextPage = new AtomicInteger();
+		var executor = Executors.newFixedThreadPool(nrOfThreads);
+		try {
+			var tasks = new ArrayList<Future<Void>>();
+			for (int i = 0; i < nrOfThreads; i++) {
+				tasks.add(executor.submit(() -> {
+					int first;
+					while ((first = nextPage.getAndAdd(RECOVERY_BATCH)) < nrOfPages) {
+						for (int pageNr = first; pageNr < Math.min(first + RECOVERY_BATCH, nrOfPages); pageNr++) {
+							recoverPage(pageNr, rebuildIndex, reservedChains, duplicates);
+						}
+					}
+					return null;
+				}));
+			}
+			for (var task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while recovering " + path);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("failed to recover " + path, e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		for (var location : duplicates) {
+			releaseDuplicate(location);
+		}
+	}
+
+	private void recoverPage(int pageNr, boolean rebuildIndex, Set<Long> reservedChains, Collection<Long> duplicates) throws IOException {
+		try {
+			read(pageNr, page -> {
+				page.forEachRecord(offset -> {
+					try {
+						if (page.isOverflow(offset) && !reserveChain(OverflowValue.decode(page.value(offset)), reservedChains)) {
+							// chain was not fully written before crash, so record is dropped
+							return;
+						}
+						allocator.reserve(new Region(page.pageNr(), offset, page.regionSize(offset)));
+						if (rebuildIndex) {
+							var keyBytes = bytes(page.key(offset));
+							var previous = index.put(fingerprint(keyBytes), location(page.pageNr(), offset), new KeyMatcher(keyBytes, null));
+							if (previous != NOT_FOUND) {
+								duplicates.add(previous);
+							}
+						}
+					} catch (IOException e) {
+						throw new OperationException(e);
+					}
+				});
+				return null;
+			});
+		} catch (OperationException e) {
+			throw e.unwrapIOException();
+		}
+	}
+
+	/*
+	 * Reserves pages of a chain, unless it is broken. Chain can be shared by
+	 * records of the same key, when crash left both moved record and its copy.
+	 */
+	private boolean reserveChain(OverflowValue overflow, Set<Long> reservedChains) throws IOException {
+		if (!reservedChains.add(overflow.chainId())) {
+			return true;
+		}
+		var chainPages = new ArrayList<Integer>();
+		var length = 0L;
+		var nrOfPages = pages.nrOfPages();
+		var pageNr = overflow.firstPage();
+		while (pageNr != HeapPage.NO_PAGE) {
+			if (pageNr < 0 || pageNr >= nrOfPages || length > overflow.length()) {
+				return false;
+			}
+			var data = read(pageNr, page -> page.isChain(overflow.chainId()) ? new long[] { page.chainData().remaining(), page.nextPage() } : null);
+			if (data == null) {
+				return false;
+			}
+			chainPages.add(pageNr);
+			length += data[0];
+			pageNr = (int) data[1];
+		}
+		if (length != overflow.length()) {
+			return false;
+		}
+		for (var chainPage : chainPages) {
+			allocator.reserve(new Region(chainPage, 0, pageSize));
+		}
+		return true;
+	}
+
+	/*
+	 * Releases duplicate record of a key, its chain only when kept record
+	 * doesn't share it.
+	 */
+	private void releaseDuplicate(long location) throws IOException {
+		var duplicate = read(pageNr(location), page -> {
+			var offset = offset(location);
+			return page.isOverflow(offset) ? new KeyMatcher(bytes(page.key(offset)), (kept, keptOffset) -> kept.isOverflow(keptOffset)
+					&& OverflowValue.decode(kept.value(keptOffset)).chainId() == OverflowValue.decode(page.value(offset)).chainId()) : null;
+		});
+		var shared = false;
+		if (duplicate != null) {
+			try {
+				shared = index.get(fingerprint(duplicate.key), duplicate) != NOT_FOUND && (Boolean) duplicate.result;
+			} catch (OperationException e) {
+				throw e.unwrapIOException();
+			}
+		}
+		release(location, !shared);
+	}
+
+	/*
+	 * Applies logged operations on top of recovered pages, they are either
+	 * missing or already applied, and applying them again gives the same
+	 * result.
+	 */
+	private void replayLog() throws IOException {
+		try {
+			// chains are written again, from chunks logged before their puts
+			var chains = new HashMap<Long, ChainWriter>();
+			log.replay((type, key, value) -> {
+				switch (type) {
+				case WriteAheadLog.PUT:
+					release(putRecord(key, value, HeapPage.LIVE));
+					break;
+				case WriteAheadLog.PUT_COMPRESSED:
+					release(putRecord(key, value, HeapPage.COMPRESSED));
+					break;
+				case WriteAheadLog.REMOVE:
+					removeRecord(key, new KeyMatcher(key, null));
+					break;
+				case WriteAheadLog.CHUNK:
+					var chunk = ByteBuffer.wrap(value);
+					var chainId = chunk.getLong();
+					chains.computeIfAbsent(chainId, id -> new ChainWriter(id, null)).write(chunk);
+					break;
+				case WriteAheadLog.PUT_OVERFLOW:
+					var logged = OverflowValue.decode(ByteBuffer.wrap(value));
+					var writer = chains.remove(logged.chainId());
+					if (writer == null) {
+						throw new IOException("chunks of overflow chain " + Long.toHexString(logged.chainId()) + " are missing in log");
+					}
+					var firstPage = writer.finish();
+					var overflow = new OverflowValue(logged.chainId(), firstPage, writer.length(), logged.isByteArray(), logged.prefix());
+					release(putRecord(key, overflow.encode(), HeapPage.OVERFLOW));
+					break;
+				default:
+					throw new IOException("unknown log record type " + type);
+				}
+			});
+			// puts which were not logged completely
+			for (var writer : chains.values()) {
+				writer.abort();
+			}
+		} catch (OperationException e) {
+			throw e.unwrapIOException();
+		}
+		pages.flush();
+		log.truncate();
+	}
+
+	/*
+	 * Returns location of replaced record, which is still live, caller has to
+	 * release it.
+	 */
+	private long putRecord(byte[] key, byte[] value, byte state) throws IOException {
+		var region = alloc(HeapPage.recordSize(key.length, value.length));
+		write(region.pageNr(), page -> {
+			page.writeRecord(region.offset(), region.size(), state, key, value);
+			return null;
+		});
+
+		var previous = index.put(fingerprint(key), location(region.pageNr(), region.offset()), new KeyMatcher(key, null));
+		if (filter != null) {
+			filter.put(fingerprint(key), previous == NOT_FOUND);
+		}
+		return previous;
+	}
+
+	/*
+	 * Returns locations of replaced records, which are still live.
+	 */
+	private List<Long> putRecords(byte[][] keys, StoredValue[] values) throws IOException {
+		var sizes = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			sizes[i] = HeapPage.recordSize(keys[i].length, values[i].bytes.length);
+		}
+		var regions = allocator.allocAll(sizes).orElseThrow(() -> new IOException("heap file is full"));
+
+		var byPage = new TreeMap<Integer, List<Integer>>();
+		for (int i = 0; i < regions.size(); i++) {
+			byPage.computeIfAbsent(regions.get(i).pageNr(), pageNr -> new ArrayList<>()).add(i);
+		}
+		writeAll(byPage.keySet(), page -> {
+			for (var i : byPage.get(page.pageNr())) {
+				var region = regions.get(i);
+				page.writeRecord(region.offset(), region.size(), values[i].state, keys[i], values[i].bytes);
+			}
+			return null;
+		});
+
+		var previous = new ArrayList<Long>();
+		for (int i = 0; i < keys.length; i++) {
+			var region = regions.get(i);
+			var location = index.put(fingerprint(keys[i]), location(region.pageNr(), region.offset()), new KeyMatcher(keys[i], null));
+			if (filter != null) {
+				filter.put(fingerprint(keys[i]), location == NOT_FOUND);
+			}
+			if (location != NOT_FOUND) {
+				previous.add(location);
+			}
+		}
+		return previous;
+	}
+
+	/*
+	 * Returns keys which were found and removed.
+	 */
+	private List<byte[]> removeRecords(byte[][] keys) throws IOException {
+		var removed = new ArrayList<byte[]>();
+		var locations = new ArrayList<Long>();
+		for (var key : keys) {
+			if (!mightContain(key)) {
+				continue;
+			}
+			var location = index.remove(fingerprint(key), new KeyMatcher(key, null));
+			if (location != NOT_FOUND) {
+				removed.add(key);
+				locations.add(location);
+				if (filter != null) {
+					filter.remove();
+				}
+			}
+		}
+		releaseAll(locations);
+		return removed;
+	}
+
+	private boolean removeRecord(byte[] key, KeyMatcher matcher) throws IOException {
+		var location = index.remove(fingerprint(key), matcher);
+		if (location == NOT_FOUND) {
+			return false;
+		}
+		if (filter != null) {
+			filter.remove();
+		}
+		release(location);
+		return true;
+	}
+
+	/*
+	 * False when key is not in index for sure, so it doesn't have to be read.
+	 */
+	private boolean mightContain(byte[] key) {
+		return filter == null || filter.mightContain(fingerprint(key));
+	}
+
+	/*
+	 * Locks stripes of all keys in ascending order, so batches never deadlock.
+	 */
+	private boolean[] lockKeys(byte[]... keys) {
+		var locked = new boolean[KEY_LOCKS];
+		for (var key : keys) {
+			locked[(int) fingerprint(key) & (KEY_LOCKS - 1)] = true;
+		}
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			if (locked[i]) {
+				keyLocks[i].lock();
+			}
+		}
+		return locked;
+	}
+
+	private void unlockKeys(boolean[] locked) {
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			if (locked[i]) {
+				keyLocks[i].unlock();
+			}
+		}
+	}
+
+	private void commit(long lsn) throws IOException {
+		log.commit(lsn);
+		checkpointWhenFull();
+	}
+
+	/*
+	 * Replaced records stay live until operation which replaced them is
+	 * durable, otherwise their pages could reach disk with neither of records
+	 * live, once log records of the old ones were truncated. Called under
+	 * checkpoint lock, so pages are not flushed before they are released.
+	 */
+	private void commit(long lsn, List<Long> replaced, boolean withChain) throws IOException {
+		log.commit(lsn);
+		var records = new ReplacedRecords(lsn, replaced, withChain);
+		if (log.isDurable(lsn)) {
+			records.release();
+		} else if (!replaced.isEmpty()) {
+			replacedRecords.add(records);
+		}
+		// the oldest ones first, others wait for next commit or checkpoint
+		while ((records = replacedRecords.peek()) != null && log.isDurable(records.lsn)) {
+			if (replacedRecords.remove(records)) {
+				records.release();
+			}
+		}
+	}
+
+	private void checkpointWhenFull() throws IOException {
+		if (log.size() >= checkpointSize) {
+			checkpoint();
+		}
+	}
+
+	/*
+	 * Forces log, so all replaced records can be released before pages are
+	 * flushed. Called under exclusive checkpoint lock, or when nothing else
+	 * runs.
+	 */
+	private void releaseReplaced() throws IOException {
+		if (replacedRecords.isEmpty()) {
+			return;
+		}
+		log.sync();
+		ReplacedRecords records;
+		while ((records = replacedRecords.poll()) != null) {
+			records.release();
+		}
+	}
 
+	/*
+	 * Flushes pages, so log records applied to them are no longer needed.
+	 */
+	private void checkpoint() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			// someone else could have done it in a meantime
+			if (log.size() >= checkpointSize) {
+				releaseReplaced();
+				pages.flush();
+				log.truncate();
+			}
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	private long compactPage(int pageNr) throws IOException {
+		if (!allocator.claim(pageNr)) {
+			return 0;
+		}
+		var moved = 0L;
+		try {
+			var records = read(pageNr, page -> {
+				var live = new ArrayList<MovedRecord>();
+				page.forEachRecord(offset -> {
+					// logged move of overflow record would need its whole value
+					if (log == null || !page.isOverflow(offset)) {
+						live.add(new MovedRecord(offset, page.state(offset), bytes(page.key(offset)), bytes(page.value(offset))));
+					}
+				});
+				return live;
+			});
+			for (var record : records) {
+				var size = HeapPage.recordSize(record.key.length, record.value.length);
+				var region = allocator.alloc(size);
+				if (!region.isPresent()) {
+					// heap file is full, page keeps what was not moved
+					break;
+				}
+				if (moveRecord(location(pageNr, record.offset), region.get(), record)) {
+					moved += size;
+				}
+			}
+		} finally {
+			// regions written after page was claimed were allocated before, so only
+			// allocator knows which regions are free, not the page
+			allocator.unclaim(pageNr);
+		}
+		return moved;
+	}
+
+	/*
+	 * Writes copy of a record, and points key to it, only when key still points
+	 * to the record, it could have been replaced or removed in a meantime.
+	 */
+	private boolean moveRecord(long location, Region region, MovedRecord record) throws IOException {
+		if (log == null) {
+			if (!copyRecord(location, region, record)) {
+				return false;
+			}
+			release(location, false);
+			return true;
+		}
+		checkpointLock.readLock().lock();
+		try {
+			long lsn;
+			var locked = lockKeys(record.key);
+			try {
+				if (!copyRecord(location, region, record)) {
+					return false;
+				}
+				// copy has to survive a crash, once old record is freed
+				lsn = log.append(logType(record.state), record.key, record.value);
+			} finally {
+				unlockKeys(locked);
+			}
+			commit(lsn, List.of(location), false);
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+		checkpointWhenFull();
+		return true;
+	}
+
+	/*
+	 * Copy of overflow record shares its chain, so only regions of records are
+	 * released. Caller releases moved record.
+	 */
+	private boolean copyRecord(long location, Region region, MovedRecord record) throws IOException {
+		write(region.pageNr(), page -> {
+			page.writeRecord(region.offset(), region.size(), record.state, record.key, record.value);
+			return null;
+		});
+		var copy = location(region.pageNr(), region.offset());
+		if (index.replace(fingerprint(record.key), location, copy)) {
+			return true;
+		}
+		release(copy, false);
+		return false;
+	}
+
+	/*
+	 * Deserializes value of a record, overflow value is read from its chain,
+	 * under lock of record page.
+	 */
+	private Object value(HeapPage page, int offset) throws IOException, ClassNotFoundException {
+		if (!page.isOverflow(offset)) {
+			return serializer.deserialize(inlineValue(page, offset));
+		}
+		var overflow = OverflowValue.decode(page.value(offset));
+		var length = overflow.prefix().length + overflow.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("value of " + length + " bytes is too large, it can be read only from channel");
+		}
+		var bytes = ByteBuffer.allocate((int) length).put(overflow.prefix());
+		try (var channel = ValueChannel.ofChain(pages, null, null, overflow)) {
+			while (channel.read(bytes) > 0) {
+				// channel reads page by page
+			}
+		}
+		return serializer.deserialize(bytes.flip());
+	}
+
+	/*
+	 * Copy of stored value of a record, or null when it is an overflow one. It
+	 * runs as optimistic read, so page content can be inconsistent, slicing
+	 * value out of page buffer checks its bounds.
+	 */
+	private static StoredValue copyValue(HeapPage page, int offset) {
+		if (page.isOverflow(offset)) {
+			return null;
+		}
+		var state = page.state(offset);
+		var value = page.value(offset);
+		var bytes = new byte[value.remaining()];
+		value.get(bytes);
+		return new StoredValue(state, bytes);
+	}
+
+	/*
+	 * Serialized value of a record, which is not an overflow one.
+	 */
+	private static ByteBuffer inlineValue(HeapPage page, int offset) throws IOException {
+		return page.isCompressed(offset) ? ByteBuffer.wrap(ValueCompressor.decompress(page.value(offset))) : page.value(offset);
+	}
+
+	private static byte logType(byte state) {
+		return state == HeapPage.COMPRESSED ? WriteAheadLog.PUT_COMPRESSED : WriteAheadLog.PUT;
+	}
+
+	private Region alloc(int size) throws IOException {
+		return allocator.alloc(size).orElseThrow(() -> new IOException("heap file is full"));
+	}
+
+	/*
+	 * Regions are freed under page lock, so they are all freed once page
+	 * shows them as free.
+	 */
+	private void release(long location) throws IOException {
+		if (location != NOT_FOUND) {
+			release(location, true);
+		}
+	}
+
+	private void release(long location, boolean withChain) throws IOException {
+		var overflow = write(pageNr(location), page -> {
+			var offset = offset(location);
+			var chain = withChain && page.isOverflow(offset) ? OverflowValue.decode(page.value(offset)) : null;
+			allocator.free(new Region(page.pageNr(), offset, page.regionSize(offset)));
+			page.markFree(offset);
+			return chain;
+		});
+		if (overflow != null) {
+			freeChain(overflow);
+		}
+	}
+
+	/*
+	 * Chain pages are read one by one for the next one, a broken chain is freed
+	 * up to the first page which is not part of it.
+	 */
+	private void freeChain(OverflowValue overflow) throws IOException {
+		var pageNr = overflow.firstPage();
+		while (pageNr != HeapPage.NO_PAGE) {
+			var next = read(pageNr, page -> page.isChain(overflow.chainId()) ? page.nextPage() : null);
+			if (next == null) {
+				return;
+			}
+			allocator.free(new Region(pageNr, 0, pageSize));
+			pageNr = next;
+		}
+	}
+
+	private void releaseAll(Collection<Long> locations) throws IOException {
+		if (locations.isEmpty()) {
+			return;
+		}
+		var byPage = new TreeMap<Integer, List<Integer>>();
+		for (var location : locations) {
+			byPage.computeIfAbsent(pageNr(location), pageNr -> new ArrayList<>()).add(offset(location));
+		}
+		var chains = new ArrayList<OverflowValue>();
+		writeAll(byPage.keySet(), page -> {
+			for (var offset : byPage.get(page.pageNr())) {
+				if (page.isOverflow(offset)) {
+					chains.add(OverflowValue.decode(page.value(offset)));
+				}
+				allocator.free(new Region(page.pageNr(), offset, page.regionSize(offset)));
+				page.markFree(offset);
+			}
+			return null;
+		});
+		for (var chain : chains) {
+			freeChain(chain);
+		}
+	}
+
+	private <R> R read(int pageNr, PageOperation<R> operation) throws IOException {
+		var frame = pages.pin(pageNr);
+		try {
+			return join(frame.lock().inReadOperation(() -> operation.applyUnchecked(new HeapPage(pageNr, frame.buffer()))));
+		} finally {
+			pages.unpin(frame, false);
+		}
+	}
+
+	/*
+	 * Operation has to cope with inconsistent page, see
+	 * LockSupport#inOptimisticReadOperation.
+	 */
+	private <R> R readOptimistic(int pageNr, PageOperation<R> operation) throws IOException {
+		var frame = pages.pin(pageNr);
+		try {
+			return join(frame.lock().inOptimisticReadOperation(() -> operation.applyUnchecked(new HeapPage(pageNr, frame.buffer()))));
+		} finally {
+			pages.unpin(frame, false);
+		}
+	}
+
+	private <R> R write(int pageNr, PageOperation<R> operation) throws IOException {
+		var frame = pages.pin(pageNr);
+		try {
+			return join(frame.lock().inWriteOperation(() -> operation.applyUnchecked(new HeapPage(pageNr, frame.buffer()))));
+		} finally {
+			pages.unpin(frame, true);
+		}
+	}
+
+	/*
+	 * Writes pages under multi page lock, in batches of pages pinned at once,
+	 * so that writes of different pages run concurrently, each in one critical
+	 * section instead of one per page.
+	 */
+	private void writeAll(Collection<Integer> pageNrs, PageOperation<Void> operation) throws IOException {
+		var batch = new ArrayList<Frame>(lockedPages);
+		var remaining = pageNrs.iterator();
+		while (remaining.hasNext()) {
+			try {
+				while (remaining.hasNext() && batch.size() < lockedPages) {
+					batch.add(pages.pin(remaining.next()));
+				}
+				var lock = lockManager.lockForPages(batch.stream().mapToInt(Frame::pageNr).toArray());
+				join(lock.inWriteOperation(() -> {
+					for (var frame : batch) {
+						operation.applyUnchecked(new HeapPage(frame.pageNr(), frame.buffer()));
+					}
+					return null;
+				}));
+			} finally {
+				for (var frame : batch) {
+					pages.unpin(frame, true);
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private static <R> R join(CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void stopCompaction() throws InterruptedIOException {
+		if (compactor == null) {
+			return;
+		}
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for compaction");
+		}
+	}
+
+	private static ScheduledExecutorService newCompactor(Path path) {
+		return Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "heap-compactor-" + path.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		var bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/*
+	 * Pages of a batch stay pinned until all of them are written, so batches
+	 * of concurrent writers must not take whole buffer pool.
+	 */
+	private static int lockedPages(HeapFileOptions options) {
+		var nrOfPages = MAX_LOCKED_PAGES;
+		if (options.pageIO() == HeapFileOptions.PageIO.CHANNEL) {
+			nrOfPages = Math.min(nrOfPages, options.bufferPoolSize() / (2 * MAX_LOCKED_PAGES));
+		}
+		return Math.max(1, nrOfPages);
+	}
+
+	/*
+	 * Every recovery thread pins up to two pages at once, one it reads and one
+	 * with a record of the same key, so they never wait for each other's frames.
+	 */
+	private static int recoveryThreads(HeapFileOptions options) {
+		var nrOfThreads = options.recoveryThreads();
+		if (options.pageIO() == HeapFileOptions.PageIO.CHANNEL) {
+			nrOfThreads = Math.min(nrOfThreads, options.bufferPoolSize() / 2);
+		}
+		return Math.max(1, nrOfThreads);
+	}
+
+	static PageCache openPageCache(Path path, int maxNrPages, int pageSize, HeapFileOptions options, LockManager lockManager) throws IOException {
+		switch (options.pageIO()) {
+		case MAPPED:
+			return new MappedPageCache(new MappedPageFile(path, maxNrPages, pageSize, options.flushPolicy()), lockManager);
+		case CHANNEL:
+			return new BufferPool(new ChannelPageFile(path, pageSize, options.flushPolicy()), options.bufferPoolSize(), options.evictionPolicy(), lockManager);
+		default:
+			throw new IllegalArgumentException("unsupported page I/O " + options.pageIO());
+		}
+	}
+
+	@FunctionalInterface
+	private interface PageOperation<R> {
+
+		R apply(HeapPage page) throws IOException, ClassNotFoundException;
+
+		default R applyUnchecked(HeapPage page) {
+			try {
+				return apply(page);
+			} catch (IOException | ClassNotFoundException e) {
+				throw new OperationException(e);
+			}
+		}
+
+	}
+
+	@FunctionalInterface
+	private interface RecordOperation<R> {
+
+		R apply(HeapPage page, int offset) throws IOException, ClassNotFoundException;
+
+	}
+
+	/*
+	 * Writes value to chain pages, page is written once it is full and next
+	 * page is allocated, so value is never buffered as a whole. Chain data is
+	 * logged page by page, when key is given.
+	 */
+	private class ChainWriter {
+
+		private final long chainId;
+		private final byte[] loggedKey;
+		private final ByteBuffer data = ByteBuffer.allocate(HeapPage.chainCapacity(pageSize));
+		private final List<Integer> chainPages = new ArrayList<>();
+		private long length;
+
+		ChainWriter(long chainId, byte[] loggedKey) {
+			this.chainId = chainId;
+			this.loggedKey = loggedKey;
+		}
+
+		void write(ByteBuffer src) throws IOException {
+			while (src.hasRemaining()) {
+				if (chainPages.isEmpty()) {
+					chainPages.add(alloc(pageSize).pageNr());
+				} else if (!data.hasRemaining()) {
+					var next = alloc(pageSize).pageNr();
+					writePage(next);
+					chainPages.add(next);
+				}
+				var count = Math.min(data.remaining(), src.remaining());
+				data.put(src.duplicate().limit(src.position() + count));
+				src.position(src.position() + count);
+				length += count;
+			}
+		}
+
+		/**
+		 * @return first page of chain
+		 */
+		int finish() throws IOException {
+			if (chainPages.isEmpty()) {
+				chainPages.add(alloc(pageSize).pageNr());
+			}
+			writePage(HeapPage.NO_PAGE);
+			return chainPages.get(0);
+		}
+
+		long length() {
+			return length;
+		}
+
+		void abort() {
+			for (var pageNr : chainPages) {
+				allocator.free(new Region(pageNr, 0, pageSize));
+			}
+			chainPages.clear();
+		}
+
+		private void writePage(int nextPage) throws IOException {
+			data.flip();
+			if (loggedKey != null) {
+				var chunk = ByteBuffer.allocate(Long.BYTES + data.remaining()).putLong(chainId).put(data.duplicate());
+				log.append(WriteAheadLog.CHUNK, loggedKey, chunk.array());
+			}
+			UnorderedHeapFile.this.write(chainPages.get(chainPages.size() - 1), page -> {
+				page.writeChain(chainId, nextPage, data.duplicate());
+				return null;
+			});
+			data.clear();
+		}
+
+	}
+
+	private static class StoredValue {
+
+		private final byte state;
+		private final byte[] bytes;
+
+		StoredValue(byte state, byte[] bytes) {
+			this.state = state;
+			this.bytes = bytes;
+		}
+
+	}
+
+	private class ReplacedRecords {
+
+		private final long lsn;
+		private final List<Long> locations;
+		private final boolean withChain;
+
+		ReplacedRecords(long lsn, List<Long> locations, boolean withChain) {
+			this.lsn = lsn;
+			this.locations = locations;
+			this.withChain = withChain;
+		}
+
+		void release() throws IOException {
+			if (withChain) {
+				releaseAll(locations);
+				return;
+			}
+			for (var location : locations) {
+				UnorderedHeapFile.this.release(location, false);
+			}
+		}
+
+	}
+
+	private static class MovedRecord {
+
+		private final int offset;
+		private final byte state;
+		private final byte[] key;
+		private final byte[] value;
+
+		MovedRecord(int offset, byte state, byte[] key, byte[] value) {
+			this.offset = offset;
+			this.state = state;
+			this.key = key;
+			this.value = value;
+		}
+
+	}
+
+	@FunctionalInterface
+	private interface LeasedRecordOperation<R> {
+
+		R apply(HeapPage page, int offset, Frame frame, Lease lease) throws IOException, ClassNotFoundException;
+
+	}
+
+	/*
+	 * Carries checked exceptions through page lock operations and index
+	 * matchers.
+	 */
+	private static class OperationException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		OperationException(Exception cause) {
+			super(cause);
+		}
+
+		/**
+		 * Throws cause when it is ClassNotFoundException, returns it otherwise.
+		 */
+		IOException unwrap() throws ClassNotFoundException {
+			if (getCause() instanceof ClassNotFoundException) {
+				throw (ClassNotFoundException) getCause();
+			}
+			return (IOException) getCause();
+		}
+
+		IOException unwrapIOException() {
+			if (getCause() instanceof IOException) {
+				return (IOException) getCause();
+			}
+			return new IOException(getCause());
+		}
+
+	}
+
+	/*
+	 * Confirms that location found in index holds the key, and runs operation
+	 * on matching record under the same page lock. Index runs it without its
+	 * locks, and can run it again when bucket changed in a meantime, so result
+	 * is of the last match.
+	 */
+	private class KeyMatcher implements LongPredicate {
+
+		private final byte[] key;
+		private final RecordOperation<?> onMatch;
+		// operation is safe to run as optimistic read
+		private final boolean optimistic;
+		private Object result;
+
+		KeyMatcher(byte[] key, RecordOperation<?> onMatch) {
+			this(key, onMatch, false);
+		}
+
+		KeyMatcher(byte[] key, RecordOperation<?> onMatch, boolean optimistic) {
+			this.key = key;
+			this.onMatch = onMatch;
+			this.optimistic = optimistic;
+		}
+
+		@Override
+		public boolean test(long location) {
+			try {
+				PageOperation<Boolean> operation = page -> {
+					var offset = offset(location);
+					if (!page.keyEquals(offset, key)) {
+						return false;
+					}
+					if (onMatch != null) {
+						result = onMatch.apply(page, offset);
+					}
+					return true;
+				};
+				return optimistic ? readOptimistic(pageNr(location), operation) : read(pageNr(location), operation);
+			} catch (IOException e) {
+				throw new OperationException(e);
+			}
+		}
+
+	}
+
+	/*
+	 * Confirms that location found in index holds the key, and keeps page
+	 * pinned and read locked for a result, which outlives the match. Used only
+	 * for lookups, which stop at first match. Result takes over frame and
+	 * lease.
+	 */
+	private class LeaseMatcher<R> implements LongPredicate {
+
+		private final byte[] key;
+		private final LeasedRecordOperation<R> onMatch;
+		private R result;
+
+		LeaseMatcher(byte[] key, LeasedRecordOperation<R> onMatch) {
+			this.key = key;
+			this.onMatch = onMatch;
+		}
+
+		@Override
+		public boolean test(long location) {
+			try {
+				var frame = pages.pin(pageNr(location));
+				var lease = frame.lock().readLease();
+				try {
+					var page = new HeapPage(frame.pageNr(), frame.buffer());
+					var offset = offset(location);
+					if (page.keyEquals(offset, key)) {
+						result = onMatch.apply(page, offset, frame, lease);
+						return true;
+					}
+				} finally {
+					if (result == null) {
+						lease.close();
+						pages.unpin(frame, false);
+					}
+				}
+				return false;
+			} catch (IOException | ClassNotFoundException e) {
+				throw new OperationException(e);
+			}
+		}
+
+	}
+
+}
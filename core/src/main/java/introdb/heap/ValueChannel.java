@@ -0,0 +1,123 @@
+package introdb.heap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import introdb.heap.lock.LockSupport.Lease;
+import introdb.heap.page.Frame;
+import introdb.heap.page.PageCache;
+
+/**
+ * Channel of a byte array value, which reads either straight from page buffer
+ * of a record, or page by page from chain of an overflow value, so value is
+ * never materialized. Page of a record stays pinned and read locked until
+ * channel is closed, so value cannot be removed while it is read, and it has to
+ * be closed by the thread which got it, as with {@link ValueView}.
+ */
+class ValueChannel implements ReadableByteChannel {
+
+	private final PageCache pages;
+	// record page, or null when caller holds its lock
+	private final Frame frame;
+	private final Lease lease;
+	private final long length;
+	// value bytes of inline record, or null for overflow value
+	private final ByteBuffer inline;
+	private final long chainId;
+	private int pageNr;
+	private int pagePosition;
+	private long remaining;
+	private boolean closed;
+
+	private ValueChannel(PageCache pages, Frame frame, Lease lease, ByteBuffer inline, OverflowValue overflow) {
+		this.pages = pages;
+		this.frame = frame;
+		this.lease = lease;
+		this.inline = inline;
+		this.length = inline != null ? inline.remaining() : overflow.length();
+		this.chainId = inline != null ? 0 : overflow.chainId();
+		this.pageNr = inline != null ? HeapPage.NO_PAGE : overflow.firstPage();
+		this.remaining = length;
+	}
+
+	static ValueChannel ofInline(PageCache pages, Frame frame, Lease lease, ByteBuffer value) {
+		return new ValueChannel(pages, frame, lease, value, null);
+	}
+
+	static ValueChannel ofChain(PageCache pages, Frame frame, Lease lease, OverflowValue overflow) {
+		return new ValueChannel(pages, frame, lease, null, overflow);
+	}
+
+	/**
+	 * Length of the whole value.
+	 */
+	long length() {
+		return length;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		if (remaining == 0) {
+			return -1;
+		}
+		if (inline != null) {
+			var count = Math.min(dst.remaining(), inline.remaining());
+			dst.put(inline.duplicate().limit(inline.position() + count));
+			inline.position(inline.position() + count);
+			remaining -= count;
+			return count;
+		}
+
+		var read = 0;
+		while (dst.hasRemaining() && remaining > 0) {
+			if (pageNr == HeapPage.NO_PAGE) {
+				throw new IOException("overflow chain " + Long.toHexString(chainId) + " ends before value");
+			}
+			var chainFrame = pages.pin(pageNr);
+			var chainLease = chainFrame.lock().readLease();
+			try {
+				var page = new HeapPage(pageNr, chainFrame.buffer());
+				if (!page.isChain(chainId)) {
+					throw new IOException("overflow chain " + Long.toHexString(chainId) + " is broken at page " + pageNr);
+				}
+				var data = page.chainData().position(pagePosition);
+				var count = Math.min(dst.remaining(), data.remaining());
+				dst.put(data.limit(pagePosition + count));
+				pagePosition += count;
+				remaining -= count;
+				read += count;
+				if (pagePosition == page.chainData().limit()) {
+					pageNr = page.nextPage();
+					pagePosition = 0;
+				}
+			} finally {
+				chainLease.close();
+				pages.unpin(chainFrame, false);
+			}
+		}
+		return read;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (frame != null) {
+			lease.close();
+			pages.unpin(frame, false);
+		}
+	}
+
+}
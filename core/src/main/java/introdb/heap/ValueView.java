@@ -0,0 +1,47 @@
+package introdb.heap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import introdb.heap.lock.LockSupport.Lease;
+import introdb.heap.page.Frame;
+import introdb.heap.page.PageCache;
+
+/**
+ * Read only view of a byte array value, straight over page buffer. Page stays
+ * pinned and read locked until view is closed, so it has to be closed by the
+ * thread which got it, and that thread must not modify store in a meantime.
+ */
+class ValueView implements AutoCloseable {
+
+	private final PageCache pages;
+	private final Frame frame;
+	private final Lease lease;
+	private final ByteBuffer buffer;
+	private boolean closed;
+
+	ValueView(PageCache pages, Frame frame, Lease lease, ByteBuffer buffer) {
+		this.pages = pages;
+		this.frame = frame;
+		this.lease = lease;
+		this.buffer = buffer;
+	}
+
+	ByteBuffer buffer() {
+		if (closed) {
+			throw new IllegalStateException("view is closed");
+		}
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		lease.close();
+		pages.unpin(frame, false);
+	}
+
+}
@@ -0,0 +1,383 @@
+package introdb.heap.alloc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread safe allocator, which splits pages into stripes, page belongs to
+ * stripe {@code pageNr % nrOfStripes}. Every stripe is a
+ * {@link RegionAllocator} of its own pages, guarded by its own lock, and
+ * every thread allocates from its home stripe, which it owns, so writers
+ * neither contend on allocation nor write to the same pages. Only when no
+ * page is left to touch, regions are taken from other stripes.
+ * <p>
+ * Thread touches the lowest untouched page of stripes nobody else owns, and
+ * makes that stripe home, so a single writer takes stripes in turn and
+ * touched pages have no holes. Concurrent writers touch pages of their own
+ * stripes, holes they leave are bounded by {@link #touchedPages()}.
+ * <p>
+ * Freed regions are queued to the owning stripe without taking any lock, and
+ * given back to its allocator before next allocation from the stripe.
+ */
+public class ConcurrentRegionAllocator {
+
+	private final int maxRegionSize;
+	private final Stripe[] stripes;
+	private final AtomicInteger nextHomeStripe = new AtomicInteger();
+	private final ThreadLocal<Integer> homeStripe;
+
+	public ConcurrentRegionAllocator(int initialNumberOfRegions, int maxRegionSize, int minRegionSize, int nrOfStripes) {
+		if (nrOfStripes < 1) {
+			throw new IllegalArgumentException("number of stripes has to be positive");
+		}
+		this.maxRegionSize = maxRegionSize;
+		stripes = new Stripe[nrOfStripes];
+		for (int i = 0; i < nrOfStripes; i++) {
+			// pages i, i + nrOfStripes, i + 2 * nrOfStripes ...
+			var nrOfPages = Math.max(0, (initialNumberOfRegions - i + nrOfStripes - 1) / nrOfStripes);
+			stripes[i] = new Stripe(new RegionAllocator(nrOfPages, maxRegionSize, minRegionSize), nrOfPages);
+		}
+		homeStripe = ThreadLocal.withInitial(() -> Math.floorMod(nextHomeStripe.getAndIncrement(), stripes.length));
+	}
+
+	public Optional<Region> alloc(int size) {
+		var home = homeStripe.get();
+		var stripe = stripes[home];
+		if (stripe.claim()) {
+			stripe.lock.lock();
+			try {
+				stripe.drainFreed();
+				var region = stripe.allocator.allocTouched(size);
+				if (region.isPresent()) {
+					return Optional.of(toGlobal(home, region.get()));
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		var region = allocUntouched(size, home);
+		if (region.isPresent()) {
+			return region;
+		}
+		// no page is left to touch
+		for (int i = 1; i < stripes.length; i++) {
+			var stripeNr = (home + i) % stripes.length;
+			region = alloc(stripeNr, size);
+			if (region.isPresent()) {
+				return region;
+			}
+		}
+		return Optional.empty();
+	}
+
+	/*
+	 * Touches the lowest untouched page of stripes which nobody else owns,
+	 * and makes its stripe home, otherwise next page of home stripe.
+	 */
+	private Optional<Region> allocUntouched(int size, int home) {
+		while (true) {
+			var lowest = -1;
+			var lowestPage = Long.MAX_VALUE;
+			for (int i = 0; i < stripes.length; i++) {
+				var stripe = stripes[i];
+				var pageNr = (long) stripe.touchedPages * stripes.length + i;
+				if (stripe.touchedPages < stripe.nrOfPages && pageNr < lowestPage && stripe.isClaimable()) {
+					lowest = i;
+					lowestPage = pageNr;
+				}
+			}
+			if (lowest < 0) {
+				return stripes[home].touchedPages < stripes[home].nrOfPages ? alloc(home, size) : Optional.empty();
+			}
+			// claimed by someone else in a meantime
+			if (!stripes[lowest].claim()) {
+				continue;
+			}
+			var region = alloc(lowest, size);
+			if (region.isPresent()) {
+				if (lowest != home) {
+					homeStripe.set(lowest);
+					stripes[home].release();
+				}
+				return region;
+			}
+		}
+	}
+
+	private Optional<Region> alloc(int stripeNr, int size) {
+		var stripe = stripes[stripeNr];
+		stripe.lock.lock();
+		try {
+			stripe.drainFreed();
+			var region = stripe.allocator.alloc(size);
+			stripe.touchedPages = stripe.allocator.touchedPages();
+			return region.map(r -> toGlobal(stripeNr, r));
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Allocates all regions from touched pages of home stripe when possible,
+	 * so they are packed into its pages, otherwise one by one. Nothing is
+	 * allocated when they don't fit all.
+	 */
+	public Optional<List<Region>> allocAll(int[] sizes) {
+		var home = homeStripe.get();
+		var stripe = stripes[home];
+		if (stripe.claim()) {
+			stripe.lock.lock();
+			try {
+				stripe.drainFreed();
+				var regions = stripe.allocator.allocAllTouched(sizes);
+				if (regions.isPresent()) {
+					var global = new ArrayList<Region>(sizes.length);
+					for (var region : regions.get()) {
+						global.add(toGlobal(home, region));
+					}
+					return Optional.of(global);
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+
+		// no stripe has room for all of them, largest first fill new pages
+		var order = new Integer[sizes.length];
+		Arrays.setAll(order, i -> i);
+		Arrays.sort(order, Comparator.comparingInt((Integer i) -> sizes[i]).reversed());
+		var regions = new Region[sizes.length];
+		for (var i : order) {
+			var region = alloc(sizes[i]);
+			if (!region.isPresent()) {
+				for (var allocated : regions) {
+					if (allocated != null) {
+						free(allocated);
+					}
+				}
+				return Optional.empty();
+			}
+			regions[i] = region.get();
+		}
+		return Optional.of(Arrays.asList(regions));
+	}
+
+	/**
+	 * Queues region to its stripe, never blocks.
+	 */
+	public void free(Region region) {
+		stripes[stripeNr(region.pageNr())].freed.add(region);
+	}
+
+	/**
+	 * Marks region as allocated, used when allocator state is rebuilt from
+	 * existing pages. Region has to be free.
+	 */
+	public void reserve(Region region) {
+		var stripe = stripes[stripeNr(region.pageNr())];
+		stripe.lock.lock();
+		try {
+			stripe.drainFreed();
+			stripe.allocator.reserve(toLocal(region));
+			stripe.touchedPages = stripe.allocator.touchedPages();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Touched pages which have at least {@code minFreeBytes} free, but are not
+	 * entirely free, the ones with most free space first.
+	 */
+	public List<Integer> sparsePages(int minFreeBytes, int limit) {
+		var sparse = new ArrayList<long[]>();
+		for (int i = 0; i < stripes.length; i++) {
+			var stripe = stripes[i];
+			stripe.lock.lock();
+			try {
+				stripe.drainFreed();
+				for (var page : stripe.allocator.freeBytesByPage().entrySet()) {
+					int freeBytes = page.getValue();
+					if (freeBytes >= minFreeBytes && freeBytes < maxRegionSize) {
+						sparse.add(new long[] { page.getKey() * stripes.length + i, freeBytes });
+					}
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		sparse.sort(Comparator.comparingLong((long[] page) -> page[1]).reversed());
+		var pages = new ArrayList<Integer>(Math.min(limit, sparse.size()));
+		for (int i = 0; i < Math.min(limit, sparse.size()); i++) {
+			pages.add((int) sparse.get(i)[0]);
+		}
+		return pages;
+	}
+
+	/**
+	 * @see RegionAllocator#claim(int)
+	 */
+	public boolean claim(int pageNr) {
+		var stripe = stripes[stripeNr(pageNr)];
+		stripe.lock.lock();
+		try {
+			stripe.drainFreed();
+			return stripe.allocator.claim(pageNr / stripes.length);
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * @see RegionAllocator#unclaim(int)
+	 */
+	public void unclaim(int pageNr) {
+		var stripe = stripes[stripeNr(pageNr)];
+		stripe.lock.lock();
+		try {
+			stripe.drainFreed();
+			stripe.allocator.unclaim(pageNr / stripes.length);
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Number of pages up to the last one which was ever allocated from, all
+	 * pages starting from it are entirely free.
+	 */
+	public int touchedPages() {
+		var touchedPages = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			var stripe = stripes[i];
+			stripe.lock.lock();
+			try {
+				var touched = stripe.allocator.touchedPages();
+				if (touched > 0) {
+					touchedPages = Math.max(touchedPages, (touched - 1) * stripes.length + i + 1);
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return touchedPages;
+	}
+
+	/**
+	 * Calls consumer with all free regions of touched pages, while allocator is
+	 * locked.
+	 *
+	 * @return number of touched pages, all pages starting from it are entirely
+	 *         free
+	 */
+	public int snapshot(Consumer<Region> consumer) {
+		for (var stripe : stripes) {
+			stripe.lock.lock();
+		}
+		try {
+			var touchedPages = touchedPages();
+			for (int i = 0; i < stripes.length; i++) {
+				var stripeNr = i;
+				var stripe = stripes[i];
+				stripe.drainFreed();
+				stripe.allocator.forEachFree(region -> consumer.accept(toGlobal(stripeNr, region)));
+				// pages of this stripe, which were not touched yet, but other stripes are past them
+				for (int pageNr = stripe.allocator.touchedPages() * stripes.length + i; pageNr < touchedPages; pageNr += stripes.length) {
+					consumer.accept(new Region(pageNr, 0, maxRegionSize));
+				}
+			}
+			return touchedPages;
+		} finally {
+			for (var stripe : stripes) {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Restores state of allocator which was not used yet, from a snapshot.
+	 */
+	public void restore(int touchedPages, Iterable<Region> freeRegions) {
+		for (int i = 0; i < stripes.length; i++) {
+			var stripe = stripes[i];
+			stripe.lock.lock();
+			try {
+				stripe.allocator.touchAllocated(Math.max(0, (touchedPages - i + stripes.length - 1) / stripes.length));
+				stripe.touchedPages = stripe.allocator.touchedPages();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		for (var region : freeRegions) {
+			free(region);
+		}
+	}
+
+	private int stripeNr(int pageNr) {
+		return pageNr % stripes.length;
+	}
+
+	private Region toGlobal(int stripeNr, Region region) {
+		return new Region(region.pageNr() * stripes.length + stripeNr, region.offset(), region.size());
+	}
+
+	private Region toLocal(Region region) {
+		return new Region(region.pageNr() / stripes.length, region.offset(), region.size());
+	}
+
+	private class Stripe {
+
+		private final RegionAllocator allocator;
+		private final int nrOfPages;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Queue<Region> freed = new ConcurrentLinkedQueue<>();
+		private final AtomicReference<Thread> owner = new AtomicReference<>();
+		// written under stripe lock, read without it to pick page to touch
+		private volatile int touchedPages;
+
+		Stripe(RegionAllocator allocator, int nrOfPages) {
+			this.allocator = allocator;
+			this.nrOfPages = nrOfPages;
+		}
+
+		// called under stripe lock
+		void drainFreed() {
+			Region region;
+			while ((region = freed.poll()) != null) {
+				allocator.free(toLocal(region));
+			}
+		}
+
+		/*
+		 * Stripe which has no owner, or whose owner has terminated, can be
+		 * claimed by any thread.
+		 */
+		boolean isClaimable() {
+			var thread = owner.get();
+			return thread == null || thread == Thread.currentThread() || !thread.isAlive();
+		}
+
+		boolean claim() {
+			var thread = owner.get();
+			if (thread == Thread.currentThread()) {
+				return true;
+			}
+			return (thread == null || !thread.isAlive()) && owner.compareAndSet(thread, Thread.currentThread());
+		}
+
+		void release() {
+			owner.compareAndSet(Thread.currentThread(), null);
+		}
+
+	}
+
+}
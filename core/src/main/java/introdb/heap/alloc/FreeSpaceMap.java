@@ -0,0 +1,167 @@
+package introdb.heap.alloc;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent snapshot of {@link ConcurrentRegionAllocator} state, so allocator
+ * doesn't have to be rebuilt from every page of a heap file when it is opened.
+ * <p>
+ * File layout is header, followed by free regions (page number, offset and
+ * size) of touched pages, pages above the last touched one are entirely free.
+ * Map is marked as clean only after snapshot is fully written, and invalidated
+ * as soon as it is loaded, so map of a heap file which was not closed properly
+ * is never used.
+ */
+public class FreeSpaceMap {
+
+	private static final int MAGIC = 0xf5ace0a9;
+	private static final int HEADER_SIZE = 24;
+	private static final int REGION_SIZE = 3 * Integer.BYTES;
+	// header fields
+	private static final int PAGE_SIZE = 4;
+	private static final int TOUCHED_PAGES = 8;
+	private static final int NR_OF_REGIONS = 12;
+	private static final int CHECKSUM = 16;
+	private static final int CLEAN = 20;
+
+	private FreeSpaceMap() {
+	}
+
+	/**
+	 * Restores allocator from a map, which was saved for a heap file of the same
+	 * page size and at most {@code nrOfPages} pages. Map is invalidated in any
+	 * case, until it is saved again.
+	 *
+	 * @return true when allocator was restored, false when map is missing or
+	 *         stale, and allocator has to be rebuilt from pages
+	 */
+	public static boolean load(Path path, int pageSize, int nrOfPages, ConcurrentRegionAllocator allocator) throws IOException {
+		if (!Files.exists(path)) {
+			return false;
+		}
+		try (var channel = FileChannel.open(path, READ, WRITE)) {
+			var loaded = false;
+			var buffer = read(channel);
+			if (buffer != null && buffer.getInt(PAGE_SIZE) == pageSize && buffer.getInt(TOUCHED_PAGES) <= nrOfPages) {
+				allocator.restore(buffer.getInt(TOUCHED_PAGES), regions(buffer));
+				loaded = true;
+			}
+			// from now on pages and map go separate ways
+			invalidate(channel);
+			return loaded;
+		}
+	}
+
+	/**
+	 * Marks map as stale, when allocator is rebuilt without it.
+	 */
+	public static void invalidate(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (var channel = FileChannel.open(path, WRITE)) {
+			invalidate(channel);
+		}
+	}
+
+	/**
+	 * Writes snapshot of allocator, which has to match pages already written to
+	 * heap file.
+	 */
+	public static void save(Path path, int pageSize, ConcurrentRegionAllocator allocator) throws IOException {
+		var regions = new ArrayList<Region>();
+		var touchedPages = allocator.snapshot(regions::add);
+
+		var buffer = ByteBuffer.allocate(HEADER_SIZE + regions.size() * REGION_SIZE);
+		buffer.position(HEADER_SIZE);
+		for (var region : regions) {
+			buffer.putInt(region.pageNr()).putInt(region.offset()).putInt(region.size());
+		}
+		var crc = new CRC32();
+		crc.update(buffer.flip().position(HEADER_SIZE));
+		buffer.putInt(0, MAGIC)
+			.putInt(PAGE_SIZE, pageSize)
+			.putInt(TOUCHED_PAGES, touchedPages)
+			.putInt(NR_OF_REGIONS, regions.size())
+			.putInt(CHECKSUM, (int) crc.getValue())
+			.put(CLEAN, (byte) 0);
+
+		try (var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+			write(channel, buffer.rewind(), 0);
+			channel.force(true);
+			write(channel, ByteBuffer.wrap(new byte[] { 1 }), CLEAN);
+			channel.force(true);
+		}
+	}
+
+	/*
+	 * Returns whole content of a clean map, or null when it is not valid.
+	 */
+	private static ByteBuffer read(FileChannel channel) throws IOException {
+		var size = channel.size();
+		if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+			return null;
+		}
+		var buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		if (buffer.getInt(0) != MAGIC || buffer.get(CLEAN) != 1 || size != HEADER_SIZE + (long) buffer.getInt(NR_OF_REGIONS) * REGION_SIZE) {
+			return null;
+		}
+		var crc = new CRC32();
+		crc.update(buffer.duplicate().position(HEADER_SIZE));
+		return (int) crc.getValue() == buffer.getInt(CHECKSUM) ? buffer : null;
+	}
+
+	private static Iterable<Region> regions(ByteBuffer buffer) {
+		return () -> new Iterator<Region>() {
+
+			private final ByteBuffer regions = buffer.duplicate().position(HEADER_SIZE);
+
+			@Override
+			public boolean hasNext() {
+				return regions.hasRemaining();
+			}
+
+			@Override
+			public Region next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return new Region(regions.getInt(), regions.getInt(), regions.getInt());
+			}
+
+		};
+	}
+
+	private static void invalidate(FileChannel channel) throws IOException {
+		if (channel.size() > CLEAN) {
+			write(channel, ByteBuffer.allocate(1), CLEAN);
+			channel.force(true);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+}
@@ -2,13 +2,13 @@ package introdb.heap.alloc;
 
 import java.util.Objects;
 
-class Region {
+public class Region {
 
 	private final int pageNr;
 	private final int offset;
 	private final int size;
 
-	Region(int pageNr, int offset, int size) {
+	public Region(int pageNr, int offset, int size) {
 		super();
 		this.pageNr = pageNr;
 		this.offset = offset;
@@ -1,18 +1,353 @@
 package introdb.heap.alloc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
+/**
+ * Allocates regions of pages. Every page starts as a single free region of
+ * {@code maxRegionSize} bytes, allocations smaller than {@code minRegionSize}
+ * are rounded up to it. Freed regions are merged with adjacent free regions
+ * of the same page, regions are never merged across pages.
+ * <p>
+ * Free regions are kept in power of two size classes, so allocation takes
+ * first region of the smallest class which is guaranteed to fit, without
+ * looking at pages at all. Free regions are also kept by page, to find
+ * neighbours to merge with.
+ * <p>
+ * Page can be claimed, e.g. while its records are moved elsewhere, then none
+ * of its regions is allocated. Its free regions, and regions freed in a
+ * meantime, are kept aside and come back when page is unclaimed, so regions
+ * which are allocated stay allocated, whatever page holds.
+ */
 public class RegionAllocator {
 
-	
+	private final int nrOfRegions;
+	private final int maxRegionSize;
+	private final int minRegionSize;
+
+	// free regions (offset -> size) by page, pages without free space are not kept
+	private final Map<Integer, TreeMap<Integer, Integer>> freeRegions = new HashMap<>();
+	// locations of free regions, class n holds sizes from 2^n up to 2^(n+1) exclusive
+	private final SizeClass[] sizeClasses = new SizeClass[Integer.SIZE];
+	// bit n is set when size class n is not empty
+	private long nonEmptyClasses;
+	// pages starting from this one were never touched, so are entirely free
+	private int firstUntouchedPage;
+	// free regions of claimed pages, taken on claim or freed since
+	private final Map<Integer, List<Region>> claimedPages = new HashMap<>();
+
 	public RegionAllocator(int initialNumberOfRegions, int maxRegionSize, int minRegionSize) {
+		if (minRegionSize > maxRegionSize) {
+			throw new IllegalArgumentException("min region size cannot be larger than max region size");
+		}
+		this.nrOfRegions = initialNumberOfRegions;
+		this.maxRegionSize = maxRegionSize;
+		this.minRegionSize = minRegionSize;
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass();
+		}
+	}
+
+	public Optional<Region> alloc(int size) {
+		return alloc(size, true);
 	}
 
-	Optional<Region> alloc(int size) {
+	/**
+	 * Allocates only from pages which are already touched.
+	 */
+	Optional<Region> allocTouched(int size) {
+		return alloc(size, false);
+	}
+
+	private Optional<Region> alloc(int size, boolean touch) {
+		if (size > maxRegionSize) {
+			throw new IllegalArgumentException("requested size " + size + " exceeds max region size " + maxRegionSize);
+		}
+		var regionSize = Math.max(size, minRegionSize);
+
+		// every region of this class and above fits
+		var fitting = nonEmptyClasses & (-1L << ceilSizeClass(regionSize));
+		if (fitting != 0) {
+			var location = sizeClasses[Long.numberOfTrailingZeros(fitting)].first();
+			return Optional.of(split(pageNr(location), offset(location), regionSize));
+		}
+
+		if (touch && firstUntouchedPage < nrOfRegions) {
+			touch(firstUntouchedPage);
+			return Optional.of(split(firstUntouchedPage - 1, 0, regionSize));
+		}
+
+		// no page is touched, some regions of smaller class can still fit
+		for (var location : sizeClasses[sizeClass(regionSize)].locations) {
+			var pageNr = pageNr(location);
+			var offset = offset(location);
+			if (freeRegions.get(pageNr).get(offset) >= regionSize) {
+				return Optional.of(split(pageNr, offset, regionSize));
+			}
+		}
 		return Optional.empty();
 	}
-		
-	void free(Region region) {
+
+	/**
+	 * Allocates regions of all sizes, largest first, so smaller ones fill what
+	 * is left in pages. Regions are returned in order of sizes, and nothing is
+	 * allocated when they don't fit all.
+	 */
+	public Optional<List<Region>> allocAll(int[] sizes) {
+		return allocAll(sizes, true);
+	}
+
+	/**
+	 * As {@link #allocAll(int[])}, only from pages which are already touched.
+	 */
+	Optional<List<Region>> allocAllTouched(int[] sizes) {
+		return allocAll(sizes, false);
+	}
+
+	private Optional<List<Region>> allocAll(int[] sizes, boolean touch) {
+		for (var size : sizes) {
+			if (size > maxRegionSize) {
+				throw new IllegalArgumentException("requested size " + size + " exceeds max region size " + maxRegionSize);
+			}
+		}
+		var order = new Integer[sizes.length];
+		Arrays.setAll(order, i -> i);
+		Arrays.sort(order, Comparator.comparingInt((Integer i) -> sizes[i]).reversed());
+
+		var regions = new Region[sizes.length];
+		for (var i : order) {
+			var region = alloc(sizes[i], touch);
+			if (!region.isPresent()) {
+				for (var allocated : regions) {
+					if (allocated != null) {
+						free(allocated);
+					}
+				}
+				return Optional.empty();
+			}
+			regions[i] = region.get();
+		}
+		return Optional.of(Arrays.asList(regions));
+	}
+
+	public void free(Region region) {
+		var pageNr = region.pageNr();
+		if (pageNr >= firstUntouchedPage) {
+			throw new IllegalArgumentException("region " + region + " was never allocated");
+		}
+		var claimed = claimedPages.get(pageNr);
+		if (claimed != null) {
+			claimed.add(region);
+			return;
+		}
+		var regions = freeRegions.get(pageNr);
+
+		var offset = region.offset();
+		var size = region.size();
+
+		if (regions != null) {
+			var previous = regions.floorEntry(offset);
+			if (previous != null && previous.getKey() + previous.getValue() > offset) {
+				throw new IllegalArgumentException("region " + region + " is already free");
+			}
+			if (previous != null && previous.getKey() + previous.getValue() == offset) {
+				removeFree(pageNr, previous.getKey(), previous.getValue());
+				offset = previous.getKey();
+				size += previous.getValue();
+			}
+
+			var nextOffset = region.offset() + region.size();
+			var next = regions.get(nextOffset);
+			if (next != null) {
+				removeFree(pageNr, nextOffset, next);
+				size += next;
+			}
+		}
+		addFree(pageNr, offset, size);
+	}
+
+	/**
+	 * Marks region as allocated, used when allocator state is rebuilt from
+	 * existing pages. Region has to be free.
+	 */
+	public void reserve(Region region) {
+		var pageNr = region.pageNr();
+		if (pageNr >= nrOfRegions) {
+			throw new IllegalArgumentException("region " + region + " is out of allocator bounds");
+		}
+		while (firstUntouchedPage <= pageNr) {
+			touch(firstUntouchedPage);
+		}
+
+		var regions = freeRegions.get(pageNr);
+		var free = regions != null ? regions.floorEntry(region.offset()) : null;
+		if (free == null || free.getKey() + free.getValue() < region.offset() + region.size()) {
+			throw new IllegalArgumentException("region " + region + " is not free");
+		}
+		int freeOffset = free.getKey();
+		int freeSize = free.getValue();
+
+		removeFree(pageNr, freeOffset, freeSize);
+		if (freeOffset < region.offset()) {
+			addFree(pageNr, freeOffset, region.offset() - freeOffset);
+		}
+		var freeEnd = freeOffset + freeSize;
+		var regionEnd = region.offset() + region.size();
+		if (regionEnd < freeEnd) {
+			addFree(pageNr, regionEnd, freeEnd - regionEnd);
+		}
+	}
+
+	/**
+	 * Takes all free space of a touched page, so nothing is allocated from it
+	 * until it is returned or unclaimed.
+	 *
+	 * @return false when page was not touched yet or is already claimed
+	 */
+	public boolean claim(int pageNr) {
+		if (pageNr >= firstUntouchedPage || claimedPages.containsKey(pageNr)) {
+			return false;
+		}
+		var claimed = new ArrayList<Region>();
+		var regions = freeRegions.get(pageNr);
+		if (regions != null) {
+			for (var free : new ArrayList<>(regions.entrySet())) {
+				removeFree(pageNr, free.getKey(), free.getValue());
+				claimed.add(new Region(pageNr, free.getKey(), free.getValue()));
+			}
+		}
+		claimedPages.put(pageNr, claimed);
+		return true;
+	}
+
+	/**
+	 * Gives back claimed page with regions which were free when it was claimed,
+	 * and regions freed since.
+	 */
+	public void unclaim(int pageNr) {
+		var claimed = claimedPages.remove(pageNr);
+		if (claimed == null) {
+			throw new IllegalArgumentException("page " + pageNr + " is not claimed");
+		}
+		for (var region : claimed) {
+			free(region);
+		}
+	}
+
+	/**
+	 * Free bytes of pages which have any, except for claimed ones.
+	 */
+	Map<Integer, Integer> freeBytesByPage() {
+		var freeBytes = new HashMap<Integer, Integer>();
+		for (var page : freeRegions.entrySet()) {
+			var sum = 0;
+			for (var size : page.getValue().values()) {
+				sum += size;
+			}
+			freeBytes.put(page.getKey(), sum);
+		}
+		return freeBytes;
+	}
+
+	/**
+	 * Number of touched pages, all pages starting from it are entirely free.
+	 */
+	int touchedPages() {
+		return firstUntouchedPage;
+	}
+
+	void forEachFree(Consumer<Region> consumer) {
+		for (var page : freeRegions.entrySet()) {
+			for (var free : page.getValue().entrySet()) {
+				consumer.accept(new Region(page.getKey(), free.getKey(), free.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Marks pages as touched and entirely allocated, used when allocator state
+	 * is restored, free regions are then given back with {@link #free(Region)}.
+	 */
+	void touchAllocated(int nrOfPages) {
+		if (nrOfPages > nrOfRegions) {
+			throw new IllegalArgumentException("number of pages " + nrOfPages + " is out of allocator bounds");
+		}
+		firstUntouchedPage = Math.max(firstUntouchedPage, nrOfPages);
+	}
+
+	private void touch(int pageNr) {
+		addFree(pageNr, 0, maxRegionSize);
+		firstUntouchedPage = pageNr + 1;
+	}
+
+	private Region split(int pageNr, int offset, int size) {
+		int freeSize = freeRegions.get(pageNr).get(offset);
+		removeFree(pageNr, offset, freeSize);
+		if (freeSize > size) {
+			addFree(pageNr, offset + size, freeSize - size);
+		}
+		return new Region(pageNr, offset, size);
+	}
+
+	private void addFree(int pageNr, int offset, int size) {
+		freeRegions.computeIfAbsent(pageNr, p -> new TreeMap<>()).put(offset, size);
+		var sizeClass = sizeClass(size);
+		sizeClasses[sizeClass].locations.add(location(pageNr, offset));
+		nonEmptyClasses |= 1L << sizeClass;
+	}
+
+	private void removeFree(int pageNr, int offset, int size) {
+		var regions = freeRegions.get(pageNr);
+		regions.remove(offset);
+		if (regions.isEmpty()) {
+			freeRegions.remove(pageNr);
+		}
+		var sizeClass = sizeClass(size);
+		var locations = sizeClasses[sizeClass].locations;
+		locations.remove(location(pageNr, offset));
+		if (locations.isEmpty()) {
+			nonEmptyClasses &= ~(1L << sizeClass);
+		}
+	}
+
+	private static int sizeClass(int size) {
+		return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(size);
+	}
+
+	private static int ceilSizeClass(int size) {
+		var sizeClass = sizeClass(size);
+		return size == 1 << sizeClass ? sizeClass : sizeClass + 1;
+	}
+
+	private static long location(int pageNr, int offset) {
+		return ((long) pageNr << 32) | (offset & 0xffffffffL);
+	}
+
+	private static int pageNr(long location) {
+		return (int) (location >>> 32);
 	}
-	
+
+	private static int offset(long location) {
+		return (int) location;
+	}
+
+	private static class SizeClass {
+
+		// insertion ordered, so regions freed first are reused first
+		private final LinkedHashSet<Long> locations = new LinkedHashSet<>();
+
+		long first() {
+			return locations.iterator().next();
+		}
+
+	}
+
 }
@@ -0,0 +1,213 @@
+package introdb.heap.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec of LZ4 block format, a sequence of literals followed by a match (offset
+ * and length of bytes to copy from already decompressed output). Compression
+ * is greedy, with a single hash table entry per 4 byte sequence, which trades
+ * ratio for speed, as values are compressed on every put.
+ */
+public final class Lz4Codec {
+
+	private static final int MIN_MATCH = 4;
+	// block always ends with literals, and last match starts before them
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 0xffff;
+	private static final int RUN_MASK = 15;
+	private static final int HASH_LOG = 12;
+
+	private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+	private Lz4Codec() {
+	}
+
+	/**
+	 * Size of a buffer which fits compressed block of given length, in the
+	 * worst case.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses bytes into destination array, which has to have at least
+	 * {@link #maxCompressedLength(int)} bytes from the offset.
+	 *
+	 * @return length of compressed block
+	 */
+	public static int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+		var table = HASH_TABLE.get();
+		Arrays.fill(table, -1);
+		var srcEnd = srcOffset + length;
+		var matchLimit = srcEnd - LAST_LITERALS;
+		var mfLimit = srcEnd - MF_LIMIT;
+		var anchor = srcOffset;
+		var ip = srcOffset;
+		var op = dstOffset;
+
+		while (ip <= mfLimit) {
+			var sequence = readInt(src, ip);
+			var hash = hash(sequence);
+			var ref = table[hash];
+			table[hash] = ip;
+			if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+				// literals which don't match are skipped faster and faster
+				ip += 1 + ((ip - anchor) >>> 6);
+				continue;
+			}
+			while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			var matchLength = MIN_MATCH;
+			while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+				matchLength++;
+			}
+			var token = op;
+			op = writeLiterals(src, anchor, ip - anchor, dst, op);
+			dst[op++] = (byte) (ip - ref);
+			dst[op++] = (byte) ((ip - ref) >>> 8);
+			op = writeMatchLength(dst, token, op, matchLength - MIN_MATCH);
+			ip += matchLength;
+			anchor = ip;
+			if (ip - 2 <= mfLimit) {
+				table[hash(readInt(src, ip - 2))] = ip - 2;
+			}
+		}
+		op = writeLiterals(src, anchor, srcEnd - anchor, dst, op);
+		return op - dstOffset;
+	}
+
+	/**
+	 * Decompresses remaining bytes of a block into destination array, which has
+	 * to be filled exactly.
+	 *
+	 * @throws IOException
+	 *             when block is corrupted
+	 */
+	public static void decompress(ByteBuffer block, byte[] dst) throws IOException {
+		byte[] src;
+		int ip;
+		if (block.hasArray()) {
+			src = block.array();
+			ip = block.arrayOffset() + block.position();
+		} else {
+			src = new byte[block.remaining()];
+			block.duplicate().get(src);
+			ip = 0;
+		}
+		var srcEnd = ip + block.remaining();
+		var op = 0;
+
+		while (true) {
+			if (ip >= srcEnd) {
+				throw corrupted();
+			}
+			var token = src[ip++] & 0xff;
+			var literals = token >>> 4;
+			if (literals == RUN_MASK) {
+				int b;
+				do {
+					if (ip >= srcEnd) {
+						throw corrupted();
+					}
+					b = src[ip++] & 0xff;
+					literals += b;
+				} while (b == 255);
+			}
+			if (literals > srcEnd - ip || literals > dst.length - op) {
+				throw corrupted();
+			}
+			System.arraycopy(src, ip, dst, op, literals);
+			ip += literals;
+			op += literals;
+			if (ip == srcEnd) {
+				break;
+			}
+
+			if (srcEnd - ip < 2) {
+				throw corrupted();
+			}
+			var offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+			ip += 2;
+			var matchLength = token & RUN_MASK;
+			if (matchLength == RUN_MASK) {
+				int b;
+				do {
+					if (ip >= srcEnd) {
+						throw corrupted();
+					}
+					b = src[ip++] & 0xff;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (offset == 0 || offset > op || matchLength > dst.length - op) {
+				throw corrupted();
+			}
+			var ref = op - offset;
+			if (offset >= matchLength) {
+				System.arraycopy(dst, ref, dst, op, matchLength);
+			} else {
+				// match overlaps bytes it produces
+				for (int i = 0; i < matchLength; i++) {
+					dst[op + i] = dst[ref + i];
+				}
+			}
+			op += matchLength;
+		}
+		if (op != dst.length) {
+			throw corrupted();
+		}
+	}
+
+	private static int writeLiterals(byte[] src, int start, int length, byte[] dst, int op) {
+		var token = op++;
+		if (length >= RUN_MASK) {
+			dst[token] = (byte) (RUN_MASK << 4);
+			op = writeLength(dst, op, length - RUN_MASK);
+		} else {
+			dst[token] = (byte) (length << 4);
+		}
+		System.arraycopy(src, start, dst, op, length);
+		return op + length;
+	}
+
+	/*
+	 * Match length goes to low bits of token, which starts the sequence.
+	 */
+	private static int writeMatchLength(byte[] dst, int token, int op, int length) {
+		if (length >= RUN_MASK) {
+			dst[token] |= RUN_MASK;
+			return writeLength(dst, op, length - RUN_MASK);
+		}
+		dst[token] |= length;
+		return op;
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		while (length >= 255) {
+			dst[op++] = (byte) 255;
+			length -= 255;
+		}
+		dst[op++] = (byte) length;
+		return op;
+	}
+
+	private static int readInt(byte[] src, int i) {
+		return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static IOException corrupted() {
+		return new IOException("compressed block is corrupted");
+	}
+
+}
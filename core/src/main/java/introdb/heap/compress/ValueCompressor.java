@@ -0,0 +1,67 @@
+package introdb.heap.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides for every value, whether it is stored compressed. Compressed value
+ * is its length (int) followed by {@link Lz4Codec} block, and it is kept only
+ * when it is at least 1/8 smaller than raw value. When a value doesn't
+ * compress, compression is not even tried for a number of following values,
+ * which doubles with every miss, so store of incompressible values doesn't pay
+ * for it.
+ */
+public class ValueCompressor {
+
+	// values shorter than that hardly ever pay for length and block overhead
+	static final int MIN_LENGTH = 64;
+	private static final int MAX_SKIP = 64;
+
+	private final AtomicInteger skipped = new AtomicInteger();
+	private volatile int skip;
+
+	/**
+	 * @return compressed value, or null when value should be stored raw
+	 */
+	public byte[] compress(byte[] value) {
+		if (value.length < MIN_LENGTH || (skip > 0 && skipped.getAndIncrement() < skip)) {
+			return null;
+		}
+		var compressed = new byte[Integer.BYTES + Lz4Codec.maxCompressedLength(value.length)];
+		var length = Integer.BYTES + Lz4Codec.compress(value, 0, value.length, compressed, Integer.BYTES);
+		if (length > value.length - value.length / 8) {
+			skip = Math.min(MAX_SKIP, Math.max(1, skip * 2));
+			skipped.set(0);
+			return null;
+		}
+		if (skip != 0) {
+			skip = 0;
+		}
+		ByteBuffer.wrap(compressed).putInt(value.length);
+		var result = new byte[length];
+		System.arraycopy(compressed, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Raw value of remaining bytes of compressed value.
+	 *
+	 * @throws IOException
+	 *             when value is corrupted
+	 */
+	public static byte[] decompress(ByteBuffer compressed) throws IOException {
+		var buffer = compressed.duplicate();
+		if (buffer.remaining() < Integer.BYTES) {
+			throw new IOException("compressed value is corrupted");
+		}
+		var length = buffer.getInt();
+		if (length < 0) {
+			throw new IOException("compressed value is corrupted");
+		}
+		var value = new byte[length];
+		Lz4Codec.decompress(buffer, value);
+		return value;
+	}
+
+}
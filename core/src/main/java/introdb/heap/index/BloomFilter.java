@@ -0,0 +1,212 @@
+package introdb.heap.index;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Blocked Bloom filter of key fingerprints. All bits of a fingerprint are set
+ * in a single block of 512 bits, so every lookup touches one cache line. Bits
+ * are set atomically, filter can be updated and queried concurrently.
+ * <p>
+ * File layout is header, followed by blocks. As with
+ * {@link introdb.heap.alloc.FreeSpaceMap}, file is marked as clean only after
+ * it is fully written, and invalidated as soon as it is loaded.
+ */
+public class BloomFilter {
+
+	private static final int BLOCK_LONGS = 8;
+	private static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+	private static final int MAX_HASHES = 16;
+	private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private static final int MAGIC = 0xb100f11e;
+	private static final int HEADER_SIZE = 32;
+	// header fields
+	private static final int NR_OF_BLOCKS = 4;
+	private static final int NR_OF_HASHES = 8;
+	private static final int CAPACITY = 12;
+	private static final int CHECKSUM = 20;
+	private static final int CLEAN = 24;
+
+	private final long[] bits;
+	private final int nrOfBlocks;
+	private final int nrOfHashes;
+	private final long capacity;
+
+	private BloomFilter(int nrOfBlocks, int nrOfHashes, long capacity) {
+		this.bits = new long[nrOfBlocks * BLOCK_LONGS];
+		this.nrOfBlocks = nrOfBlocks;
+		this.nrOfHashes = nrOfHashes;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Filter sized for given number of keys and false positive rate, which
+	 * takes at most {@code maxBytes} of memory, so with more keys than fit in
+	 * it, false positive rate gets higher.
+	 */
+	public static BloomFilter create(long capacity, double falsePositiveRate, long maxBytes) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("false positive rate has to be between 0 and 1");
+		}
+		var bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		var nrOfHashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+		var bytes = Math.min(maxBytes, (long) Math.ceil(capacity * bitsPerKey / Byte.SIZE));
+		var nrOfBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / BLOCK_LONGS, bytes / (BLOCK_LONGS * Long.BYTES)));
+		return new BloomFilter(nrOfBlocks, nrOfHashes, capacity);
+	}
+
+	/**
+	 * Number of keys filter was sized for.
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+	public void add(long fingerprint) {
+		var block = block(fingerprint);
+		var hash = (int) fingerprint;
+		var step = step(fingerprint);
+		for (int i = 0; i < nrOfHashes; i++) {
+			var bit = (hash + i * step) & (BLOCK_BITS - 1);
+			var word = block + (bit >>> 6);
+			var mask = 1L << bit;
+			if (((long) BITS.getAcquire(bits, word) & mask) == 0) {
+				BITS.getAndBitwiseOr(bits, word, mask);
+			}
+		}
+	}
+
+	/**
+	 * @return false when fingerprint was never added, true when it probably
+	 *         was
+	 */
+	public boolean mightContain(long fingerprint) {
+		var block = block(fingerprint);
+		var hash = (int) fingerprint;
+		var step = step(fingerprint);
+		for (int i = 0; i < nrOfHashes; i++) {
+			var bit = (hash + i * step) & (BLOCK_BITS - 1);
+			if (((long) BITS.getAcquire(bits, block + (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Restores filter which was saved by a store closed properly. File is
+	 * invalidated in any case, until it is saved again.
+	 *
+	 * @return filter, or null when file is missing or stale
+	 */
+	public static BloomFilter load(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return null;
+		}
+		try (var channel = FileChannel.open(path, READ, WRITE)) {
+			var filter = read(channel);
+			// from now on filter and index go separate ways
+			invalidate(channel);
+			return filter;
+		}
+	}
+
+	/**
+	 * Marks saved filter as stale, when it is not going to be kept up to date.
+	 */
+	public static void invalidate(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (var channel = FileChannel.open(path, WRITE)) {
+			invalidate(channel);
+		}
+	}
+
+	/**
+	 * Writes filter, which must not be updated in a meantime.
+	 */
+	public void save(Path path) throws IOException {
+		var buffer = ByteBuffer.allocate(HEADER_SIZE + bits.length * Long.BYTES);
+		buffer.position(HEADER_SIZE);
+		buffer.asLongBuffer().put(bits);
+		var crc = new CRC32();
+		crc.update(buffer.duplicate().position(HEADER_SIZE));
+		buffer.putInt(0, MAGIC)
+			.putInt(NR_OF_BLOCKS, nrOfBlocks)
+			.putInt(NR_OF_HASHES, nrOfHashes)
+			.putLong(CAPACITY, capacity)
+			.putInt(CHECKSUM, (int) crc.getValue())
+			.put(CLEAN, (byte) 0);
+
+		try (var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+			write(channel, buffer.rewind(), 0);
+			channel.force(true);
+			write(channel, ByteBuffer.wrap(new byte[] { 1 }), CLEAN);
+			channel.force(true);
+		}
+	}
+
+	private int block(long fingerprint) {
+		// high bits pick a block, low bits pick bits in it
+		return (int) (((fingerprint >>> 32) * nrOfBlocks) >>> 32) * BLOCK_LONGS;
+	}
+
+	private static int step(long fingerprint) {
+		return (int) ((fingerprint * 0x9e3779b97f4a7c15L) >>> 32) | 1;
+	}
+
+	private static BloomFilter read(FileChannel channel) throws IOException {
+		var size = channel.size();
+		if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+			return null;
+		}
+		var buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		var nrOfBlocks = buffer.getInt(NR_OF_BLOCKS);
+		var nrOfHashes = buffer.getInt(NR_OF_HASHES);
+		if (buffer.getInt(0) != MAGIC || buffer.get(CLEAN) != 1 || nrOfBlocks < 1 || nrOfHashes < 1 || nrOfHashes > MAX_HASHES
+				|| size != HEADER_SIZE + (long) nrOfBlocks * BLOCK_LONGS * Long.BYTES) {
+			return null;
+		}
+		var crc = new CRC32();
+		crc.update(buffer.duplicate().position(HEADER_SIZE));
+		if ((int) crc.getValue() != buffer.getInt(CHECKSUM)) {
+			return null;
+		}
+		var filter = new BloomFilter(nrOfBlocks, nrOfHashes, buffer.getLong(CAPACITY));
+		buffer.position(HEADER_SIZE).asLongBuffer().get(filter.bits);
+		return filter;
+	}
+
+	private static void invalidate(FileChannel channel) throws IOException {
+		if (channel.size() > CLEAN) {
+			write(channel, ByteBuffer.allocate(1), CLEAN);
+			channel.force(true);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+}
@@ -0,0 +1,576 @@
+package introdb.heap.index;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Persistent primary index, maps key fingerprints to locations (page number
+ * and offset) of records in a heap file. It is an extendible hash table, where
+ * directory is kept in memory and buckets are pages of index file, so every
+ * lookup costs single bucket read.
+ * <p>
+ * Fingerprints are not unique, every operation takes a matcher which is asked
+ * to confirm that location with the same fingerprint really holds the key.
+ * <p>
+ * Directory lock is taken exclusively only when a bucket is split, buckets are
+ * guarded by latches striped by bucket number. Matchers run on a snapshot of
+ * bucket without any lock held, so they can read heap pages, and bucket is
+ * changed only when it is still the same as the matched snapshot, otherwise
+ * operation is retried. So matchers can run more than once, and must not use
+ * the index themselves.
+ * <p>
+ * Index file layout is header page, followed by bucket pages. Directory is
+ * written after last bucket when index is closed, index which was not closed
+ * properly is reported as invalid and has to be rebuilt by the owner.
+ */
+public class HashIndex implements Closeable {
+
+	public static final long NOT_FOUND = -1L;
+
+	private static final int MAGIC = 0x1d8e1d8e;
+	private static final int MAX_DEPTH = 30;
+	// bucket takes latch of its number modulo this
+	private static final int LATCHES = 64;
+	// results of bucket updates, which are not locations
+	private static final long FULL = -2L;
+	private static final long STALE = -3L;
+
+	// local depth and number of entries
+	private static final int BUCKET_HEADER_SIZE = 8;
+	// fingerprint and location
+	private static final int ENTRY_SIZE = 16;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int bucketCapacity;
+	// taken shared by bucket operations, exclusively when directory changes
+	private final ReadWriteLock directoryLock = new ReentrantReadWriteLock();
+	private final ReadWriteLock[] latches = new ReadWriteLock[LATCHES];
+	// buckets are read into per thread buffers, so operations don't allocate
+	private final ThreadLocal<ByteBuffer> snapshots;
+	// every bucket change takes next one, so no version is ever repeated
+	private final AtomicLong lastVersion = new AtomicLong();
+	private final AtomicLong size = new AtomicLong();
+	private final LongAdder lookups = new LongAdder();
+
+	private int globalDepth;
+	private int[] directory;
+	// by bucket number, guarded by bucket latch
+	private long[] versions;
+	private int nrOfBuckets;
+	private boolean valid;
+
+	private HashIndex(FileChannel channel, int pageSize) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.bucketCapacity = (pageSize - BUCKET_HEADER_SIZE) / ENTRY_SIZE;
+		this.snapshots = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(pageSize));
+		for (int i = 0; i < LATCHES; i++) {
+			latches[i] = new ReentrantReadWriteLock();
+		}
+		if (bucketCapacity < 2) {
+			throw new IllegalArgumentException("page size " + pageSize + " is too small for index bucket");
+		}
+	}
+
+	public static HashIndex open(Path path, int pageSize) throws IOException {
+		var channel = FileChannel.open(path, CREATE, READ, WRITE);
+		var index = new HashIndex(channel, pageSize);
+		try {
+			if (!index.load()) {
+				index.reset();
+			}
+			index.writeHeader(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return index;
+	}
+
+	public static long location(int pageNr, int offset) {
+		return ((long) pageNr << 32) | (offset & 0xffffffffL);
+	}
+
+	public static int pageNr(long location) {
+		return (int) (location >>> 32);
+	}
+
+	public static int offset(long location) {
+		return (int) location;
+	}
+
+	/**
+	 * 64-bit hash of serialized key, good enough to use its low bits as
+	 * directory index.
+	 */
+	public static long fingerprint(byte[] key) {
+		// FNV-1a, followed by murmur3 finalizer to spread low bits
+		var h = 0xcbf29ce484222325L;
+		for (var b : key) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	public static long fingerprint(ByteBuffer key) {
+		var h = 0xcbf29ce484222325L;
+		for (int i = key.position(); i < key.limit(); i++) {
+			h ^= key.get(i) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * True when index was loaded from file which was properly closed.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	public long size() {
+		return size.get();
+	}
+
+	/**
+	 * Number of {@link #get(long, LongPredicate)} calls since index was opened.
+	 */
+	public long lookups() {
+		return lookups.sum();
+	}
+
+	public long get(long fingerprint, LongPredicate matcher) throws IOException {
+		lookups.increment();
+		var snapshot = snapshots.get();
+		while (true) {
+			var version = snapshot(fingerprint, snapshot);
+			var index = find(snapshot, fingerprint, matcher);
+			if (index >= 0) {
+				return snapshot.getLong(entry(index) + 8);
+			}
+			// nothing matched, unless bucket was changed while matching
+			if (isCurrent(fingerprint, version)) {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	/**
+	 * Puts location of a key, replacing location of the same key if present.
+	 *
+	 * @return previous location of a key or {@link #NOT_FOUND}
+	 */
+	public long put(long fingerprint, long location, LongPredicate matcher) throws IOException {
+		var snapshot = snapshots.get();
+		while (true) {
+			var version = snapshot(fingerprint, snapshot);
+			var index = find(snapshot, fingerprint, matcher);
+			var previous = update(fingerprint, version, snapshot, bucket -> {
+				if (index >= 0) {
+					var replaced = bucket.getLong(entry(index) + 8);
+					bucket.putLong(entry(index) + 8, location);
+					return replaced;
+				}
+				var count = bucket.getInt(4);
+				if (count == bucketCapacity) {
+					return FULL;
+				}
+				bucket.putLong(entry(count), fingerprint);
+				bucket.putLong(entry(count) + 8, location);
+				bucket.putInt(4, count + 1);
+				return NOT_FOUND;
+			});
+			if (previous == FULL) {
+				split(fingerprint, version);
+			} else if (previous != STALE) {
+				if (previous == NOT_FOUND) {
+					size.incrementAndGet();
+				}
+				return previous;
+			}
+		}
+	}
+
+	/**
+	 * Moves entry to a new location, only when it still points to expected
+	 * one, so location which was concurrently replaced or removed is not
+	 * brought back.
+	 *
+	 * @return true when entry was moved
+	 */
+	public boolean replace(long fingerprint, long expected, long location) throws IOException {
+		var snapshot = snapshots.get();
+		while (true) {
+			var version = snapshot(fingerprint, snapshot);
+			var index = find(snapshot, fingerprint, l -> l == expected);
+			if (index < 0) {
+				if (isCurrent(fingerprint, version)) {
+					return false;
+				}
+				continue;
+			}
+			var replaced = update(fingerprint, version, snapshot, bucket -> {
+				bucket.putLong(entry(index) + 8, location);
+				return expected;
+			});
+			if (replaced != STALE) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return location of removed key or {@link #NOT_FOUND}
+	 */
+	public long remove(long fingerprint, LongPredicate matcher) throws IOException {
+		var snapshot = snapshots.get();
+		while (true) {
+			var version = snapshot(fingerprint, snapshot);
+			var index = find(snapshot, fingerprint, matcher);
+			if (index < 0) {
+				if (isCurrent(fingerprint, version)) {
+					return NOT_FOUND;
+				}
+				continue;
+			}
+			var location = update(fingerprint, version, snapshot, bucket -> {
+				var removed = bucket.getLong(entry(index) + 8);
+				var last = bucket.getInt(4) - 1;
+				bucket.putLong(entry(index), bucket.getLong(entry(last)));
+				bucket.putLong(entry(index) + 8, bucket.getLong(entry(last) + 8));
+				bucket.putInt(4, last);
+				return removed;
+			});
+			if (location != STALE) {
+				size.decrementAndGet();
+				return location;
+			}
+		}
+	}
+
+	/**
+	 * Calls consumer with fingerprints of all entries, bucket by bucket, each
+	 * under its latch. Buckets created by splits get higher numbers, so
+	 * entries which were in index before the call are never missed.
+	 */
+	public void forEachFingerprint(LongConsumer consumer) throws IOException {
+		var bucket = ByteBuffer.allocate(pageSize);
+		for (int bucketNr = 0;; bucketNr++) {
+			directoryLock.readLock().lock();
+			try {
+				if (bucketNr >= nrOfBuckets) {
+					return;
+				}
+				var latch = latch(bucketNr).readLock();
+				latch.lock();
+				try {
+					read(bucket, bucketPosition(bucketNr));
+				} finally {
+					latch.unlock();
+				}
+				var count = bucket.getInt(4);
+				for (int i = 0; i < count; i++) {
+					consumer.accept(bucket.getLong(entry(i)));
+				}
+			} finally {
+				directoryLock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries, used when index is rebuilt.
+	 */
+	public void clear() throws IOException {
+		directoryLock.writeLock().lock();
+		try {
+			reset();
+			writeHeader(false);
+		} finally {
+			directoryLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		directoryLock.writeLock().lock();
+		try {
+			if (!channel.isOpen()) {
+				return;
+			}
+			var buffer = ByteBuffer.allocate(directory.length * Integer.BYTES);
+			buffer.asIntBuffer().put(directory);
+			write(buffer, bucketPosition(nrOfBuckets));
+			writeHeader(true);
+			channel.force(true);
+			channel.close();
+		} finally {
+			directoryLock.writeLock().unlock();
+		}
+	}
+
+	private int slot(long fingerprint) {
+		return (int) (fingerprint & ((1L << globalDepth) - 1));
+	}
+
+	private ReadWriteLock latch(int bucketNr) {
+		return latches[bucketNr & (LATCHES - 1)];
+	}
+
+	/*
+	 * Reads bucket of a fingerprint into snapshot buffer.
+	 *
+	 * @return version of bucket
+	 */
+	private long snapshot(long fingerprint, ByteBuffer snapshot) throws IOException {
+		directoryLock.readLock().lock();
+		try {
+			var bucketNr = directory[slot(fingerprint)];
+			var latch = latch(bucketNr).readLock();
+			latch.lock();
+			try {
+				read(snapshot.clear(), bucketPosition(bucketNr));
+				return versions[bucketNr];
+			} finally {
+				latch.unlock();
+			}
+		} finally {
+			directoryLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * True when bucket of a fingerprint still has the version.
+	 */
+	private boolean isCurrent(long fingerprint, long version) {
+		directoryLock.readLock().lock();
+		try {
+			var bucketNr = directory[slot(fingerprint)];
+			var latch = latch(bucketNr).readLock();
+			latch.lock();
+			try {
+				return versions[bucketNr] == version;
+			} finally {
+				latch.unlock();
+			}
+		} finally {
+			directoryLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Applies update to snapshot and writes it as bucket of a fingerprint, only
+	 * when bucket still has the version of snapshot, otherwise returns STALE.
+	 * Nothing is written when update returns FULL.
+	 */
+	private long update(long fingerprint, long version, ByteBuffer snapshot, BucketUpdate update) throws IOException {
+		directoryLock.readLock().lock();
+		try {
+			var bucketNr = directory[slot(fingerprint)];
+			var latch = latch(bucketNr).writeLock();
+			latch.lock();
+			try {
+				if (versions[bucketNr] != version) {
+					return STALE;
+				}
+				var result = update.apply(snapshot);
+				if (result != FULL) {
+					writeBucket(bucketNr, snapshot);
+					versions[bucketNr] = lastVersion.incrementAndGet();
+				}
+				return result;
+			} finally {
+				latch.unlock();
+			}
+		} finally {
+			directoryLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Splits full bucket of a fingerprint, unless it was changed since it had
+	 * the version.
+	 */
+	private void split(long fingerprint, long version) throws IOException {
+		directoryLock.writeLock().lock();
+		try {
+			var bucketNr = directory[slot(fingerprint)];
+			if (versions[bucketNr] == version) {
+				split(bucketNr, readBucket(bucketNr));
+			}
+		} finally {
+			directoryLock.writeLock().unlock();
+		}
+	}
+
+	private int find(ByteBuffer bucket, long fingerprint, LongPredicate matcher) {
+		var count = bucket.getInt(4);
+		for (int i = 0; i < count; i++) {
+			if (bucket.getLong(entry(i)) == fingerprint && matcher.test(bucket.getLong(entry(i) + 8))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void split(int bucketNr, ByteBuffer bucket) throws IOException {
+		var localDepth = bucket.getInt(0);
+		if (localDepth == MAX_DEPTH) {
+			throw new IllegalStateException("index bucket " + bucketNr + " cannot be split any further");
+		}
+		if (localDepth == globalDepth) {
+			var doubled = new int[directory.length * 2];
+			System.arraycopy(directory, 0, doubled, 0, directory.length);
+			System.arraycopy(directory, 0, doubled, directory.length, directory.length);
+			directory = doubled;
+			globalDepth++;
+		}
+
+		var newBucketNr = nrOfBuckets++;
+		var newBucket = ByteBuffer.allocate(pageSize);
+		var count = bucket.getInt(4);
+		var kept = 0;
+		var moved = 0;
+		for (int i = 0; i < count; i++) {
+			var fingerprint = bucket.getLong(entry(i));
+			var location = bucket.getLong(entry(i) + 8);
+			if (((fingerprint >>> localDepth) & 1) == 0) {
+				bucket.putLong(entry(kept), fingerprint);
+				bucket.putLong(entry(kept++) + 8, location);
+			} else {
+				newBucket.putLong(entry(moved), fingerprint);
+				newBucket.putLong(entry(moved++) + 8, location);
+			}
+		}
+		bucket.putInt(0, localDepth + 1).putInt(4, kept);
+		newBucket.putInt(0, localDepth + 1).putInt(4, moved);
+
+		for (int i = 0; i < directory.length; i++) {
+			if (directory[i] == bucketNr && ((i >>> localDepth) & 1) == 1) {
+				directory[i] = newBucketNr;
+			}
+		}
+		writeBucket(newBucketNr, newBucket);
+		writeBucket(bucketNr, bucket);
+		if (newBucketNr == versions.length) {
+			versions = Arrays.copyOf(versions, 2 * versions.length);
+		}
+		versions[newBucketNr] = lastVersion.incrementAndGet();
+		versions[bucketNr] = lastVersion.incrementAndGet();
+	}
+
+	private boolean load() throws IOException {
+		if (channel.size() < pageSize) {
+			return false;
+		}
+		var header = ByteBuffer.allocate(pageSize);
+		read(header, 0);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != pageSize || header.get(24) != 1) {
+			return false;
+		}
+		globalDepth = header.getInt(8);
+		nrOfBuckets = header.getInt(12);
+		size.set(header.getLong(16));
+
+		var buffer = ByteBuffer.allocate((1 << globalDepth) * Integer.BYTES);
+		read(buffer, bucketPosition(nrOfBuckets));
+		directory = new int[1 << globalDepth];
+		buffer.asIntBuffer().get(directory);
+		versions = new long[Math.max(1, nrOfBuckets)];
+		valid = true;
+		return true;
+	}
+
+	private void reset() throws IOException {
+		channel.truncate(0);
+		globalDepth = 0;
+		directory = new int[] { 0 };
+		// snapshots read before are not current any more
+		versions = new long[] { lastVersion.incrementAndGet() };
+		nrOfBuckets = 1;
+		size.set(0);
+		valid = false;
+		writeBucket(0, ByteBuffer.allocate(pageSize));
+	}
+
+	private void writeHeader(boolean clean) throws IOException {
+		var header = ByteBuffer.allocate(pageSize);
+		header.putInt(0, MAGIC)
+			.putInt(4, pageSize)
+			.putInt(8, globalDepth)
+			.putInt(12, nrOfBuckets)
+			.putLong(16, size.get())
+			.put(24, (byte) (clean ? 1 : 0));
+		write(header, 0);
+	}
+
+	private ByteBuffer readBucket(int bucketNr) throws IOException {
+		var bucket = ByteBuffer.allocate(pageSize);
+		read(bucket, bucketPosition(bucketNr));
+		return bucket;
+	}
+
+	private void writeBucket(int bucketNr, ByteBuffer bucket) throws IOException {
+		write(bucket.clear(), bucketPosition(bucketNr));
+	}
+
+	private long bucketPosition(int bucketNr) {
+		return (long) (bucketNr + 1) * pageSize;
+	}
+
+	private static int entry(int index) {
+		return BUCKET_HEADER_SIZE + index * ENTRY_SIZE;
+	}
+
+	private void read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("unexpected end of index file");
+			}
+		}
+		buffer.clear();
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/*
+	 * Changes bucket in place, and returns result of operation, or FULL when
+	 * nothing was changed.
+	 */
+	@FunctionalInterface
+	private interface BucketUpdate {
+
+		long apply(ByteBuffer bucket);
+
+	}
+
+}
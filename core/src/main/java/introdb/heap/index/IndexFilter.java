@@ -0,0 +1,161 @@
+package introdb.heap.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BloomFilter} of all keys of {@link HashIndex}, which answers most
+ * lookups of absent keys without reading an index bucket.
+ * <p>
+ * Removed keys stay in filter, so once they make a half of its keys, or
+ * filter holds more keys than it was sized for, it is rebuilt from index in
+ * background. Keys put while it is rebuilt are added to both filters, and new
+ * filter replaces the old one only when all index entries are in it.
+ */
+public class IndexFilter {
+
+	private static final long MIN_CAPACITY = 1024;
+
+	private final HashIndex index;
+	private final double falsePositiveRate;
+	private final long maxBytes;
+	private volatile BloomFilter current;
+	// filter being rebuilt, or null
+	private volatile BloomFilter next;
+	// keys added to current filter, and removed since it was built
+	private final AtomicLong keys = new AtomicLong();
+	private final AtomicLong removed = new AtomicLong();
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+	private volatile CompletableFuture<Void> rebuild = CompletableFuture.completedFuture(null);
+	// rebuild reads all index buckets, so it doesn't run in common pool
+	private final ThreadPoolExecutor rebuilder;
+	// guarded by this
+	private boolean closed;
+
+	private IndexFilter(Path path, HashIndex index, double falsePositiveRate, long maxBytes) {
+		this.index = index;
+		this.falsePositiveRate = falsePositiveRate;
+		this.maxBytes = maxBytes;
+		this.rebuilder = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			var thread = new Thread(r, "bloom-rebuild-" + path.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		rebuilder.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Loads filter saved at {@code path}, when index was loaded from a file
+	 * which was properly closed, otherwise builds filter from index.
+	 */
+	public static IndexFilter open(Path path, HashIndex index, double falsePositiveRate, long maxBytes) throws IOException {
+		var filter = new IndexFilter(path, index, falsePositiveRate, maxBytes);
+		var saved = BloomFilter.load(path);
+		if (saved != null && index.isValid()) {
+			filter.current = saved;
+			filter.keys.set(index.size());
+		} else {
+			var built = filter.create();
+			index.forEachFingerprint(built::add);
+			filter.current = built;
+			filter.keys.set(index.size());
+		}
+		return filter;
+	}
+
+	/**
+	 * @return false when key with given fingerprint is not in index for sure
+	 */
+	public boolean mightContain(long fingerprint) {
+		return current.mightContain(fingerprint);
+	}
+
+	/**
+	 * Adds fingerprint of a key which was put to index, and is already there.
+	 *
+	 * @param added
+	 *            true when key was not in index before
+	 */
+	public void put(long fingerprint, boolean added) {
+		// next has to be read first, it becomes current once it is built
+		var rebuilt = next;
+		current.add(fingerprint);
+		if (rebuilt != null) {
+			rebuilt.add(fingerprint);
+		}
+		if (added && keys.incrementAndGet() > current.capacity()) {
+			startRebuild();
+		}
+	}
+
+	public void remove() {
+		var removedKeys = removed.incrementAndGet();
+		if (removedKeys >= MIN_CAPACITY / 2 && removedKeys * 2 > keys.get()) {
+			startRebuild();
+		}
+	}
+
+	/**
+	 * Waits for rebuild in progress, no rebuild is started afterwards, so index
+	 * can be closed.
+	 */
+	public void close() {
+		CompletableFuture<Void> inProgress;
+		synchronized (this) {
+			closed = true;
+			inProgress = rebuild;
+		}
+		rebuilder.shutdown();
+		try {
+			inProgress.join();
+		} catch (CompletionException e) {
+			// old filter is still valid
+		}
+	}
+
+	/**
+	 * Saves filter, once index is not modified any more.
+	 */
+	public void save(Path path) throws IOException {
+		current.save(path);
+	}
+
+	private void startRebuild() {
+		if (!rebuilding.compareAndSet(false, true)) {
+			return;
+		}
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			rebuild = CompletableFuture.runAsync(() -> {
+				try {
+					var rebuilt = create();
+					next = rebuilt;
+					index.forEachFingerprint(rebuilt::add);
+					current = rebuilt;
+					keys.set(index.size());
+					removed.set(0);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					next = null;
+					rebuilding.set(false);
+				}
+			}, rebuilder);
+		}
+	}
+
+	private BloomFilter create() {
+		return BloomFilter.create(Math.max(MIN_CAPACITY, 2 * index.size()), falsePositiveRate, maxBytes);
+	}
+
+}
@@ -0,0 +1,15 @@
+package introdb.heap.lock;
+
+/**
+ * Thread waiting for a page lock was chosen as a victim of deadlock, locks it
+ * took are released, so it can retry.
+ */
+public class DeadlockException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeadlockException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,93 @@
+package introdb.heap.lock;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides where suppliers of page lock operations run, see
+ * {@link LockSupport#inReadOperation(java.util.function.Supplier)}. Leases are
+ * always taken by the caller.
+ */
+public final class LockExecution {
+
+	enum Mode {
+		CALLER_RUNS, HAND_OFF, SERIAL
+	}
+
+	private final Mode mode;
+	// null when lock manager creates its own bounded executor
+	private final Executor executor;
+	private final int threads;
+	private final int queueSize;
+
+	private LockExecution(Mode mode, Executor executor, int threads, int queueSize) {
+		this.mode = mode;
+		this.executor = executor;
+		this.threads = threads;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Caller waits for the lock and runs operation itself.
+	 */
+	public static LockExecution callerRuns() {
+		return new LockExecution(Mode.CALLER_RUNS, null, 0, 0);
+	}
+
+	/**
+	 * Caller runs operation when the lock is free, otherwise operation waits
+	 * for the lock in executor, and caller gets its future right away.
+	 */
+	public static LockExecution handOff(Executor executor) {
+		return new LockExecution(Mode.HAND_OFF, executor, 0, 0);
+	}
+
+	/**
+	 * As {@link #handOff(Executor)}, with executor of lock manager, which has
+	 * given number of threads and queue of operations. Caller runs operation
+	 * itself, once the queue is full.
+	 */
+	public static LockExecution boundedIO(int threads, int queueSize) {
+		if (threads < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("number of threads and queue size have to be positive");
+		}
+		return new LockExecution(Mode.HAND_OFF, null, threads, queueSize);
+	}
+
+	/**
+	 * Write operations of every page are queued, and run one after another in
+	 * executor, so writers never block on the lock. Read operations are run by
+	 * the caller.
+	 */
+	public static LockExecution serial(Executor executor) {
+		return new LockExecution(Mode.SERIAL, executor, 0, 0);
+	}
+
+	Mode mode() {
+		return mode;
+	}
+
+	Executor executor() {
+		return executor;
+	}
+
+	/**
+	 * Executor of a lock manager, which it has to shut down.
+	 */
+	ThreadPoolExecutor newExecutor() {
+		var counter = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.NANOSECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+			var thread = new Thread(r, "page-io-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	boolean ownsExecutor() {
+		return mode == Mode.HAND_OFF && executor == null;
+	}
+
+}
@@ -1,30 +1,466 @@
 package introdb.heap.lock;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 import introdb.heap.pool.ObjectFactory;
 import introdb.heap.pool.ObjectPool;
+import introdb.heap.pool.ObjectValidator;
 
+/**
+ * Hands out page locks. Lock for a page is the same, as long as anyone holds
+ * a reference to it, once it is garbage collected, its underlying lock goes
+ * back to the pool.
+ * <p>
+ * Alternatively locks are striped, pages share fixed table of locks, and
+ * getting a lock for a page doesn't allocate anything. Pages which share a
+ * stripe exclude each other, so a thread which holds a lease must not write
+ * any other page.
+ * <p>
+ * Several pages are locked at once by multi page locks, which take page locks
+ * in a global order, see {@link #lockForPages(int...)}.
+ */
 public class LockManager {
 
-	
-	private ObjectPool<ReentrantReadWriteLock> objectPool;
+	public enum LockType {
+		/**
+		 * Every read takes shared read lock.
+		 */
+		READ_WRITE,
+		/**
+		 * Optimistic reads run without taking any lock, and are validated
+		 * against writers afterwards, see
+		 * {@link LockSupport#inOptimisticReadOperation(Supplier)}. Locks are
+		 * not reentrant.
+		 */
+		STAMPED
+	}
+
+	private static final int MAX_POOLED_LOCKS = 1024;
+	// allocated after every stripe lock, so that locks of neighbouring stripes
+	// don't share cache lines
+	private static final int STRIPE_PADDING_LONGS = 16;
+	private static final Duration DEFAULT_LOCK_TIMEOUT = Duration.ofSeconds(10);
+
+	private final LockExecution execution;
+	// executor which lock manager shuts down, or null
+	private final ThreadPoolExecutor ownedExecutor;
+	// shared by pages, unless execution is serial
+	private final PageExecutor pageExecutor;
+	private final LockPool<?> lockPool;
+	// null when page locks are pooled
+	private final PageLock[] stripes;
+	private final long[][] stripePadding;
+	private final LockWaits lockWaits;
+	private final ConcurrentMap<Integer, PageLockReference> locks = new ConcurrentHashMap<>();
+	private final ReferenceQueue<PageLock> collected = new ReferenceQueue<>();
 
 	public LockManager() {
-		objectPool = new ObjectPool<>(ReentrantReadWriteLock::new,l -> l.getWriteHoldCount() == 0 && l.getReadHoldCount() == 0);
+		this(LockType.READ_WRITE);
+	}
+
+	public LockManager(LockType lockType) {
+		this(lockType, 0);
+	}
+
+	/**
+	 * @param stripes number of striped locks, rounded up to a power of two, or
+	 *                0 when page locks are pooled
+	 */
+	public LockManager(LockType lockType, int stripes) {
+		this(lockType, stripes, DEFAULT_LOCK_TIMEOUT);
+	}
+
+	/**
+	 * @param lockTimeout how long multi page locks wait for a page lock
+	 */
+	public LockManager(LockType lockType, int stripes, Duration lockTimeout) {
+		this(lockType, stripes, lockTimeout, LockExecution.callerRuns());
+	}
+
+	/**
+	 * @param execution where operations of page locks run
+	 */
+	public LockManager(LockType lockType, int stripes, Duration lockTimeout, LockExecution execution) {
+		if (stripes < 0) {
+			throw new IllegalArgumentException("number of stripes cannot be negative");
+		}
+		this.execution = execution;
+		this.ownedExecutor = execution.ownsExecutor() ? execution.newExecutor() : null;
+		this.pageExecutor = sharedPageExecutor(execution, ownedExecutor);
+		switch (lockType) {
+		case READ_WRITE:
+			lockPool = readWriteLocks(ReentrantReadWriteLock::new);
+			break;
+		case STAMPED:
+			lockPool = new LockPool<>(StampedLock::new, l -> !l.isWriteLocked() && !l.isReadLocked(),
+					(pageNr, lock) -> new StampedPageLockSupport(pageNr, lock, newPageExecutor()));
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported lock type " + lockType);
+		}
+		this.lockWaits = new LockWaits(lockTimeout.toNanos());
+		if (stripes > 0) {
+			var size = Integer.highestOneBit(stripes - 1) << 1;
+			this.stripes = new PageLock[Math.max(size, 1)];
+			this.stripePadding = new long[this.stripes.length][];
+			for (int i = 0; i < this.stripes.length; i++) {
+				this.stripes[i] = lockPool.newLock(i);
+				this.stripePadding[i] = new long[STRIPE_PADDING_LONGS];
+			}
+		} else {
+			this.stripes = null;
+			this.stripePadding = null;
+		}
 	}
 
 	// visible for testing only, so we can inject mocks
 	LockManager(ObjectFactory<ReentrantReadWriteLock> lockFactory) {
-		objectPool = new ObjectPool<>(lockFactory, l -> l.getWriteHoldCount() == 0 && l.getReadHoldCount() == 0);
+		execution = LockExecution.callerRuns();
+		ownedExecutor = null;
+		pageExecutor = PageExecutor.CALLER_RUNS;
+		lockPool = readWriteLocks(lockFactory);
+		lockWaits = new LockWaits(DEFAULT_LOCK_TIMEOUT.toNanos());
+		stripes = null;
+		stripePadding = null;
+	}
+
+	private LockPool<ReentrantReadWriteLock> readWriteLocks(ObjectFactory<ReentrantReadWriteLock> lockFactory) {
+		return new LockPool<>(lockFactory, l -> l.getWriteHoldCount() == 0 && l.getReadHoldCount() == 0,
+				(pageNr, lock) -> new PageLockSupport(pageNr, lock, newPageExecutor()));
+	}
+
+	private static PageExecutor sharedPageExecutor(LockExecution execution, ThreadPoolExecutor ownedExecutor) {
+		switch (execution.mode()) {
+		case CALLER_RUNS:
+			return PageExecutor.CALLER_RUNS;
+		case HAND_OFF:
+			return new PageExecutor.HandOff(ownedExecutor != null ? ownedExecutor : execution.executor());
+		default:
+			return null;
+		}
+	}
+
+	// serial execution queues writes of every page separately
+	private PageExecutor newPageExecutor() {
+		return pageExecutor != null ? pageExecutor : new PageExecutor.Serial(execution.executor());
 	}
 
 	public LockSupport lockForPage(int i) {
-		return null;
+		return pageLock(i);
+	}
+
+	/**
+	 * Lock of all given pages, it takes their locks in a global order, and
+	 * waits for each of them at most lock timeout. Pages have to stay pinned
+	 * while it is used, so that they keep their locks.
+	 * <p>
+	 * Operations fail with {@link LockTimeoutException} when a lock is not
+	 * acquired in time, and with {@link DeadlockException} when their thread
+	 * waits in a cycle, and was chosen as a victim. Either way locks taken so
+	 * far are released.
+	 */
+	public LockSupport lockForPages(int... pageNrs) {
+		var pageLocks = Collections.newSetFromMap(new IdentityHashMap<PageLock, Boolean>());
+		for (var pageNr : pageNrs) {
+			pageLocks.add(pageLock(pageNr));
+		}
+		return multiPageLock(pageLocks.toArray(new PageLock[0]));
+	}
+
+	/**
+	 * Lock of pages from fromPage inclusive to toPage exclusive, see
+	 * {@link #lockForPages(int...)}.
+	 */
+	public LockSupport lockForPageRange(int fromPage, int toPage) {
+		if (fromPage > toPage) {
+			throw new IllegalArgumentException("page range [" + fromPage + ", " + toPage + ") is empty");
+		}
+		var pageNrs = new int[toPage - fromPage];
+		Arrays.setAll(pageNrs, i -> fromPage + i);
+		return lockForPages(pageNrs);
+	}
+
+	public LockStats stats() {
+		return lockWaits.stats();
+	}
+
+	private LockSupport multiPageLock(PageLock[] pageLocks) {
+		Arrays.sort(pageLocks, Comparator.comparingInt(PageLock::order));
+		return new MultiPageLockSupport(pageLocks, lockWaits);
+	}
+
+	private PageLock pageLock(int i) {
+		if (stripes != null) {
+			// consecutive pages always get different stripes
+			return stripes[(i ^ (i >>> 16)) & (stripes.length - 1)];
+		}
+		expungeCollected();
+		while (true) {
+			var reference = locks.get(i);
+			var lockSupport = reference != null ? reference.get() : null;
+			if (lockSupport != null) {
+				return lockSupport;
+			}
+
+			var newReference = lockPool.newReference(i);
+			lockSupport = newReference.get();
+			var installed = reference == null
+					? locks.putIfAbsent(i, newReference) == null
+					: locks.replace(i, reference, newReference);
+			if (installed) {
+				return lockSupport;
+			}
+			// someone else installed lock for a page first
+			newReference.clear();
+			newReference.release();
+		}
 	}
 
 	public void shutdown() throws Exception{
-		
+		locks.clear();
+		lockPool.objectPool.shutdown();
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	private void expungeCollected() {
+		Reference<? extends PageLock> reference;
+		while ((reference = collected.poll()) != null) {
+			var pageLockReference = (PageLockReference) reference;
+			locks.remove(pageLockReference.pageNr, pageLockReference);
+			pageLockReference.release();
+		}
+	}
+
+	/*
+	 * Pool of underlying locks of one type, and page locks built on them.
+	 */
+	private class LockPool<L> {
+
+		private final ObjectPool<L> objectPool;
+		private final ObjectFactory<L> lockFactory;
+		private final BiFunction<Integer, L, PageLock> lockSupportFactory;
+
+		LockPool(ObjectFactory<L> lockFactory, ObjectValidator<L> validator, BiFunction<Integer, L, PageLock> lockSupportFactory) {
+			this.objectPool = new ObjectPool<>(lockFactory, validator, MAX_POOLED_LOCKS);
+			this.lockFactory = lockFactory;
+			this.lockSupportFactory = lockSupportFactory;
+		}
+
+		PageLockReference newReference(int pageNr) {
+			var lock = borrowLock();
+			var pooled = lock != null;
+			if (!pooled) {
+				lock = lockFactory.create();
+			}
+			var released = lock;
+			return new PageLockReference(pageNr, lockSupportFactory.apply(pageNr, lock), () -> {
+				if (pooled) {
+					objectPool.returnObject(released);
+				}
+			});
+		}
+
+		// lock which is never returned to the pool
+		PageLock newLock(int id) {
+			return lockSupportFactory.apply(id, lockFactory.create());
+		}
+
+		/*
+		 * Locks go back to the pool only when garbage collector clears page lock
+		 * references, so never wait for it when pool is exhausted.
+		 */
+		private L borrowLock() {
+			return objectPool.tryBorrow();
+		}
+
+	}
+
+	private class PageLockReference extends WeakReference<PageLock> {
+
+		private final int pageNr;
+		private final Runnable release;
+
+		PageLockReference(int pageNr, PageLock lockSupport, Runnable release) {
+			super(lockSupport, collected);
+			this.pageNr = pageNr;
+			this.release = release;
+		}
+
+		void release() {
+			release.run();
+		}
+
+	}
+
+	private static class PageLockSupport implements PageLock {
+
+		private final int pageNr;
+		private final ReentrantReadWriteLock lock;
+		private final PageExecutor executor;
+		// leases hold no state, so the same one is handed out every time
+		private final Lease readLease;
+		private final Lease writeLease;
+
+		PageLockSupport(int pageNr, ReentrantReadWriteLock lock, PageExecutor executor) {
+			this.pageNr = pageNr;
+			this.lock = lock;
+			this.executor = executor;
+			this.readLease = () -> lock.readLock().unlock();
+			this.writeLease = () -> lock.writeLock().unlock();
+		}
+
+		@Override
+		public <R> CompletableFuture<R> inReadOperation(Supplier<R> supplier) {
+			return executor.execute(this, lock.readLock(), false, supplier);
+		}
+
+		@Override
+		public <R> CompletableFuture<R> inWriteOperation(Supplier<R> supplier) {
+			return executor.execute(this, lock.writeLock(), true, supplier);
+		}
+
+		@Override
+		public Lease readLease() {
+			lock.readLock().lock();
+			return readLease;
+		}
+
+		@Override
+		public Lease writeLease() {
+			lock.writeLock().lock();
+			return writeLease;
+		}
+
+		@Override
+		public int order() {
+			return pageNr;
+		}
+
+		@Override
+		public Lock readView() {
+			return lock.readLock();
+		}
+
+		@Override
+		public Lock writeView() {
+			return lock.writeLock();
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder()
+					.append("PageLockSupport [pageNr=").append(pageNr)
+					.append(", id=").append(Integer.toHexString(System.identityHashCode(this)))
+					.append("]")
+					.toString();
+		}
+
+	}
+
+	private static class StampedPageLockSupport implements PageLock {
+
+		private final int pageNr;
+		private final StampedLock lock;
+		private final Lock readView;
+		private final Lock writeView;
+		private final PageExecutor executor;
+		private final Lease readLease;
+		private final Lease writeLease;
+
+		StampedPageLockSupport(int pageNr, StampedLock lock, PageExecutor executor) {
+			this.pageNr = pageNr;
+			this.lock = lock;
+			this.executor = executor;
+			this.readView = lock.asReadLock();
+			this.writeView = lock.asWriteLock();
+			this.readLease = readView::unlock;
+			this.writeLease = writeView::unlock;
+		}
+
+		@Override
+		public <R> CompletableFuture<R> inReadOperation(Supplier<R> supplier) {
+			return executor.execute(this, readView, false, supplier);
+		}
+
+		@Override
+		public <R> CompletableFuture<R> inOptimisticReadOperation(Supplier<R> supplier) {
+			var stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					var result = supplier.get();
+					if (lock.validate(stamp)) {
+						return CompletableFuture.completedFuture(result);
+					}
+				} catch (RuntimeException e) {
+					// failure of a supplier which saw inconsistent state doesn't count
+					if (lock.validate(stamp)) {
+						return CompletableFuture.failedFuture(e);
+					}
+				}
+			}
+			// writer got in, so run it again under read lock
+			return inReadOperation(supplier);
+		}
+
+		@Override
+		public <R> CompletableFuture<R> inWriteOperation(Supplier<R> supplier) {
+			return executor.execute(this, writeView, true, supplier);
+		}
+
+		@Override
+		public Lease readLease() {
+			readView.lock();
+			return readLease;
+		}
+
+		@Override
+		public Lease writeLease() {
+			writeView.lock();
+			return writeLease;
+		}
+
+		@Override
+		public int order() {
+			return pageNr;
+		}
+
+		@Override
+		public Lock readView() {
+			return readView;
+		}
+
+		@Override
+		public Lock writeView() {
+			return writeView;
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder()
+					.append("StampedPageLockSupport [pageNr=").append(pageNr)
+					.append(", id=").append(Integer.toHexString(System.identityHashCode(this)))
+					.append("]")
+					.toString();
+		}
+
 	}
 
 }
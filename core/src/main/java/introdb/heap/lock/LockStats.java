@@ -0,0 +1,70 @@
+package introdb.heap.lock;
+
+/**
+ * Snapshot of {@link LockManager} counters of multi page locks.
+ */
+public class LockStats {
+
+	private final long acquisitions;
+	private final long waits;
+	private final long waitNanos;
+	private final long timeouts;
+	private final long deadlocks;
+
+	LockStats(long acquisitions, long waits, long waitNanos, long timeouts, long deadlocks) {
+		this.acquisitions = acquisitions;
+		this.waits = waits;
+		this.waitNanos = waitNanos;
+		this.timeouts = timeouts;
+		this.deadlocks = deadlocks;
+	}
+
+	/**
+	 * Page locks taken by multi page locks.
+	 */
+	public long acquisitions() {
+		return acquisitions;
+	}
+
+	/**
+	 * Page locks which were not free right away.
+	 */
+	public long waits() {
+		return waits;
+	}
+
+	/**
+	 * Total time spent waiting for page locks.
+	 */
+	public long waitNanos() {
+		return waitNanos;
+	}
+
+	public long timeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * Waits aborted, as their thread was chosen a victim of deadlock.
+	 */
+	public long deadlocks() {
+		return deadlocks;
+	}
+
+	public double averageWaitNanos() {
+		return waits == 0 ? 0.0 : (double) waitNanos / waits;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("LockStats [acquisitions=").append(acquisitions)
+				.append(", waits=").append(waits)
+				.append(", waitNanos=").append(waitNanos)
+				.append(", timeouts=").append(timeouts)
+				.append(", deadlocks=").append(deadlocks)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -8,7 +8,37 @@ public interface LockSupport {
 	<R> CompletableFuture<R> inReadOperation(Supplier<R> supplier);
 	
 	<R> CompletableFuture<R> inWriteOperation(Supplier<R> supplier);
+
+	/**
+	 * Read operation, which may run without taking the lock, concurrently with
+	 * a writer, its result is used only when no writer got in, otherwise it is
+	 * run again in {@link #inReadOperation(Supplier)}. Supplier must have no
+	 * side effects, and must terminate whatever state it sees, so it can't
+	 * trust sizes and offsets it reads. By default it always runs under read
+	 * lock.
+	 */
+	default <R> CompletableFuture<R> inOptimisticReadOperation(Supplier<R> supplier) {
+		return inReadOperation(supplier);
+	}
+
+	/**
+	 * Holds read lock until returned lease is closed, by the same thread.
+	 */
+	Lease readLease();
+
+	/**
+	 * Holds write lock until returned lease is closed, by the same thread.
+	 */
+	Lease writeLease();
 	
 	String toString();
-	
+
+	@FunctionalInterface
+	interface Lease extends AutoCloseable {
+
+		@Override
+		void close();
+
+	}
+
 }
@@ -0,0 +1,14 @@
+package introdb.heap.lock;
+
+/**
+ * Page lock was not acquired in time.
+ */
+public class LockTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public LockTimeoutException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,121 @@
+package introdb.heap.lock;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Takes page locks of multi page locks, and keeps track of who holds and who
+ * waits for them. Waits are bounded by timeout, and waiting thread checks
+ * every now and then, whether it is a part of wait-for cycle. Thread with
+ * highest id in a cycle is the victim, which gives up.
+ * <p>
+ * Only page locks taken by multi page locks are tracked, so deadlocks which
+ * involve single page locks end with a timeout.
+ */
+class LockWaits {
+
+	private static final long DETECTION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final long timeoutNanos;
+	private final ConcurrentMap<Thread, List<PageLock>> held = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Thread, PageLock> waiting = new ConcurrentHashMap<>();
+
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder deadlocks = new LongAdder();
+
+	LockWaits(long timeoutNanos) {
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * @throws LockTimeoutException when lock is not acquired in time, or thread
+	 *                              is interrupted
+	 * @throws DeadlockException    when thread is a victim of deadlock
+	 */
+	void lock(PageLock pageLock, boolean write) {
+		var lock = write ? pageLock.writeView() : pageLock.readView();
+		if (!lock.tryLock()) {
+			await(pageLock, lock);
+		}
+		acquisitions.increment();
+		held.computeIfAbsent(Thread.currentThread(), thread -> new CopyOnWriteArrayList<>()).add(pageLock);
+	}
+
+	void unlock(PageLock pageLock, boolean write) {
+		var thread = Thread.currentThread();
+		var locks = held.get(thread);
+		locks.remove(pageLock);
+		if (locks.isEmpty()) {
+			held.remove(thread);
+		}
+		(write ? pageLock.writeView() : pageLock.readView()).unlock();
+	}
+
+	LockStats stats() {
+		return new LockStats(acquisitions.sum(), waits.sum(), waitNanos.sum(), timeouts.sum(), deadlocks.sum());
+	}
+
+	private void await(PageLock pageLock, Lock lock) {
+		var thread = Thread.currentThread();
+		var start = System.nanoTime();
+		waits.increment();
+		waiting.put(thread, pageLock);
+		try {
+			while (true) {
+				var remaining = timeoutNanos - (System.nanoTime() - start);
+				if (remaining <= 0) {
+					timeouts.increment();
+					throw new LockTimeoutException("timed out waiting for " + pageLock);
+				}
+				if (lock.tryLock(Math.min(remaining, DETECTION_INTERVAL_NANOS), TimeUnit.NANOSECONDS)) {
+					return;
+				}
+				if (isVictim(thread, thread, thread.getId(), new HashSet<>())) {
+					deadlocks.increment();
+					throw new DeadlockException("deadlock while waiting for " + pageLock + " in " + thread.getName());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LockTimeoutException("interrupted while waiting for " + pageLock);
+		} finally {
+			waiting.remove(thread);
+			waitNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Follows wait-for edges from a thread, to holders of a lock it waits
+	 * for, looking for a cycle back to victim candidate.
+	 */
+	private boolean isVictim(Thread candidate, Thread thread, long maxId, Set<Thread> visited) {
+		var lock = waiting.get(thread);
+		if (lock == null || !visited.add(thread)) {
+			return false;
+		}
+		for (var entry : held.entrySet()) {
+			if (!entry.getValue().contains(lock)) {
+				continue;
+			}
+			var holder = entry.getKey();
+			if (holder == candidate) {
+				return maxId == candidate.getId();
+			}
+			if (isVictim(candidate, holder, Math.max(maxId, holder.getId()), visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,93 @@
+package introdb.heap.lock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Lock of several pages, which takes their locks in a global order, so multi
+ * page locks never deadlock with each other, unless a thread holds one while
+ * taking another.
+ */
+class MultiPageLockSupport implements LockSupport {
+
+	// sorted by order, without duplicates
+	private final PageLock[] locks;
+	private final LockWaits lockWaits;
+
+	MultiPageLockSupport(PageLock[] locks, LockWaits lockWaits) {
+		this.locks = locks;
+		this.lockWaits = lockWaits;
+	}
+
+	@Override
+	public <R> CompletableFuture<R> inReadOperation(Supplier<R> supplier) {
+		return inOperation(supplier, false);
+	}
+
+	@Override
+	public <R> CompletableFuture<R> inWriteOperation(Supplier<R> supplier) {
+		return inOperation(supplier, true);
+	}
+
+	/**
+	 * @throws LockTimeoutException when locks are not acquired in time
+	 * @throws DeadlockException    when thread is a victim of deadlock
+	 */
+	@Override
+	public Lease readLease() {
+		lock(false);
+		return () -> unlock(locks.length, false);
+	}
+
+	/**
+	 * @see #readLease()
+	 */
+	@Override
+	public Lease writeLease() {
+		lock(true);
+		return () -> unlock(locks.length, true);
+	}
+
+	@Override
+	public String toString() {
+		var builder = new StringBuilder("MultiPageLockSupport [locks=");
+		for (int i = 0; i < locks.length; i++) {
+			builder.append(i == 0 ? "" : ", ").append(locks[i]);
+		}
+		return builder.append("]").toString();
+	}
+
+	private <R> CompletableFuture<R> inOperation(Supplier<R> supplier, boolean write) {
+		try {
+			lock(write);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		try {
+			return CompletableFuture.completedFuture(supplier.get());
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		} finally {
+			unlock(locks.length, write);
+		}
+	}
+
+	private void lock(boolean write) {
+		for (int i = 0; i < locks.length; i++) {
+			try {
+				lockWaits.lock(locks[i], write);
+			} catch (RuntimeException e) {
+				unlock(i, write);
+				throw e;
+			}
+		}
+	}
+
+	// releases first count locks, in reverse order
+	private void unlock(int count, boolean write) {
+		for (int i = count - 1; i >= 0; i--) {
+			lockWaits.unlock(locks[i], write);
+		}
+	}
+
+}
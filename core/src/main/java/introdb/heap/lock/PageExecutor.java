@@ -0,0 +1,145 @@
+package introdb.heap.lock;
+
+import java.lang.ref.Reference;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Runs operations of a page under its lock, as set by {@link LockExecution}.
+ * Operations which are not run by the caller keep their page lock reachable,
+ * so that page doesn't get another lock in a meantime.
+ */
+abstract class PageExecutor {
+
+	static final PageExecutor CALLER_RUNS = new CallerRuns();
+
+	abstract <R> CompletableFuture<R> execute(PageLock page, Lock lock, boolean write, Supplier<R> supplier);
+
+	// called with lock held
+	static <R> CompletableFuture<R> runLocked(Lock lock, Supplier<R> supplier) {
+		try {
+			return CompletableFuture.completedFuture(supplier.get());
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class CallerRuns extends PageExecutor {
+
+		@Override
+		<R> CompletableFuture<R> execute(PageLock page, Lock lock, boolean write, Supplier<R> supplier) {
+			lock.lock();
+			return runLocked(lock, supplier);
+		}
+
+	}
+
+	static class HandOff extends PageExecutor {
+
+		private final Executor executor;
+
+		HandOff(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		<R> CompletableFuture<R> execute(PageLock page, Lock lock, boolean write, Supplier<R> supplier) {
+			if (lock.tryLock()) {
+				return runLocked(lock, supplier);
+			}
+			return CompletableFuture.supplyAsync(() -> {
+				lock.lock();
+				try {
+					return supplier.get();
+				} finally {
+					lock.unlock();
+					Reference.reachabilityFence(page);
+				}
+			}, executor);
+		}
+
+	}
+
+	/*
+	 * Queue of write operations of one page, which are drained by a single
+	 * task in executor at a time. When executor rejects the task, caller which
+	 * would have scheduled it fails queued writes instead, so that the next
+	 * write schedules a drain again.
+	 */
+	static class Serial extends PageExecutor {
+
+		private final Executor executor;
+		private final Queue<Write<?>> writes = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger pending = new AtomicInteger();
+
+		Serial(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		<R> CompletableFuture<R> execute(PageLock page, Lock lock, boolean write, Supplier<R> supplier) {
+			if (!write) {
+				return CALLER_RUNS.execute(page, lock, write, supplier);
+			}
+			var queued = new Write<R>(page, lock, supplier);
+			writes.add(queued);
+			if (pending.getAndIncrement() == 0) {
+				try {
+					executor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					fail(e);
+				}
+			}
+			return queued.future;
+		}
+
+		private void drain() {
+			do {
+				writes.poll().run();
+			} while (pending.decrementAndGet() > 0);
+		}
+
+		private void fail(Throwable e) {
+			do {
+				writes.poll().future.completeExceptionally(e);
+			} while (pending.decrementAndGet() > 0);
+		}
+
+	}
+
+	private static class Write<R> {
+
+		private final PageLock page;
+		private final Lock lock;
+		private final Supplier<R> supplier;
+		private final CompletableFuture<R> future = new CompletableFuture<>();
+
+		Write(PageLock page, Lock lock, Supplier<R> supplier) {
+			this.page = page;
+			this.lock = lock;
+			this.supplier = supplier;
+		}
+
+		void run() {
+			lock.lock();
+			try {
+				future.complete(supplier.get());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				lock.unlock();
+				Reference.reachabilityFence(page);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,19 @@
+package introdb.heap.lock;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Page lock, which can also be taken as a part of multi page lock.
+ */
+interface PageLock extends LockSupport {
+
+	/**
+	 * Multi page locks take their page locks in this order.
+	 */
+	int order();
+
+	Lock readView();
+
+	Lock writeView();
+
+}
@@ -0,0 +1,383 @@
+package introdb.heap.page;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import introdb.heap.lock.LockManager;
+
+/**
+ * Fixed number of page size frames, caching pages of {@link PageFile}. Pinned
+ * frames are never evicted, dirty frames are written back to page file when
+ * evicted or flushed.
+ * <p>
+ * Frame holds lock of its page from {@link LockManager} for as long as page
+ * stays in the pool, page content can be accessed only through it. Pages are
+ * read from file, and dirty victims written back, outside of pool lock, so
+ * misses don't block hits of other pages.
+ */
+public class BufferPool implements PageCache {
+
+	// prefetches are blocking reads, so they don't run in common pool
+	private static final int PREFETCH_THREADS = 4;
+
+	private final PageFile pageFile;
+	private final LockManager lockManager;
+	private final EvictionPolicy policy;
+	private final Frame[] frames;
+	private final ThreadPoolExecutor prefetcher;
+
+	// guarded by this
+	private final Map<Integer, Frame> pageTable = new HashMap<>();
+	private final Deque<Frame> freeFrames = new ArrayDeque<>();
+	private int waiting;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long writeBacks;
+
+	public BufferPool(PageFile pageFile, int nrOfFrames, IntFunction<EvictionPolicy> policyFactory, LockManager lockManager) {
+		if (nrOfFrames < 1) {
+			throw new IllegalArgumentException("buffer pool needs at least one frame");
+		}
+		this.pageFile = pageFile;
+		this.lockManager = lockManager;
+		this.policy = policyFactory.apply(nrOfFrames);
+		this.frames = new Frame[nrOfFrames];
+		for (int i = 0; i < nrOfFrames; i++) {
+			frames[i] = new Frame(i, ByteBuffer.allocateDirect(pageFile.pageSize()));
+			freeFrames.add(frames[i]);
+		}
+		this.prefetcher = newPrefetcher();
+	}
+
+	@Override
+	public int pageSize() {
+		return pageFile.pageSize();
+	}
+
+	@Override
+	public int nrOfPages() throws IOException {
+		return pageFile.nrOfPages();
+	}
+
+	@Override
+	public Frame pin(int pageNr) throws IOException {
+		while (true) {
+			Frame frame;
+			CompletableFuture<Void> loaded;
+			boolean load = false;
+			boolean evict = false;
+			boolean awaitEviction = false;
+			synchronized (this) {
+				frame = pageTable.get(pageNr);
+				if (frame != null && frame.writing != null) {
+					// page is read again, once it is written back
+					loaded = frame.writing;
+					awaitEviction = true;
+				} else if (frame != null) {
+					frame.pinCount++;
+					hits++;
+					policy.accessed(frame.index());
+					loaded = frame.loaded;
+				} else {
+					frame = freeFrames.pollFirst();
+					if (frame == null) {
+						frame = victim();
+					}
+					if (frame == null) {
+						awaitUnpin();
+						continue;
+					}
+					if (frame.dirty) {
+						frame.writing = new CompletableFuture<>();
+						evict = true;
+					} else {
+						if (frame.pageNr() >= 0) {
+							detach(frame);
+						}
+						assign(frame, pageNr);
+						load = true;
+					}
+					loaded = frame.loaded;
+				}
+			}
+
+			if (evict) {
+				// frame is free once written, and next round takes it
+				writeBackVictim(frame);
+			} else if (load) {
+				try {
+					pageFile.read(pageNr, frame.buffer().duplicate().clear());
+				} catch (IOException | RuntimeException e) {
+					discard(frame);
+					loaded.completeExceptionally(e);
+					throw e;
+				}
+				loaded.complete(null);
+				return frame;
+			} else if (awaitEviction) {
+				loaded.handle((result, e) -> null).join();
+			} else {
+				try {
+					loaded.join();
+				} catch (CompletionException e) {
+					throw new IOException("failed to load page " + pageNr, e.getCause());
+				}
+				return frame;
+			}
+		}
+	}
+
+	/**
+	 * Loads page in background, when it is not in the pool yet and there is a
+	 * free or clean frame for it, so it doesn't have to be read when it is
+	 * pinned. Dirty frames are not written back for a prefetch.
+	 */
+	@Override
+	public void prefetch(int pageNr) throws IOException {
+		Frame frame;
+		synchronized (this) {
+			if (pageTable.containsKey(pageNr)) {
+				return;
+			}
+			frame = freeFrames.pollFirst();
+			if (frame == null) {
+				frame = victim();
+				if (frame == null || frame.dirty) {
+					return;
+				}
+				detach(frame);
+			}
+			// pinned until it is loaded
+			assign(frame, pageNr);
+		}
+
+		var loading = frame;
+		try {
+			prefetcher.execute(() -> {
+				try {
+					pageFile.read(pageNr, loading.buffer().duplicate().clear());
+				} catch (IOException | RuntimeException e) {
+					discard(loading);
+					loading.loaded.completeExceptionally(e);
+					return;
+				}
+				loading.loaded.complete(null);
+				unpin(loading, false);
+			});
+		} catch (RejectedExecutionException e) {
+			// pool is closed
+			discard(loading);
+			loading.loaded.completeExceptionally(e);
+		}
+	}
+
+	@Override
+	public synchronized void unpin(Frame frame, boolean dirty) {
+		if (frame.pinCount == 0) {
+			throw new IllegalStateException(frame + " is not pinned");
+		}
+		frame.dirty |= dirty;
+		frame.pinCount--;
+		if (frame.pinCount == 0 && waiting > 0) {
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		var dirtyFrames = new ArrayList<Frame>();
+		var evicted = new ArrayList<CompletableFuture<Void>>();
+		synchronized (this) {
+			for (var frame : pageTable.values()) {
+				if (frame.writing != null) {
+					evicted.add(frame.writing);
+				} else if (frame.dirty && frame.loaded.isDone()) {
+					// keep it pinned, so it is not evicted while it is written
+					frame.pinCount++;
+					frame.dirty = false;
+					dirtyFrames.add(frame);
+				}
+			}
+		}
+
+		IOException failure = null;
+		for (var frame : dirtyFrames) {
+			var written = false;
+			try {
+				writeBack(frame);
+				written = true;
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				synchronized (this) {
+					frame.dirty |= !written;
+					unpin(frame, false);
+				}
+			}
+		}
+		for (var writing : evicted) {
+			try {
+				writing.join();
+			} catch (CompletionException e) {
+				failure = new IOException("failed to write back evicted page", e.getCause());
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		pageFile.force();
+	}
+
+	@Override
+	public synchronized BufferPoolStats stats() {
+		return new BufferPoolStats(hits, misses, evictions, writeBacks);
+	}
+
+	@Override
+	public void close() throws IOException {
+		prefetcher.shutdown();
+		try {
+			prefetcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for prefetches");
+		}
+		try {
+			flush();
+		} finally {
+			pageFile.close();
+		}
+	}
+
+	// called under pool lock, frame is pinned once and has to be loaded by caller
+	private void assign(Frame frame, int pageNr) {
+		frame.assign(pageNr, lockManager.lockForPage(pageNr));
+		frame.pinCount = 1;
+		frame.dirty = false;
+		frame.loaded = new CompletableFuture<>();
+		pageTable.put(pageNr, frame);
+		misses++;
+		policy.loaded(frame.index());
+	}
+
+	// called under pool lock, frame is neither pinned nor written back
+	private Frame victim() {
+		var victim = policy.victim(i -> frames[i].pinCount == 0 && frames[i].writing == null);
+		return victim < 0 ? null : frames[victim];
+	}
+
+	// called under pool lock, with clean frame which is not pinned
+	private void detach(Frame frame) {
+		pageTable.remove(frame.pageNr());
+		frame.assign(-1, null);
+		evictions++;
+	}
+
+	/*
+	 * Victim is written outside of pool lock, nobody can pin it in a meantime,
+	 * so its content doesn't change. It is detached and freed once written, or
+	 * stays dirty in the pool when write fails.
+	 */
+	private void writeBackVictim(Frame frame) throws IOException {
+		Throwable failure = null;
+		try {
+			pageFile.write(frame.pageNr(), frame.buffer());
+		} catch (IOException | RuntimeException e) {
+			failure = e;
+		}
+		CompletableFuture<Void> writing;
+		synchronized (this) {
+			writing = frame.writing;
+			frame.writing = null;
+			if (failure == null) {
+				writeBacks++;
+				frame.dirty = false;
+				detach(frame);
+				freeFrames.add(frame);
+			}
+			if (waiting > 0) {
+				notifyAll();
+			}
+		}
+		if (failure != null) {
+			writing.completeExceptionally(failure);
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw (RuntimeException) failure;
+		}
+		writing.complete(null);
+	}
+
+	private void writeBack(Frame frame) throws IOException {
+		try {
+			frame.lock().inReadOperation(() -> {
+				try {
+					pageFile.write(frame.pageNr(), frame.buffer());
+					return null;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+		synchronized (this) {
+			writeBacks++;
+		}
+	}
+
+	private synchronized void discard(Frame frame) {
+		pageTable.remove(frame.pageNr());
+		frame.assign(-1, null);
+		frame.pinCount = 0;
+		freeFrames.add(frame);
+		if (waiting > 0) {
+			notifyAll();
+		}
+	}
+
+	private static ThreadPoolExecutor newPrefetcher() {
+		var counter = new AtomicInteger();
+		var executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			var thread = new Thread(r, "page-prefetch-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	// called under pool lock
+	private void awaitUnpin() throws InterruptedIOException {
+		waiting++;
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for free frame");
+		} finally {
+			waiting--;
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package introdb.heap.page;
+
+/**
+ * Snapshot of {@link PageCache} counters.
+ */
+public class BufferPoolStats {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long writeBacks;
+
+	BufferPoolStats(long hits, long misses, long evictions, long writeBacks) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.writeBacks = writeBacks;
+	}
+
+	/**
+	 * Pins of pages which were already in memory.
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * Pins which had to read page from file.
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	public long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Dirty pages written to file.
+	 */
+	public long writeBacks() {
+		return writeBacks;
+	}
+
+	public double hitRatio() {
+		var pins = hits + misses;
+		return pins == 0 ? 0.0 : (double) hits / pins;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("BufferPoolStats [hits=").append(hits)
+				.append(", misses=").append(misses)
+				.append(", evictions=").append(evictions)
+				.append(", writeBacks=").append(writeBacks)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -0,0 +1,91 @@
+package introdb.heap.page;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes pages with positional {@link FileChannel} I/O, every read
+ * copies page into a new buffer.
+ */
+public class ChannelPageFile implements PageFile {
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final FlushTracker flushTracker;
+
+	public ChannelPageFile(Path path, int pageSize, FlushPolicy flushPolicy) throws IOException {
+		this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+		this.pageSize = pageSize;
+		this.flushTracker = new FlushTracker(flushPolicy);
+	}
+
+	@Override
+	public int pageSize() {
+		return pageSize;
+	}
+
+	@Override
+	public int nrOfPages() throws IOException {
+		return (int) ((channel.size() + pageSize - 1) / pageSize);
+	}
+
+	@Override
+	public ByteBuffer read(int pageNr) throws IOException {
+		var buffer = ByteBuffer.allocate(pageSize);
+		read(pageNr, buffer);
+		return buffer.clear();
+	}
+
+	@Override
+	public void read(int pageNr, ByteBuffer dst) throws IOException {
+		var buffer = dst.duplicate();
+		buffer.limit(buffer.position() + pageSize);
+		var position = position(pageNr) - buffer.position();
+		while (buffer.hasRemaining()) {
+			var read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				// reading past end of file, rest of page is zeroed
+				while (buffer.hasRemaining()) {
+					buffer.put((byte) 0);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void write(int pageNr, ByteBuffer page) throws IOException {
+		var buffer = page.duplicate().clear();
+		var position = position(pageNr);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+		if (flushTracker.written()) {
+			force();
+		}
+	}
+
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+		flushTracker.forced();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel.isOpen()) {
+			force();
+			channel.close();
+		}
+	}
+
+	private long position(int pageNr) {
+		return (long) pageNr * pageSize;
+	}
+
+}
@@ -0,0 +1,46 @@
+package introdb.heap.page;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Second chance eviction, clock hand sweeps over frames and evicts first one
+ * which was not referenced since last sweep.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+	private final boolean[] referenced;
+	private int hand;
+
+	public ClockPolicy(int nrOfFrames) {
+		this.referenced = new boolean[nrOfFrames];
+	}
+
+	@Override
+	public void loaded(int frame) {
+		referenced[frame] = true;
+	}
+
+	@Override
+	public void accessed(int frame) {
+		referenced[frame] = true;
+	}
+
+	@Override
+	public int victim(IntPredicate evictable) {
+		// two sweeps, first one can only clear reference bits
+		for (int i = 0; i < 2 * referenced.length; i++) {
+			var frame = hand;
+			hand = (hand + 1) % referenced.length;
+			if (!evictable.test(frame)) {
+				continue;
+			}
+			if (referenced[frame]) {
+				referenced[frame] = false;
+			} else {
+				return frame;
+			}
+		}
+		return -1;
+	}
+
+}
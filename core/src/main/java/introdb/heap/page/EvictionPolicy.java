@@ -0,0 +1,27 @@
+package introdb.heap.page;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Chooses frames of {@link BufferPool} to evict. Frames are identified by
+ * index, policy is always called under buffer pool lock.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Frame was assigned new page.
+	 */
+	void loaded(int frame);
+
+	/**
+	 * Page in a frame was pinned again.
+	 */
+	void accessed(int frame);
+
+	/**
+	 * @return index of frame to evict, or -1 when none of evictable frames can
+	 *         be chosen
+	 */
+	int victim(IntPredicate evictable);
+
+}
@@ -0,0 +1,68 @@
+package introdb.heap.page;
+
+import java.time.Duration;
+
+/**
+ * Decides when pages written to {@link PageFile} are forced to storage device.
+ * Pages are always forced when file is closed.
+ */
+public final class FlushPolicy {
+
+	private final int writes;
+	private final long nanos;
+
+	private FlushPolicy(int writes, long nanos) {
+		this.writes = writes;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Leaves flushing to operating system, until file is closed.
+	 */
+	public static FlushPolicy onClose() {
+		return new FlushPolicy(0, 0);
+	}
+
+	public static FlushPolicy everyWrite() {
+		return everyWrites(1);
+	}
+
+	public static FlushPolicy everyWrites(int writes) {
+		if (writes < 1) {
+			throw new IllegalArgumentException("number of writes has to be positive");
+		}
+		return new FlushPolicy(writes, 0);
+	}
+
+	/**
+	 * Forces pages on first write after interval since last force has passed.
+	 */
+	public static FlushPolicy every(Duration interval) {
+		if (interval.isNegative() || interval.isZero()) {
+			throw new IllegalArgumentException("interval has to be positive");
+		}
+		return new FlushPolicy(0, interval.toNanos());
+	}
+
+	boolean shouldForce(int writesSinceForce, long nanosSinceForce) {
+		if (writes > 0) {
+			return writesSinceForce >= writes;
+		}
+		if (nanos > 0) {
+			return nanosSinceForce >= nanos;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		if (writes > 0) {
+			return "FlushPolicy [writes=" + writes + "]";
+		}
+		if (nanos > 0) {
+			return "FlushPolicy [interval=" + Duration.ofNanos(nanos) + "]";
+		}
+		return "FlushPolicy [onClose]";
+	}
+
+}
@@ -0,0 +1,28 @@
+package introdb.heap.page;
+
+/**
+ * Counts writes and time since pages were last forced, and asks
+ * {@link FlushPolicy} when they should be forced again.
+ */
+class FlushTracker {
+
+	private final FlushPolicy policy;
+
+	private int writes;
+	private long lastForce = System.nanoTime();
+
+	FlushTracker(FlushPolicy policy) {
+		this.policy = policy;
+	}
+
+	synchronized boolean written() {
+		writes++;
+		return policy.shouldForce(writes, System.nanoTime() - lastForce);
+	}
+
+	synchronized void forced() {
+		writes = 0;
+		lastForce = System.nanoTime();
+	}
+
+}
@@ -0,0 +1,62 @@
+package introdb.heap.page;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import introdb.heap.lock.LockSupport;
+
+/**
+ * Page pinned in memory. Its content can be accessed only within page lock
+ * operations, and only until frame is unpinned.
+ */
+public class Frame {
+
+	private final int index;
+	private final ByteBuffer buffer;
+
+	private int pageNr = -1;
+	private LockSupport lock;
+
+	// guarded by buffer pool
+	int pinCount;
+	boolean dirty;
+	CompletableFuture<Void> loaded;
+	// not null while evicted page is written back
+	CompletableFuture<Void> writing;
+
+	Frame(int index, ByteBuffer buffer) {
+		this.index = index;
+		this.buffer = buffer;
+	}
+
+	public int pageNr() {
+		return pageNr;
+	}
+
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	public LockSupport lock() {
+		return lock;
+	}
+
+	int index() {
+		return index;
+	}
+
+	void assign(int pageNr, LockSupport lock) {
+		this.pageNr = pageNr;
+		this.lock = lock;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("Frame [index=").append(index)
+				.append(", pageNr=").append(pageNr)
+				.append("]")
+				.toString();
+	}
+
+}
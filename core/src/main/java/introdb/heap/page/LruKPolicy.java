@@ -0,0 +1,63 @@
+package introdb.heap.page;
+
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K eviction, evicts frame whose K-th most recent access is the oldest.
+ * Frames accessed less than K times are evicted first, least recently used
+ * one among them. Unlike plain LRU, single scan over many pages doesn't flush
+ * frequently used pages out of the pool.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+	private final int k;
+	// last k accesses of every frame, most recent first
+	private final long[][] history;
+	private final int[] accesses;
+	private long clock;
+
+	public LruKPolicy(int nrOfFrames, int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k has to be positive");
+		}
+		this.k = k;
+		this.history = new long[nrOfFrames][k];
+		this.accesses = new int[nrOfFrames];
+	}
+
+	@Override
+	public void loaded(int frame) {
+		accesses[frame] = 0;
+		accessed(frame);
+	}
+
+	@Override
+	public void accessed(int frame) {
+		var frameHistory = history[frame];
+		System.arraycopy(frameHistory, 0, frameHistory, 1, k - 1);
+		frameHistory[0] = ++clock;
+		accesses[frame] = Math.min(k, accesses[frame] + 1);
+	}
+
+	@Override
+	public int victim(IntPredicate evictable) {
+		var victim = -1;
+		var victimFull = true;
+		var victimTime = Long.MAX_VALUE;
+		for (int frame = 0; frame < history.length; frame++) {
+			if (!evictable.test(frame)) {
+				continue;
+			}
+			var full = accesses[frame] == k;
+			// infinite backward k-distance wins, then oldest k-th (or last) access
+			var time = full ? history[frame][k - 1] : history[frame][0];
+			if ((victimFull && !full) || (victimFull == full && time < victimTime)) {
+				victim = frame;
+				victimFull = full;
+				victimTime = time;
+			}
+		}
+		return victim;
+	}
+
+}
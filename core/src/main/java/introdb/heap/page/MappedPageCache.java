@@ -0,0 +1,64 @@
+package introdb.heap.page;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import introdb.heap.lock.LockManager;
+
+/**
+ * Pins pages as views of {@link MappedPageFile}, so caching is left to
+ * operating system. Every pin is reported as a miss, as nothing is cached on
+ * top of mapped memory.
+ */
+public class MappedPageCache implements PageCache {
+
+	private final MappedPageFile pageFile;
+	private final LockManager lockManager;
+	private final LongAdder pins = new LongAdder();
+
+	public MappedPageCache(MappedPageFile pageFile, LockManager lockManager) {
+		this.pageFile = pageFile;
+		this.lockManager = lockManager;
+	}
+
+	@Override
+	public int pageSize() {
+		return pageFile.pageSize();
+	}
+
+	@Override
+	public int nrOfPages() throws IOException {
+		return pageFile.nrOfPages();
+	}
+
+	@Override
+	public Frame pin(int pageNr) throws IOException {
+		var frame = new Frame(-1, pageFile.read(pageNr));
+		frame.assign(pageNr, lockManager.lockForPage(pageNr));
+		pins.increment();
+		return frame;
+	}
+
+	@Override
+	public void unpin(Frame frame, boolean dirty) throws IOException {
+		if (dirty) {
+			pageFile.written(frame.pageNr());
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		pageFile.force();
+	}
+
+	@Override
+	public BufferPoolStats stats() {
+		return new BufferPoolStats(0, pins.sum(), 0, 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		pageFile.close();
+	}
+
+}
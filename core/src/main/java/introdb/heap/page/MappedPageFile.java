@@ -0,0 +1,189 @@
+package introdb.heap.page;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps file into memory in segments of fixed size, segments are mapped on
+ * first access to any of its pages. Pages returned by {@link #read(int)} are
+ * views of mapped memory, so reads neither make system calls nor copy page
+ * content.
+ * <p>
+ * Mapping grows file to the end of segment, so pages are counted up to the
+ * last written one, and file is truncated to them on close. Segments stay
+ * mapped after close, until they are garbage collected.
+ */
+public class MappedPageFile implements PageFile {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int maxNrPages;
+	private final int pagesPerSegment;
+	private final AtomicReferenceArray<MappedByteBuffer> segments;
+	private final BitSet dirtySegments = new BitSet();
+	private final FlushTracker flushTracker;
+	private final AtomicInteger nrOfPages;
+
+	public MappedPageFile(Path path, int maxNrPages, int pageSize, FlushPolicy flushPolicy) throws IOException {
+		this(path, maxNrPages, pageSize, DEFAULT_SEGMENT_SIZE, flushPolicy);
+	}
+
+	public MappedPageFile(Path path, int maxNrPages, int pageSize, int segmentSize, FlushPolicy flushPolicy) throws IOException {
+		if (segmentSize < pageSize || segmentSize % pageSize != 0) {
+			throw new IllegalArgumentException("segment size has to be a multiple of page size");
+		}
+		this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+		this.pageSize = pageSize;
+		this.maxNrPages = maxNrPages;
+		this.pagesPerSegment = segmentSize / pageSize;
+		this.segments = new AtomicReferenceArray<>((maxNrPages + pagesPerSegment - 1) / pagesPerSegment);
+		this.flushTracker = new FlushTracker(flushPolicy);
+		this.nrOfPages = new AtomicInteger(writtenPages());
+	}
+
+	@Override
+	public int pageSize() {
+		return pageSize;
+	}
+
+	@Override
+	public int nrOfPages() throws IOException {
+		return nrOfPages.get();
+	}
+
+	@Override
+	public ByteBuffer read(int pageNr) throws IOException {
+		var offset = (pageNr % pagesPerSegment) * pageSize;
+		return segment(pageNr / pagesPerSegment)
+				.duplicate()
+				.limit(offset + pageSize)
+				.position(offset)
+				.slice();
+	}
+
+	@Override
+	public void read(int pageNr, ByteBuffer dst) throws IOException {
+		dst.duplicate().put(read(pageNr));
+	}
+
+	@Override
+	public void write(int pageNr, ByteBuffer page) throws IOException {
+		read(pageNr).put(page.duplicate().clear());
+		written(pageNr);
+	}
+
+	/**
+	 * Page was modified through a view returned by {@link #read(int)}, so it
+	 * has to be forced according to flush policy.
+	 */
+	public void written(int pageNr) throws IOException {
+		var segmentNr = pageNr / pagesPerSegment;
+		nrOfPages.accumulateAndGet(pageNr + 1, Math::max);
+		synchronized (dirtySegments) {
+			dirtySegments.set(segmentNr);
+		}
+		if (flushTracker.written()) {
+			force();
+		}
+	}
+
+	@Override
+	public void force() throws IOException {
+		synchronized (dirtySegments) {
+			for (int i = dirtySegments.nextSetBit(0); i >= 0; i = dirtySegments.nextSetBit(i + 1)) {
+				segments.get(i).force();
+			}
+			dirtySegments.clear();
+		}
+		flushTracker.forced();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel.isOpen()) {
+			try {
+				force();
+				var size = (long) nrOfPages.get() * pageSize;
+				if (channel.size() > size) {
+					channel.truncate(size);
+				}
+			} finally {
+				channel.close();
+				for (int i = 0; i < segments.length(); i++) {
+					segments.set(i, null);
+				}
+			}
+		}
+	}
+
+	/*
+	 * File which was not closed properly still spans whole mapped segments,
+	 * pages past the last written one are zeroed, and are not counted.
+	 */
+	private int writtenPages() throws IOException {
+		var nrOfPages = (int) Math.min(maxNrPages, (channel.size() + pageSize - 1) / pageSize);
+		// only zeroed pages are read before the last written one is found
+		var page = ByteBuffer.allocate(pageSize);
+		for (; nrOfPages > 0; nrOfPages--) {
+			var position = (long) (nrOfPages - 1) * pageSize;
+			page.clear();
+			while (page.hasRemaining()) {
+				if (channel.read(page, position + page.position()) < 0) {
+					// rest of page past end of file is zeroed
+					break;
+				}
+			}
+			if (!isZeroed(page)) {
+				break;
+			}
+		}
+		return nrOfPages;
+	}
+
+	private static boolean isZeroed(ByteBuffer page) {
+		int i = 0;
+		for (; i + Long.BYTES <= page.capacity(); i += Long.BYTES) {
+			if (page.getLong(i) != 0) {
+				return false;
+			}
+		}
+		for (; i < page.capacity(); i++) {
+			if (page.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private MappedByteBuffer segment(int segmentNr) throws IOException {
+		if (segmentNr >= segments.length()) {
+			throw new IllegalArgumentException("page is out of file bounds");
+		}
+		var segment = segments.get(segmentNr);
+		if (segment == null) {
+			synchronized (segments) {
+				segment = segments.get(segmentNr);
+				if (segment == null) {
+					var nrOfPages = Math.min(pagesPerSegment, maxNrPages - segmentNr * pagesPerSegment);
+					segment = channel.map(MapMode.READ_WRITE, (long) segmentNr * pagesPerSegment * pageSize, (long) nrOfPages * pageSize);
+					segments.set(segmentNr, segment);
+				}
+			}
+		}
+		return segment;
+	}
+
+}
@@ -0,0 +1,38 @@
+package introdb.heap.page;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Gives access to pages of {@link PageFile}. Every pinned page has to be
+ * unpinned, pages are flushed to file when cache is closed.
+ */
+public interface PageCache extends Closeable {
+
+	int pageSize();
+
+	int nrOfPages() throws IOException;
+
+	Frame pin(int pageNr) throws IOException;
+
+	/**
+	 * @param dirty
+	 *            true when page was modified while pinned
+	 */
+	void unpin(Frame frame, boolean dirty) throws IOException;
+
+	/**
+	 * Hints that page is going to be pinned soon, so cache can start reading
+	 * it without waiting for it. Does nothing by default.
+	 */
+	default void prefetch(int pageNr) throws IOException {
+	}
+
+	/**
+	 * Writes all dirty pages to page file, and forces it to storage device.
+	 */
+	void flush() throws IOException;
+
+	BufferPoolStats stats();
+
+}
@@ -0,0 +1,39 @@
+package introdb.heap.page;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * File of fixed size pages.
+ */
+public interface PageFile extends Closeable {
+
+	int pageSize();
+
+	/**
+	 * Number of pages which were ever written to a file.
+	 */
+	int nrOfPages() throws IOException;
+
+	/**
+	 * Returns page content, pages which were never written are zeroed. Returned
+	 * buffer can be a view of underlying storage, either way changes made to it
+	 * have to be passed to {@link #write(int, ByteBuffer)}.
+	 */
+	ByteBuffer read(int pageNr) throws IOException;
+
+	/**
+	 * Copies page content into destination buffer, which has to have at least
+	 * page size bytes remaining.
+	 */
+	void read(int pageNr, ByteBuffer dst) throws IOException;
+
+	void write(int pageNr, ByteBuffer page) throws IOException;
+
+	/**
+	 * Forces all written pages to storage device.
+	 */
+	void force() throws IOException;
+
+}
@@ -0,0 +1,120 @@
+package introdb.heap.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, with buckets growing exponentially,
+ * each power of two split in linear sub-buckets, as in HDR histogram, so
+ * every value is recorded with relative precision of 1/8. Counts are striped,
+ * so threads which record concurrently don't contend.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		var value = Math.max(0, nanos);
+		counts[bucket(value)].increment();
+		total.add(value);
+	}
+
+	public long count() {
+		var count = 0L;
+		for (var bucket : counts) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	public double mean() {
+		var count = count();
+		return count == 0 ? 0.0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * Highest value, which is equivalent to recorded value at given percentile,
+	 * 0 when nothing was recorded.
+	 */
+	public long valueAtPercentile(double percentile) {
+		var snapshot = new long[BUCKETS];
+		var count = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		var rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+		var seen = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return highestEquivalent(i);
+			}
+		}
+		return highestEquivalent(BUCKETS - 1);
+	}
+
+	public long max() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (counts[i].sum() > 0) {
+				return highestEquivalent(i);
+			}
+		}
+		return 0;
+	}
+
+	public void reset() {
+		for (var bucket : counts) {
+			bucket.reset();
+		}
+		total.reset();
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		var exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowestEquivalent(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		var exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	static long highestEquivalent(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestEquivalent(bucket + 1) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("LatencyHistogram [count=").append(count())
+				.append(", mean=").append(TimeUnit.NANOSECONDS.toMicros((long) mean())).append("us")
+				.append(", p50=").append(TimeUnit.NANOSECONDS.toMicros(valueAtPercentile(50))).append("us")
+				.append(", p99=").append(TimeUnit.NANOSECONDS.toMicros(valueAtPercentile(99))).append("us")
+				.append(", max=").append(TimeUnit.NANOSECONDS.toMicros(max())).append("us")
+				.append("]")
+				.toString();
+	}
+
+}
@@ -0,0 +1,104 @@
+package introdb.heap.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and consumers, on a ring of
+ * slots, each with a sequence number which tells whether it is ready to be
+ * written or read in current lap (as in Dmitry Vyukov's bounded MPMC queue).
+ */
+class MpmcRing<T> {
+
+	private final int mask;
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+	private final PaddedCounter head = new PaddedCounter();
+	private final PaddedCounter tail = new PaddedCounter();
+
+	/**
+	 * @param capacity rounded up to a power of two
+	 */
+	MpmcRing(int capacity) {
+		var size = Math.max(2, Integer.highestOneBit(Math.max(1, capacity) - 1) << 1);
+		this.mask = size - 1;
+		this.items = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false when ring is full
+	 */
+	boolean offer(T item) {
+		var position = tail.get();
+		while (true) {
+			var index = (int) (position & mask);
+			var lag = sequences.get(index) - position;
+			if (lag == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					items.lazySet(index, item);
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (lag < 0) {
+				if (position - head.get() > mask) {
+					return false;
+				}
+				// consumer of previous lap took item, but has not released slot yet
+				Thread.onSpinWait();
+				position = tail.get();
+			} else {
+				// slot was already taken by another producer
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return null when ring is empty
+	 */
+	T poll() {
+		var position = head.get();
+		while (true) {
+			var index = (int) (position & mask);
+			var lag = sequences.get(index) - (position + 1);
+			if (lag == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					var item = items.get(index);
+					items.lazySet(index, null);
+					sequences.set(index, position + mask + 1);
+					return item;
+				}
+				position = head.get();
+			} else if (lag < 0) {
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Number of items, exact only when nobody offers or polls.
+	 */
+	int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/*
+	 * Keeps head and tail, hammered by consumers and producers, on different
+	 * cache lines.
+	 */
+	@SuppressWarnings({ "serial", "unused" })
+	private static class PaddedCounter extends AtomicLong {
+
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+	}
+
+}
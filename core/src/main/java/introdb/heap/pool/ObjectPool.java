@@ -1,46 +1,528 @@
 package introdb.heap.pool;
 
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Pool of objects, idle objects are kept on a lock-free ring, and every thread
+ * has a small magazine of objects it returned in front of it, so it usually
+ * borrows them back without touching shared state. Once pool is exhausted,
+ * borrowers take objects cached in magazines of other threads, and only then
+ * wait.
+ * <p>
+ * Pool size adapts to load, as set by {@link PoolSizing}, and pool keeps
+ * histograms of how long borrowers wait for objects and how long they hold
+ * them.
+ */
 public class ObjectPool<T> {
 
+	private static final int MAGAZINE_SIZE = 4;
+	private static final long MIN_MAINTENANCE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
 	private final ObjectFactory<T> fcty;
 	private final ObjectValidator<T> validator;
-	private final int maxPoolSize;
+	private final PoolSizing sizing;
+
+	private final MpmcRing<T> idle;
+	private final ObjectRegistry<T> registry;
+	private final Queue<CompletableFuture<T>> waiters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger poolSize = new AtomicInteger();
+	// objects pool may create at the moment, between minimum and maximum size
+	private final AtomicInteger limit;
+	private final LatencyHistogram borrowWaitTimes = new LatencyHistogram();
+	private final LatencyHistogram holdTimes = new LatencyHistogram();
+	private final ScheduledFuture<?> maintenance;
+	private final List<Magazine<T>> magazines = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<Magazine<T>> magazine = ThreadLocal.withInitial(this::newMagazine);
 
 	public ObjectPool(ObjectFactory<T> fcty, ObjectValidator<T> validator) {
 		this(fcty,validator,25);
 	}
-	
+
 	public ObjectPool(ObjectFactory<T> fcty, ObjectValidator<T> validator, int maxPoolSize) {
+		this(fcty, validator, PoolSizing.fixed(maxPoolSize));
+	}
+
+	public ObjectPool(ObjectFactory<T> fcty, ObjectValidator<T> validator, PoolSizing sizing) {
 		this.fcty = fcty;
 		this.validator = validator;
-		this.maxPoolSize = maxPoolSize;
+		this.sizing = sizing;
+		// objects in magazines are counted in pool size, so they always fit
+		this.idle = new MpmcRing<>(sizing.maxPoolSize());
+		this.registry = new ObjectRegistry<>(sizing.maxPoolSize());
+		this.limit = new AtomicInteger(Math.max(1, sizing.minPoolSize()));
+		if (sizing.idleTimeoutNanos() > 0) {
+			var interval = Math.max(MIN_MAINTENANCE_INTERVAL_NANOS, sizing.idleTimeoutNanos() / 2);
+			maintenance = Maintenance.EXECUTOR.scheduleWithFixedDelay(new Maintenance(this), interval, interval, TimeUnit.NANOSECONDS);
+		} else {
+			maintenance = null;
+		}
 	}
-	
+
 	/**
 	 * When there is object in pool returns completed future,
 	 * if not, future will be completed when object is
 	 * returned to the pool.
-	 * 
+	 *
 	 * @return
 	 */
 	public CompletableFuture<T> borrowObject() {
-		return new CompletableFuture<T>();
-	}	
-	
+		var object = tryBorrow();
+		if (object != null) {
+			return CompletableFuture.completedFuture(object);
+		}
+		return await();
+	}
+
+	/**
+	 * Borrows object, only when it is available right away, neither allocates
+	 * nor waits.
+	 *
+	 * @return borrowed object, or null when pool is exhausted
+	 */
+	public T tryBorrow() {
+		var object = borrowNow();
+		if (object != null) {
+			borrowWaitTimes.record(0);
+		}
+		return object;
+	}
+
+	/**
+	 * Borrows object, waiting for it at most timeout, waits only when pool is
+	 * exhausted.
+	 *
+	 * @throws TimeoutException when no object was returned in time
+	 */
+	public T borrow(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		var object = tryBorrow();
+		if (object != null) {
+			return object;
+		}
+		var waiter = await();
+		try {
+			return waiter.get(timeout, unit);
+		} catch (TimeoutException | InterruptedException e) {
+			if (!waiter.cancel(false)) {
+				// completed in a meantime
+				object = waiter.join();
+				if (e instanceof TimeoutException) {
+					return object;
+				}
+				returnObject(object);
+			}
+			throw e;
+		} catch (ExecutionException e) {
+			// waiters are only completed with objects
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Borrows object as with {@link #borrow(long, TimeUnit)}, which goes back
+	 * to the pool once lease is closed.
+	 */
+	public Lease<T> lease(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		return new Lease<>(this, borrow(timeout, unit));
+	}
+
+	private CompletableFuture<T> await() {
+		var start = System.nanoTime();
+		var waiter = new CompletableFuture<T>();
+		waiter.thenRun(() -> borrowWaitTimes.record(System.nanoTime() - start));
+		waiters.add(waiter);
+		if (sizing.isAdaptive()) {
+			CompletableFuture.delayedExecutor(sizing.waitTargetNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+				if (!waiter.isDone()) {
+					grow();
+				}
+			});
+		}
+		// object could have been returned before waiter was visible
+		dispatch();
+		return waiter;
+	}
+
 	public void returnObject(T object) {
+		var slot = registry.slot(object);
+		if (slot >= 0) {
+			var now = System.nanoTime();
+			holdTimes.record(now - registry.stamp(slot));
+			// from now on it is idle
+			registry.stamp(slot, now);
+		}
+		if (!validator.validate(object)) {
+			destroy(slot);
+			// replace invalid object, so waiter doesn't wait forever
+			dispatch();
+			return;
+		}
+		var own = magazine.get();
+		if (own.put(object)) {
+			// either waiter sees object in magazine, or we see the waiter
+			VarHandle.fullFence();
+			if (waiters.isEmpty()) {
+				return;
+			}
+			object = own.take();
+			if (object == null) {
+				// taken by a waiter already
+				return;
+			}
+		}
+		idle.offer(object);
+		dispatch();
 	}
 
 	public void shutdown() throws InterruptedException {
+		if (maintenance != null) {
+			maintenance.cancel(false);
+		}
+		CompletableFuture<T> waiter;
+		while ((waiter = waiters.poll()) != null) {
+			waiter.cancel(false);
+		}
+		T object;
+		while ((object = idle.poll()) != null || (object = steal()) != null) {
+			destroy(registry.slot(object));
+		}
 	}
 
 	public int getPoolSize() {
-		return 0;
+		return poolSize.get();
 	}
 
+	/**
+	 * Objects borrowed and not returned yet, exact only when nobody borrows or
+	 * returns.
+	 */
 	public int getInUse() {
-		return 0;
+		var cached = 0;
+		for (var cache : magazines) {
+			cached += cache.size();
+		}
+		return poolSize.get() - idle.size() - cached;
+	}
+
+	/**
+	 * Number of objects pool may hold at the moment, it grows up to maximum
+	 * pool size when borrowers wait too long, and shrinks as idle objects are
+	 * evicted.
+	 */
+	public int getTargetPoolSize() {
+		return limit.get();
+	}
+
+	/**
+	 * Time from borrow to object being available, 0 for objects which were
+	 * available right away.
+	 */
+	public LatencyHistogram getBorrowWaitTimes() {
+		return borrowWaitTimes;
+	}
+
+	/**
+	 * Time from borrow to return of objects.
+	 */
+	public LatencyHistogram getHoldTimes() {
+		return holdTimes;
+	}
+
+	/*
+	 * Evicts objects idle for longer than idle timeout, down to minimum pool
+	 * size, and idle objects which are not valid anymore. Only the owner puts
+	 * objects to its magazine, so valid objects taken out of magazines for
+	 * validation go to idle ring.
+	 */
+	void evictIdle() {
+		var now = System.nanoTime();
+		var evicted = 0;
+		for (int i = idle.size(); i > 0; i--) {
+			var object = idle.poll();
+			if (object == null) {
+				break;
+			}
+			if (evict(object, now)) {
+				evicted++;
+			} else {
+				idle.offer(object);
+			}
+		}
+		for (var cache : magazines) {
+			for (int i = 0; i < MAGAZINE_SIZE; i++) {
+				var object = cache.peek(i);
+				if (object == null || !cache.remove(i, object)) {
+					continue;
+				}
+				if (evict(object, now)) {
+					evicted++;
+				} else {
+					idle.offer(object);
+				}
+			}
+		}
+		if (evicted > 0) {
+			limit.updateAndGet(current -> Math.max(Math.max(1, sizing.minPoolSize()), Math.min(current, poolSize.get())));
+		}
+		// objects were out of the ring for a while
+		dispatch();
+	}
+
+	// destroys idle object, when it expired or is not valid
+	private boolean evict(T object, long now) {
+		var slot = registry.slot(object);
+		var expired = slot >= 0 && now - registry.stamp(slot) >= sizing.idleTimeoutNanos();
+		if ((expired && poolSize.get() > sizing.minPoolSize()) || !validator.validate(object)) {
+			destroy(slot);
+			return true;
+		}
+		return false;
+	}
+
+	private T borrowNow() {
+		var object = magazine.get().take();
+		if (object == null) {
+			object = idle.poll();
+		}
+		if (object == null && reserve()) {
+			object = create();
+		}
+		if (object == null) {
+			object = steal();
+		}
+		if (object != null) {
+			stamp(object);
+		}
+		return object;
+	}
+
+	// records when object was borrowed, or became idle
+	private void stamp(T object) {
+		var slot = registry.slot(object);
+		if (slot >= 0) {
+			registry.stamp(slot, System.nanoTime());
+		}
+	}
+
+	/*
+	 * Hands idle objects to waiters, creating new ones while pool can grow.
+	 * Both borrowers and returners call it once they are visible to each
+	 * other, so none of the objects is left idle while someone waits.
+	 */
+	private void dispatch() {
+		while (!waiters.isEmpty()) {
+			var object = idle.poll();
+			if (object == null) {
+				object = steal();
+			}
+			if (object == null) {
+				if (!reserve()) {
+					return;
+				}
+				object = create();
+			}
+			var waiter = waiters.poll();
+			stamp(object);
+			// waiter could have been cancelled in a meantime
+			if (waiter == null || !waiter.complete(object)) {
+				stamp(object);
+				idle.offer(object);
+			}
+		}
+	}
+
+	/*
+	 * Borrower waited longer than wait target, so pool can create another
+	 * object for it.
+	 */
+	private void grow() {
+		limit.updateAndGet(current -> Math.min(sizing.maxPoolSize(), current + 1));
+		dispatch();
+	}
+
+	private boolean reserve() {
+		while (true) {
+			var size = poolSize.get();
+			if (size >= limit.get()) {
+				return false;
+			}
+			if (poolSize.compareAndSet(size, size + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private T steal() {
+		for (var cache : magazines) {
+			var object = cache.take();
+			if (object != null) {
+				return object;
+			}
+			if (cache.isAbandoned()) {
+				magazines.remove(cache);
+			}
+		}
+		return null;
+	}
+
+	private T create() {
+		T object;
+		try {
+			object = fcty.create();
+		} catch (RuntimeException e) {
+			poolSize.decrementAndGet();
+			throw e;
+		}
+		registry.add(object, System.nanoTime());
+		return object;
+	}
+
+	private void destroy(int slot) {
+		if (slot >= 0) {
+			registry.remove(slot);
+		}
+		poolSize.decrementAndGet();
+	}
+
+	private Magazine<T> newMagazine() {
+		var cache = new Magazine<T>(Thread.currentThread());
+		magazines.add(cache);
+		return cache;
+	}
+
+	/**
+	 * Borrowed object, which goes back to its pool when lease is closed.
+	 */
+	public static final class Lease<T> implements AutoCloseable {
+
+		private final ObjectPool<T> pool;
+		private T object;
+
+		private Lease(ObjectPool<T> pool, T object) {
+			this.pool = pool;
+			this.object = object;
+		}
+
+		public T get() {
+			if (object == null) {
+				throw new IllegalStateException("lease is closed");
+			}
+			return object;
+		}
+
+		@Override
+		public void close() {
+			if (object != null) {
+				pool.returnObject(object);
+				object = null;
+			}
+		}
+
+	}
+
+	/*
+	 * Evicts idle objects of a pool, as long as pool is not garbage collected.
+	 */
+	private static class Maintenance implements Runnable {
+
+		static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "object-pool-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private final WeakReference<ObjectPool<?>> pool;
+
+		Maintenance(ObjectPool<?> pool) {
+			this.pool = new WeakReference<>(pool);
+		}
+
+		@Override
+		public void run() {
+			var objectPool = pool.get();
+			if (objectPool == null) {
+				// stops further runs
+				throw new IllegalStateException("pool was garbage collected");
+			}
+			objectPool.evictIdle();
+		}
+
+	}
+
+	/*
+	 * Objects cached by a thread, only the owner puts them, while anyone can
+	 * take them, so the owner fills slots with plain release writes, and
+	 * slots are emptied with atomic swap, which is uncontended unless pool is
+	 * exhausted.
+	 */
+	private static class Magazine<T> {
+
+		private final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(MAGAZINE_SIZE);
+		private final WeakReference<Thread> owner;
+
+		Magazine(Thread owner) {
+			this.owner = new WeakReference<>(owner);
+		}
+
+		boolean put(T object) {
+			for (int i = 0; i < MAGAZINE_SIZE; i++) {
+				if (slots.getPlain(i) == null) {
+					slots.setRelease(i, object);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		T take() {
+			for (int i = 0; i < MAGAZINE_SIZE; i++) {
+				if (slots.get(i) != null) {
+					var object = slots.getAndSet(i, null);
+					if (object != null) {
+						return object;
+					}
+				}
+			}
+			return null;
+		}
+
+		T peek(int slot) {
+			return slots.get(slot);
+		}
+
+		boolean remove(int slot, T object) {
+			return slots.compareAndSet(slot, object, null);
+		}
+
+		int size() {
+			var size = 0;
+			for (int i = 0; i < MAGAZINE_SIZE; i++) {
+				if (slots.get(i) != null) {
+					size++;
+				}
+			}
+			return size;
+		}
+
+		// owner is gone and nothing is left to take
+		boolean isAbandoned() {
+			var thread = owner.get();
+			return (thread == null || !thread.isAlive()) && size() == 0;
+		}
+
 	}
 
 }
@@ -0,0 +1,68 @@
+package introdb.heap.pool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Objects of a pool, by identity, each with a timestamp of when it was
+ * borrowed or became idle. It is an open addressing table, sized for maximum
+ * number of objects, so it never fills up, and lookups don't allocate.
+ */
+class ObjectRegistry<T> {
+
+	private static final Object REMOVED = new Object();
+
+	private final int mask;
+	private final AtomicReferenceArray<Object> objects;
+	private final AtomicLongArray stamps;
+
+	ObjectRegistry(int maxObjects) {
+		var size = Math.max(2, Integer.highestOneBit(Math.max(1, 2 * maxObjects) - 1) << 1);
+		this.mask = size - 1;
+		this.objects = new AtomicReferenceArray<>(size);
+		this.stamps = new AtomicLongArray(size);
+	}
+
+	void add(T object, long stamp) {
+		var index = System.identityHashCode(object) & mask;
+		while (true) {
+			var current = objects.get(index);
+			if ((current == null || current == REMOVED) && objects.compareAndSet(index, current, object)) {
+				stamps.set(index, stamp);
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return slot of an object, or -1 when it doesn't belong to the pool
+	 */
+	int slot(T object) {
+		var index = System.identityHashCode(object) & mask;
+		for (int i = 0; i <= mask; i++) {
+			var current = objects.get(index);
+			if (current == object) {
+				return index;
+			}
+			if (current == null) {
+				return -1;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	void remove(int slot) {
+		objects.set(slot, REMOVED);
+	}
+
+	long stamp(int slot) {
+		return stamps.get(slot);
+	}
+
+	void stamp(int slot, long stamp) {
+		stamps.lazySet(slot, stamp);
+	}
+
+}
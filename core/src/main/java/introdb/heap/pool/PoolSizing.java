@@ -0,0 +1,65 @@
+package introdb.heap.pool;
+
+import java.time.Duration;
+
+/**
+ * Decides how many objects {@link ObjectPool} keeps. Pool grows up to its
+ * maximum size, once borrowers wait for an object longer than wait target,
+ * and shrinks down to its minimum size, as objects stay idle longer than idle
+ * timeout.
+ */
+public final class PoolSizing {
+
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	private final long waitTargetNanos;
+	private final long idleTimeoutNanos;
+
+	private PoolSizing(int minPoolSize, int maxPoolSize, long waitTargetNanos, long idleTimeoutNanos) {
+		this.minPoolSize = minPoolSize;
+		this.maxPoolSize = maxPoolSize;
+		this.waitTargetNanos = waitTargetNanos;
+		this.idleTimeoutNanos = idleTimeoutNanos;
+	}
+
+	/**
+	 * Pool creates objects as needed up to its size, and keeps all of them.
+	 */
+	public static PoolSizing fixed(int poolSize) {
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("pool size has to be positive");
+		}
+		return new PoolSizing(poolSize, poolSize, 0, 0);
+	}
+
+	public static PoolSizing adaptive(int minPoolSize, int maxPoolSize, Duration waitTarget, Duration idleTimeout) {
+		if (minPoolSize < 0 || maxPoolSize < Math.max(1, minPoolSize)) {
+			throw new IllegalArgumentException("pool size has to be between 0 and positive maximum");
+		}
+		if (waitTarget.isNegative() || waitTarget.isZero() || idleTimeout.isNegative() || idleTimeout.isZero()) {
+			throw new IllegalArgumentException("wait target and idle timeout have to be positive");
+		}
+		return new PoolSizing(minPoolSize, maxPoolSize, waitTarget.toNanos(), idleTimeout.toNanos());
+	}
+
+	int minPoolSize() {
+		return minPoolSize;
+	}
+
+	int maxPoolSize() {
+		return maxPoolSize;
+	}
+
+	boolean isAdaptive() {
+		return minPoolSize < maxPoolSize || idleTimeoutNanos > 0;
+	}
+
+	long waitTargetNanos() {
+		return waitTargetNanos;
+	}
+
+	long idleTimeoutNanos() {
+		return idleTimeoutNanos;
+	}
+
+}
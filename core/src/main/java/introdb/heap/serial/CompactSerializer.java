@@ -0,0 +1,147 @@
+package introdb.heap.serial;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Serializes common types as a type tag followed by their raw bytes, and
+ * falls back to Java serialization for anything else. Java serialization
+ * stream starts with 0xAC magic byte, which is used as its tag, so values
+ * written by {@link JavaSerializer} can be read as well.
+ */
+public class CompactSerializer implements Serializer {
+
+	static final byte NULL = 0;
+	static final byte BYTES = 1;
+	static final byte STRING = 2;
+	static final byte INTEGER = 3;
+	static final byte LONG = 4;
+	static final byte SHORT = 5;
+	static final byte BYTE = 6;
+	static final byte BOOLEAN = 7;
+	static final byte CHARACTER = 8;
+	static final byte FLOAT = 9;
+	static final byte DOUBLE = 10;
+	static final byte UUID_TAG = 11;
+	static final byte JAVA = (byte) 0xac;
+
+	private final Serializer fallback = new JavaSerializer();
+
+	@Override
+	public byte[] serialize(Serializable object) throws IOException {
+		if (object == null) {
+			return new byte[] { NULL };
+		}
+		var type = object.getClass();
+		if (type == byte[].class) {
+			return tagged(BYTES, (byte[]) object);
+		}
+		if (type == String.class) {
+			return tagged(STRING, ((String) object).getBytes(UTF_8));
+		}
+		if (type == Integer.class) {
+			return tagged(INTEGER, Integer.BYTES).putInt((Integer) object).array();
+		}
+		if (type == Long.class) {
+			return tagged(LONG, Long.BYTES).putLong((Long) object).array();
+		}
+		if (type == Short.class) {
+			return tagged(SHORT, Short.BYTES).putShort((Short) object).array();
+		}
+		if (type == Byte.class) {
+			return new byte[] { BYTE, (Byte) object };
+		}
+		if (type == Boolean.class) {
+			return new byte[] { BOOLEAN, (byte) ((Boolean) object ? 1 : 0) };
+		}
+		if (type == Character.class) {
+			return tagged(CHARACTER, Character.BYTES).putChar((Character) object).array();
+		}
+		if (type == Float.class) {
+			return tagged(FLOAT, Float.BYTES).putFloat((Float) object).array();
+		}
+		if (type == Double.class) {
+			return tagged(DOUBLE, Double.BYTES).putDouble((Double) object).array();
+		}
+		if (type == UUID.class) {
+			var uuid = (UUID) object;
+			return tagged(UUID_TAG, 2 * Long.BYTES)
+					.putLong(uuid.getMostSignificantBits())
+					.putLong(uuid.getLeastSignificantBits())
+					.array();
+		}
+		return fallback.serialize(object);
+	}
+
+	@Override
+	public Object deserialize(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+		if (!bytes.hasRemaining()) {
+			throw new IOException("missing type tag");
+		}
+		var tag = bytes.get(bytes.position());
+		if (tag == JAVA) {
+			return fallback.deserialize(bytes);
+		}
+		var payload = bytes.duplicate();
+		payload.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case BYTES:
+			var array = new byte[payload.remaining()];
+			payload.get(array);
+			return array;
+		case STRING:
+			return UTF_8.decode(payload).toString();
+		case INTEGER:
+			return payload.getInt();
+		case LONG:
+			return payload.getLong();
+		case SHORT:
+			return payload.getShort();
+		case BYTE:
+			return payload.get();
+		case BOOLEAN:
+			return payload.get() != 0;
+		case CHARACTER:
+			return payload.getChar();
+		case FLOAT:
+			return payload.getFloat();
+		case DOUBLE:
+			return payload.getDouble();
+		case UUID_TAG:
+			return new UUID(payload.getLong(), payload.getLong());
+		default:
+			throw new IOException("unknown type tag " + tag);
+		}
+	}
+
+	@Override
+	public ByteBuffer byteArray(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+		if (bytes.hasRemaining() && bytes.get(bytes.position()) == BYTES) {
+			return bytes.position(bytes.position() + 1);
+		}
+		return Serializer.super.byteArray(bytes);
+	}
+
+	@Override
+	public byte[] byteArrayPrefix(long length) {
+		return new byte[] { BYTES };
+	}
+
+	private static byte[] tagged(byte tag, byte[] payload) {
+		var bytes = new byte[payload.length + 1];
+		bytes[0] = tag;
+		System.arraycopy(payload, 0, bytes, 1, payload.length);
+		return bytes;
+	}
+
+	private static ByteBuffer tagged(byte tag, int size) {
+		return ByteBuffer.allocate(size + 1).put(tag);
+	}
+
+}
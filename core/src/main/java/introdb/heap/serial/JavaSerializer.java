@@ -0,0 +1,45 @@
+package introdb.heap.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Plain Java serialization, works for any type, but every object carries its
+ * class descriptor.
+ */
+public class JavaSerializer implements Serializer {
+
+	@Override
+	public byte[] serialize(Serializable object) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var output = new ObjectOutputStream(bytes)) {
+			output.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Serialized array ends with its length and bytes.
+	 */
+	@Override
+	public byte[] byteArrayPrefix(long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("byte array of " + length + " bytes is too long");
+		}
+		var prefix = serialize(new byte[0]);
+		ByteBuffer.wrap(prefix).putInt(prefix.length - Integer.BYTES, (int) length);
+		return prefix;
+	}
+
+	@Override
+	public Object deserialize(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+		try (var input = new ObjectInputStream(new ByteBufferInputStream(bytes))) {
+			return input.readObject();
+		}
+	}
+
+}
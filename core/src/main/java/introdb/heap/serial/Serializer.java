@@ -0,0 +1,47 @@
+package introdb.heap.serial;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns keys and values into bytes stored in heap file pages. Equal keys have
+ * to be serialized into equal bytes, as keys are compared in serialized form.
+ */
+public interface Serializer {
+
+	byte[] serialize(Serializable object) throws IOException;
+
+	/**
+	 * Deserializes remaining bytes of a buffer.
+	 */
+	Object deserialize(ByteBuffer bytes) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Bytes of serialized byte array, serializers which store them as they are
+	 * return given buffer, positioned at the first byte of an array.
+	 *
+	 * @throws IOException
+	 *             when bytes are not a serialized byte array
+	 */
+	default ByteBuffer byteArray(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+		var object = deserialize(bytes);
+		if (!(object instanceof byte[])) {
+			throw new IOException("value is not a byte array");
+		}
+		return ByteBuffer.wrap((byte[]) object);
+	}
+
+	/**
+	 * Bytes which precede bytes of an array of given length in its serialized
+	 * form, so large arrays can be written without being materialized.
+	 *
+	 * @throws IOException
+	 *             when serializer doesn't store arrays as they are, or array is
+	 *             too long
+	 */
+	default byte[] byteArrayPrefix(long length) throws IOException {
+		throw new IOException(getClass().getSimpleName() + " doesn't support streamed byte arrays");
+	}
+
+}
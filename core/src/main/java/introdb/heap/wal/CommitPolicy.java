@@ -0,0 +1,73 @@
+package introdb.heap.wal;
+
+import java.time.Duration;
+
+/**
+ * Decides when operation appended to {@link WriteAheadLog} is forced to
+ * storage device, before it is acknowledged or later in background.
+ */
+public final class CommitPolicy {
+
+	enum Mode {
+		SYNC, GROUP, ASYNC
+	}
+
+	private final Mode mode;
+	private final long nanos;
+
+	private CommitPolicy(Mode mode, long nanos) {
+		this.mode = mode;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Forces log before every operation returns. Operations appended while log
+	 * is forced still share next force.
+	 */
+	public static CommitPolicy everyOperation() {
+		return new CommitPolicy(Mode.SYNC, 0);
+	}
+
+	/**
+	 * Forces log before every operation returns, but first waits up to window,
+	 * so concurrent operations are forced together.
+	 */
+	public static CommitPolicy group(Duration window) {
+		if (window.isNegative() || window.isZero()) {
+			throw new IllegalArgumentException("window has to be positive");
+		}
+		return new CommitPolicy(Mode.GROUP, window.toNanos());
+	}
+
+	/**
+	 * Returns without waiting, log is forced in background every interval, so
+	 * operations from last interval can be lost on crash.
+	 */
+	public static CommitPolicy async(Duration interval) {
+		if (interval.isNegative() || interval.isZero()) {
+			throw new IllegalArgumentException("interval has to be positive");
+		}
+		return new CommitPolicy(Mode.ASYNC, interval.toNanos());
+	}
+
+	Mode mode() {
+		return mode;
+	}
+
+	long nanos() {
+		return nanos;
+	}
+
+	@Override
+	public String toString() {
+		switch (mode) {
+		case GROUP:
+			return "CommitPolicy [window=" + Duration.ofNanos(nanos) + "]";
+		case ASYNC:
+			return "CommitPolicy [async, interval=" + Duration.ofNanos(nanos) + "]";
+		default:
+			return "CommitPolicy [everyOperation]";
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+package introdb.heap.wal;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential log of heap file operations. Operations are appended to shared
+ * buffer, and first thread which commits them becomes a leader, which writes
+ * and forces whole buffer at once, for itself and everyone who appended in a
+ * meantime.
+ * <p>
+ * Every record is prefixed with its length and checksum, so torn record at
+ * the end of log is recognized and skipped on replay.
+ */
+public class WriteAheadLog implements Closeable {
+
+	public static final byte PUT = 1;
+	public static final byte REMOVE = 2;
+	// part of a value which doesn't fit a page, logged before its put
+	public static final byte CHUNK = 3;
+	public static final byte PUT_OVERFLOW = 4;
+	// value is stored compressed
+	public static final byte PUT_COMPRESSED = 5;
+
+	private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+	private static final int BODY_HEADER_SIZE = 1 + Integer.BYTES;
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	// async commits wait for background flush only when this much is pending
+	private static final int MAX_PENDING_ASYNC = 4 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final CommitPolicy policy;
+	private final ScheduledExecutorService flusher;
+
+	// guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private long appended;
+	private long durable;
+	private long truncated;
+	private boolean flushing;
+	private IOException failure;
+
+	public WriteAheadLog(Path path, CommitPolicy policy) throws IOException {
+		this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+		this.policy = policy;
+		if (policy.mode() == CommitPolicy.Mode.ASYNC) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				var thread = new Thread(r, "wal-flusher-" + path.getFileName());
+				thread.setDaemon(true);
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(this::flushInBackground, policy.nanos(), policy.nanos(), TimeUnit.NANOSECONDS);
+		} else {
+			flusher = null;
+		}
+		channel.position(channel.size());
+	}
+
+	/**
+	 * Reads records from the beginning of log, up to first torn or corrupted
+	 * one.
+	 */
+	public void replay(RecordConsumer consumer) throws IOException {
+		var input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+		var crc = new CRC32();
+		long validLength = 0;
+		try {
+			while (true) {
+				var length = input.readInt();
+				var checksum = input.readInt();
+				if (length < BODY_HEADER_SIZE) {
+					break;
+				}
+				var body = new byte[length];
+				input.readFully(body);
+				crc.reset();
+				crc.update(body, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				var record = ByteBuffer.wrap(body);
+				var type = record.get();
+				var key = new byte[record.getInt()];
+				record.get(key);
+				var value = new byte[record.remaining()];
+				record.get(value);
+				consumer.accept(type, key, value);
+				validLength += RECORD_HEADER_SIZE + length;
+			}
+		} catch (EOFException e) {
+			// end of log, possibly torn last record
+		}
+		channel.position(validLength);
+	}
+
+	/**
+	 * Appends record to log buffer, it is not durable until it is committed.
+	 *
+	 * @return log sequence number of the record, to be passed to
+	 *         {@link #commit(long)}
+	 */
+	public long append(byte type, byte[] key, byte[] value) {
+		var length = BODY_HEADER_SIZE + key.length + value.length;
+		var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+		record.position(RECORD_HEADER_SIZE);
+		record.put(type).putInt(key.length).put(key).put(value);
+		var crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, length);
+		record.putInt(0, length).putInt(Integer.BYTES, (int) crc.getValue());
+		record.flip();
+
+		synchronized (this) {
+			if (pending.remaining() < record.remaining()) {
+				var grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.remaining()));
+				pending = grown.put(pending.flip());
+			}
+			pending.put(record);
+			appended += record.limit();
+			return appended;
+		}
+	}
+
+	/**
+	 * Waits until record is durable, as required by commit policy.
+	 */
+	public void commit(long lsn) throws IOException {
+		switch (policy.mode()) {
+		case SYNC:
+			flush(lsn, 0);
+			break;
+		case GROUP:
+			flush(lsn, policy.nanos());
+			break;
+		case ASYNC:
+			synchronized (this) {
+				checkFailure();
+				if (pending.position() < MAX_PENDING_ASYNC) {
+					return;
+				}
+			}
+			flush(lsn, 0);
+			break;
+		}
+	}
+
+	/**
+	 * True when record was already forced, whatever commit policy is.
+	 */
+	public synchronized boolean isDurable(long lsn) {
+		return lsn <= durable;
+	}
+
+	/**
+	 * Writes and forces all appended records.
+	 */
+	public void sync() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = appended;
+		}
+		flush(lsn, 0);
+	}
+
+	/**
+	 * Drops all records, caller has to make sure they are already applied and
+	 * durable somewhere else, and that nothing is appended in a meantime.
+	 */
+	public void truncate() throws IOException {
+		synchronized (this) {
+			awaitFlushed(Long.MAX_VALUE);
+			flushing = true;
+		}
+		try {
+			channel.truncate(0);
+			channel.force(false);
+		} finally {
+			synchronized (this) {
+				pending.clear();
+				durable = appended;
+				truncated = appended;
+				flushing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Number of bytes appended since log was last truncated.
+	 */
+	public synchronized long size() {
+		return appended - truncated;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		try {
+			synchronized (this) {
+				if (failure != null) {
+					return;
+				}
+			}
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Only one thread flushes at a time, the others either find their record
+	 * durable once it is done, or take over as a leader of next flush.
+	 */
+	private void flush(long lsn, long windowNanos) throws IOException {
+		while (true) {
+			synchronized (this) {
+				awaitFlushed(lsn);
+				if (durable >= lsn) {
+					return;
+				}
+				flushing = true;
+			}
+			if (windowNanos > 0) {
+				// let concurrent writers join the group
+				LockSupport.parkNanos(windowNanos);
+			}
+			ByteBuffer batch;
+			long upTo;
+			synchronized (this) {
+				batch = pending;
+				pending = spare;
+				spare = batch;
+				upTo = appended;
+			}
+			IOException error = null;
+			try {
+				batch.flip();
+				while (batch.hasRemaining()) {
+					channel.write(batch);
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				error = e;
+				throw e;
+			} finally {
+				synchronized (this) {
+					batch.clear();
+					if (error == null) {
+						durable = upTo;
+					} else {
+						// records of the batch are lost, nobody can assume theirs are durable
+						failure = error;
+					}
+					flushing = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	// called under this lock
+	private void awaitFlushed(long lsn) throws IOException {
+		checkFailure();
+		while (flushing && durable < lsn) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for log flush");
+			}
+			checkFailure();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("write ahead log failed", failure);
+		}
+	}
+
+	private void flushInBackground() {
+		try {
+			sync();
+		} catch (IOException e) {
+			// failure is recorded and reported to next commit
+		}
+	}
+
+	@FunctionalInterface
+	public interface RecordConsumer {
+
+		void accept(byte type, byte[] key, byte[] value) throws IOException;
+
+	}
+
+}
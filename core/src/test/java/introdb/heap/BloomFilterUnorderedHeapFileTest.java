@@ -0,0 +1,113 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class BloomFilterUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().bloomFilterMemory(64 * 1024);
+	}
+
+	@Test
+	void skip_index_and_pages_for_absent_keys() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<1000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		var stats = heapFile.bufferPoolStats();
+		var lookups = heapFile.indexLookups();
+
+		// when
+		for(int i=1000;i<2000;i++) {
+			assertNull(heapFile.get(i));
+		}
+
+		// then
+		var after = heapFile.bufferPoolStats();
+		assertEquals(stats.hits() + stats.misses(), after.hits() + after.misses());
+		// only false positives of the filter
+		assertTrue(heapFile.indexLookups() - lookups < 50);
+
+	}
+
+	@Test
+	void keep_filter_after_reopen() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<1000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		// too few removes to rebuild filter
+		for(int i=0;i<1000;i+=4) {
+			heapFile.remove(i);
+		}
+
+		// when
+		heapFile.close();
+		heapFile = openHeapFile();
+
+		// then
+		for(int i=0;i<2000;i++) {
+			if (i < 1000 && i % 4 != 0) {
+				assertEquals("value"+i, heapFile.get(i));
+			} else {
+				assertNull(heapFile.get(i));
+			}
+		}
+		// saved filter still has removed keys, filter rebuilt from index wouldn't
+		var lookups = heapFile.indexLookups();
+		for(int i=0;i<1000;i+=4) {
+			heapFile.get(i);
+		}
+		assertEquals(250, heapFile.indexLookups() - lookups);
+
+	}
+
+	@Test
+	void keep_live_keys_when_filter_is_rebuilt_after_removes() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<4000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+
+		// when
+		for(int i=0;i<4000;i++) {
+			if (i % 4 != 0) {
+				heapFile.remove(i);
+			}
+		}
+		// while filter is possibly rebuilt
+		for(int i=4000;i<5000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+
+		// then
+		for(int i=0;i<5000;i++) {
+			if (i < 4000 && i % 4 != 0) {
+				assertNull(heapFile.get(i));
+			} else {
+				assertEquals("value"+i, heapFile.get(i));
+			}
+		}
+		heapFile.close();
+		heapFile = openHeapFile();
+		for(int i=0;i<5000;i++) {
+			if (i >= 4000 || i % 4 == 0) {
+				assertEquals("value"+i, heapFile.get(i));
+			} else {
+				assertNull(heapFile.get(i));
+			}
+		}
+
+	}
+
+}
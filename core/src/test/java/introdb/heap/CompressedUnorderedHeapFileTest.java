@@ -0,0 +1,78 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CompressedUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().compression(true);
+	}
+
+	@Test
+	void keep_compressed_value_in_a_page() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[16*1024];
+		Arrays.fill(value, (byte)7);
+
+		// when
+		heapFile.put(newEntry("key", value));
+
+		// then
+		assertEquals(List.of(HeapPage.COMPRESSED), recordStates());
+		assertEquals(4*1024, Files.size(heapFilePath));
+		try (var view = heapFile.getView("key")) {
+			var bytes = new byte[view.buffer().remaining()];
+			view.buffer().get(bytes);
+			assertArrayEquals(value, bytes);
+		}
+
+	}
+
+	@Test
+	void keep_incompressible_value_raw() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[2*1024];
+		new Random().nextBytes(value);
+
+		// when
+		heapFile.put(newEntry("key", value));
+
+		// then
+		assertEquals(List.of(HeapPage.LIVE), recordStates());
+		assertArrayEquals(value, (byte[])heapFile.get("key"));
+
+	}
+
+	/*
+	 * States of records of the first page, as they are in file once heap file
+	 * is closed, heap file is opened again afterwards.
+	 */
+	private List<Byte> recordStates() throws IOException {
+		heapFile.close();
+		var buffer = ByteBuffer.allocate(4*1024);
+		try (var channel = FileChannel.open(heapFilePath)) {
+			channel.read(buffer, 0);
+		}
+		heapFile = openHeapFile();
+		var page = new HeapPage(0, buffer.clear());
+		var states = new ArrayList<Byte>();
+		page.forEachRecord(offset -> states.add(page.state(offset)));
+		return states;
+	}
+
+}
@@ -37,7 +37,7 @@ public class ConcurrentReadWriteUnorderedHeapFileTest {
 	private int nrOfReaders = 5;
 
 	private Path heapFilePath;
-	private Store heapFile;
+	private UnorderedHeapFile heapFile;
 	private CountDownLatch writersLatch;
 	private ExecutorService executors;
 
@@ -51,7 +51,12 @@ public class ConcurrentReadWriteUnorderedHeapFileTest {
 
 	@AfterEach
 	void tearDown() throws IOException, InterruptedException {
+		heapFile.close();
 		Files.delete(heapFilePath);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.logPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.bloomFilterPath(heapFilePath));
 		
 		executors.shutdown();
 		executors.awaitTermination(1, TimeUnit.MINUTES);
@@ -0,0 +1,89 @@
+package introdb.heap;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ExecutorAsyncStoreTest {
+
+	private Path heapFilePath;
+	private UnorderedHeapFile heapFile;
+	private ExecutorService executor;
+	private AsyncStore store;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		heapFilePath = Files.createTempFile("heap", "0001");
+		heapFile = new UnorderedHeapFile(heapFilePath, 1024, 4*1024);
+		executor = Executors.newFixedThreadPool(4);
+		store = new ExecutorAsyncStore(heapFile, executor);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		executor.shutdown();
+		heapFile.close();
+		Files.delete(heapFilePath);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.logPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.bloomFilterPath(heapFilePath));
+	}
+
+	@Test
+	void pipeline_puts_and_gets() {
+		var puts = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < 1000; i++) {
+			puts.add(store.putAsync(new Entry(i, "value" + i)));
+		}
+		CompletableFuture.allOf(puts.toArray(new CompletableFuture[0])).join();
+
+		var gets = new ArrayList<CompletableFuture<Object>>();
+		for (int i = 0; i < 1000; i++) {
+			gets.add(store.getAsync(i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("value" + i, gets.get(i).join());
+		}
+	}
+
+	@Test
+	void remove_returns_removed_value() {
+		store.putAsync(new Entry("key", "value")).join();
+
+		assertEquals("value", store.removeAsync("key").join());
+		assertNull(store.getAsync("key").join());
+	}
+
+	@Test
+	void complete_exceptionally_when_key_too_large() {
+		var future = store.putAsync(new Entry(new byte[4*1024], "value"));
+
+		assertThatThrownBy(future::get)
+			.isInstanceOf(ExecutionException.class)
+			.hasCauseInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void complete_exceptionally_when_executor_rejects() {
+		executor.shutdown();
+
+		assertThatThrownBy(store.getAsync("key")::join)
+			.hasCauseInstanceOf(RejectedExecutionException.class);
+	}
+
+}
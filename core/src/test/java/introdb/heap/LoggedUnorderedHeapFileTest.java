@@ -0,0 +1,122 @@
+package introdb.heap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.page.LruKPolicy;
+import introdb.heap.wal.CommitPolicy;
+
+/**
+ * Runs heap file tests with write ahead log, and checks that logged
+ * operations survive heap file which was not closed.
+ */
+class LoggedUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions()
+				.commitPolicy(CommitPolicy.group(Duration.ofMillis(1)))
+				.checkpointSize(16 * 1024);
+	}
+
+	@Test
+	void replay_log_when_not_closed() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<1000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		for(int i=0;i<1000;i+=2) {
+			heapFile.remove(i);
+		}
+
+		// when
+		var crashed = heapFile;
+		heapFile = openHeapFile();
+
+		// then
+		try {
+			for(int i=0;i<1000;i++) {
+				if (i % 2 == 0) {
+					assertNull(heapFile.get(i));
+				} else {
+					assertEquals("value"+i, heapFile.get(i));
+				}
+			}
+		} finally {
+			crashed.close();
+		}
+
+	}
+
+	@Test
+	void replay_large_values_when_not_closed() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[20*1024];
+		new Random().nextBytes(value);
+		for(int i=0;i<10;i++) {
+			heapFile.put(newEntry(i, value));
+		}
+		heapFile.remove(5);
+
+		// when
+		var crashed = heapFile;
+		heapFile = openHeapFile();
+
+		// then
+		try {
+			for(int i=0;i<10;i++) {
+				if (i == 5) {
+					assertNull(heapFile.get(i));
+				} else {
+					assertArrayEquals(value, (byte[])heapFile.get(i));
+				}
+			}
+		} finally {
+			crashed.close();
+		}
+
+	}
+
+	@Test
+	void keep_replaced_value_until_put_is_durable() throws IOException, ClassNotFoundException {
+
+		// given
+		var first = new byte[3900];
+		var second = new byte[3900];
+		new Random().nextBytes(first);
+		new Random().nextBytes(second);
+		heapFile.put(newEntry("key", first));
+		heapFile.put(newEntry("other", first));
+		heapFile.close();
+		// log is never forced, and page of replaced record is evicted first
+		heapFile = new UnorderedHeapFile(heapFilePath, 1024, 4*1024, new HeapFileOptions()
+				.commitPolicy(CommitPolicy.async(Duration.ofHours(1)))
+				.bufferPoolSize(2)
+				.evictionPolicy(nrOfFrames -> new LruKPolicy(nrOfFrames, 1)));
+
+		// when
+		heapFile.put(newEntry("key", second));
+		heapFile.get("key");
+		heapFile.get("other");
+		var crashed = heapFile;
+		heapFile = openHeapFile();
+
+		// then
+		try {
+			assertArrayEquals(first, (byte[])heapFile.get("key"));
+		} finally {
+			crashed.close();
+		}
+
+	}
+
+}
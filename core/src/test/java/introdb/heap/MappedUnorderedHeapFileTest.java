@@ -0,0 +1,66 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.HeapFileOptions.PageIO;
+
+/**
+ * Runs heap file tests with pages mapped into memory.
+ */
+class MappedUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().pageIO(PageIO.MAPPED);
+	}
+
+	@Test
+	void keep_only_written_pages_in_file() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<10;i++) {
+			heapFile.put(newEntry(i, new byte[3000]));
+		}
+
+		// when
+		heapFile.close();
+		heapFile = openHeapFile();
+
+		// then
+		assertEquals(10*4*1024, Files.size(heapFilePath));
+		assertEquals(10, heapFile.keys().count());
+
+	}
+
+	@Test
+	void recover_written_pages_when_not_closed() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<100;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+
+		// when
+		var crashed = heapFile;
+		heapFile = openHeapFile();
+
+		// then
+		try {
+			// mapping grew file to whole segment, recovery read only written pages
+			assertTrue(heapFile.bufferPoolStats().misses() < 10);
+			for(int i=0;i<100;i++) {
+				assertEquals("value"+i, heapFile.get(i));
+			}
+		} finally {
+			crashed.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+package introdb.heap;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.HeapFileOptions.PageIO;
+
+class OrderedStoreTest {
+
+	Path storePath;
+	OrderedStore store;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		storePath = Files.createTempFile("ordered", "0001");
+		store = openStore();
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		store.close();
+		Files.delete(storePath);
+	}
+
+	@Test
+	void put_get_and_remove_in_random_order() throws IOException, ClassNotFoundException {
+
+		// given
+		var keys = IntStream.range(0, 5000).boxed().collect(Collectors.toList());
+		Collections.shuffle(keys, new Random(1));
+
+		// when
+		for (var key : keys) {
+			store.put(new Entry(key, "value" + key));
+		}
+		for (int i = 0; i < 5000; i += 3) {
+			assertEquals("value" + i, store.remove(i));
+		}
+
+		// then
+		for (int i = 0; i < 5000; i++) {
+			if (i % 3 == 0) {
+				assertNull(store.get(i));
+			} else {
+				assertEquals("value" + i, store.get(i));
+			}
+		}
+		assertNull(store.remove(0));
+
+	}
+
+	@Test
+	void replace_value_of_existing_key() throws IOException, ClassNotFoundException {
+
+		// when
+		for (int i = 0; i < 1000; i++) {
+			store.put(new Entry(i, "value" + i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			store.put(new Entry(i, "replaced value" + i));
+		}
+
+		// then
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("replaced value" + i, store.get(i));
+		}
+		assertEquals(1000, store.keys().count());
+
+	}
+
+	@Test
+	void scan_range_in_key_order() throws IOException, ClassNotFoundException {
+
+		// given
+		var keys = IntStream.range(0, 3000).boxed().collect(Collectors.toList());
+		Collections.shuffle(keys, new Random(2));
+		for (var key : keys) {
+			store.put(new Entry(key, "value" + key));
+		}
+
+		// when
+		var range = store.range(1000, 2000).collect(Collectors.toList());
+
+		// then
+		assertEquals(1000, range.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(1000 + i, range.get(i).key());
+			assertEquals("value" + (1000 + i), range.get(i).value());
+		}
+		assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), store.range(null, 10).map(Entry::key).collect(Collectors.toList()));
+		assertEquals(IntStream.range(2990, 3000).boxed().collect(Collectors.toList()), store.range(2990, null).map(Entry::key).collect(Collectors.toList()));
+		assertEquals(0, store.range(2000, 1000).count());
+		assertEquals(keys.stream().sorted().collect(Collectors.toList()), store.keys().collect(Collectors.toList()));
+
+	}
+
+	@Test
+	void read_tree_after_reopen() throws IOException, ClassNotFoundException {
+
+		// given
+		for (int i = 0; i < 2000; i++) {
+			store.put(new Entry("key" + i, "value" + i));
+		}
+		store.close();
+
+		// when
+		store = openStore();
+		store.put(new Entry("key", "value"));
+
+		// then
+		for (int i = 0; i < 2000; i++) {
+			assertEquals("value" + i, store.get("key" + i));
+		}
+		assertEquals(2001, store.entries().count());
+		assertEquals("key", store.keys().findFirst().get());
+
+	}
+
+	@Test
+	void read_mapped_tree_after_reopen() throws IOException, ClassNotFoundException {
+
+		// given
+		var options = new HeapFileOptions().pageIO(PageIO.MAPPED);
+		store.close();
+		store = new OrderedStore(storePath, 4096, 512, options);
+		for (int i = 0; i < 2000; i++) {
+			store.put(new Entry("key" + i, "value" + i));
+		}
+		store.close();
+
+		// when
+		store = new OrderedStore(storePath, 4096, 512, options);
+		for (int i = 2000; i < 4000; i++) {
+			store.put(new Entry("key" + i, "value" + i));
+		}
+
+		// then
+		for (int i = 0; i < 4000; i++) {
+			assertEquals("value" + i, store.get("key" + i));
+		}
+		assertEquals(4000, store.entries().count());
+
+	}
+
+	@Test
+	void throw_exception_when_entry_exceeds_quarter_of_page() {
+
+		assertThatThrownBy(() -> store.put(new Entry("key", new byte[256]))).isInstanceOf(IllegalArgumentException.class);
+
+	}
+
+	@Test
+	void put_and_scan_concurrently() throws Exception {
+
+		// given
+		var executor = Executors.newFixedThreadPool(4);
+		var tasks = new ArrayList<Callable<Object>>();
+		for (int thread = 0; thread < 3; thread++) {
+			var first = thread;
+			tasks.add(() -> {
+				for (int i = first; i < 3000; i += 3) {
+					store.put(new Entry(i, "value" + i));
+				}
+				return null;
+			});
+		}
+		tasks.add(() -> {
+			for (int i = 0; i < 20; i++) {
+				var keys = store.keys().map(key -> (Integer) key).collect(Collectors.toList());
+				for (int j = 1; j < keys.size(); j++) {
+					if (keys.get(j - 1) >= keys.get(j)) {
+						throw new AssertionError("keys out of order " + keys.get(j - 1) + ", " + keys.get(j));
+					}
+				}
+			}
+			return null;
+		});
+
+		// when
+		try {
+			for (var future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// then
+		var keys = store.keys().collect(Collectors.<Serializable>toList());
+		assertEquals(IntStream.range(0, 3000).boxed().collect(Collectors.toList()), keys);
+
+	}
+
+	OrderedStore openStore() throws IOException {
+		return new OrderedStore(storePath, 4096, 512, new HeapFileOptions());
+	}
+
+}
@@ -0,0 +1,148 @@
+package introdb.heap;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PartitionedStoreTest {
+
+	List<Path> directories;
+	PartitionedStore store;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directories = List.of(Files.createTempDirectory("partitions"), Files.createTempDirectory("partitions"));
+		store = openStore(4);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		store.close();
+		for (var directory : directories) {
+			try (var files = Files.walk(directory)) {
+				for (var file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	@Test
+	void put_get_and_remove_across_partitions() throws IOException, ClassNotFoundException {
+
+		// when
+		for (int i = 0; i < 1000; i++) {
+			store.put(new Entry(i, "value" + i));
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			store.remove(i);
+		}
+
+		// then
+		for (int i = 0; i < 1000; i++) {
+			if (i % 2 == 0) {
+				assertNull(store.get(i));
+			} else {
+				assertEquals("value" + i, store.get(i));
+			}
+		}
+		store.close();
+		store = openStore(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(Files.size(PartitionedStore.partitionPath(directories, "store", i)) > 0);
+		}
+
+	}
+
+	@Test
+	void put_and_remove_all_across_partitions() throws IOException, ClassNotFoundException {
+
+		// given
+		var entries = new ArrayList<Entry>();
+		for (int i = 0; i < 500; i++) {
+			entries.add(new Entry(i, "value" + i));
+		}
+		entries.add(new Entry(7, "last"));
+
+		// when
+		store.putAll(entries);
+		store.removeAll(IntStream.range(0, 100).boxed().collect(Collectors.<Serializable>toList()));
+
+		// then
+		assertNull(store.get(7));
+		assertNull(store.get(99));
+		assertEquals("value100", store.get(100));
+		assertEquals(400, store.keys().count());
+
+	}
+
+	@Test
+	void scan_partitions_in_parallel() throws IOException, ClassNotFoundException {
+
+		// given
+		for (int i = 0; i < 1000; i++) {
+			store.put(new Entry(i, "value" + i));
+		}
+
+		// when
+		var entries = store.entries().parallel().collect(Collectors.toMap(Entry::key, Entry::value));
+
+		// then
+		assertEquals(1000, entries.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("value" + i, entries.get(i));
+		}
+		assertEquals(1000, store.keys().parallel().distinct().count());
+
+	}
+
+	@Test
+	void reopen_with_the_same_partitions() throws IOException, ClassNotFoundException {
+
+		// given
+		for (int i = 0; i < 100; i++) {
+			store.put(new Entry(i, "value" + i));
+		}
+		store.close();
+
+		// when
+		store = openStore(4);
+
+		// then
+		for (int i = 0; i < 100; i++) {
+			assertEquals("value" + i, store.get(i));
+		}
+
+	}
+
+	@Test
+	void cannot_reopen_with_other_partitions() throws IOException {
+
+		store.close();
+
+		assertThatThrownBy(() -> openStore(8)).isInstanceOf(IllegalArgumentException.class);
+
+		store = openStore(4);
+
+	}
+
+	PartitionedStore openStore(int partitions) throws IOException {
+		return new PartitionedStore(directories, "store", partitions, 1024, 4 * 1024, new HeapFileOptions());
+	}
+
+}
@@ -0,0 +1,55 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.lock.LockExecution;
+
+/**
+ * Runs heap file tests with writes of every page queued and run one after
+ * another in executor.
+ */
+class SerialLockExecutionUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().lockExecution(LockExecution.serial(ForkJoinPool.commonPool()));
+	}
+
+	@Test
+	void run_queued_write_after_read_of_a_page() throws Exception {
+
+		// given
+		heapFile.put(newEntry("key", new byte[] { 1, 2, 3 }));
+		var executor = Executors.newSingleThreadExecutor();
+
+		try (var view = heapFile.getView("key")) {
+			// when
+			// replaced record is freed by a write of viewed page
+			var put = executor.submit(() -> {
+				heapFile.put(newEntry("key", new byte[] { 4, 5, 6 }));
+				return null;
+			});
+			Thread.sleep(100);
+
+			// then
+			assertFalse(put.isDone());
+			assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), view.buffer());
+			view.close();
+			put.get(1, TimeUnit.SECONDS);
+			assertArrayEquals(new byte[] { 4, 5, 6 }, (byte[])heapFile.get("key"));
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.page.LruKPolicy;
+
+/**
+ * Runs heap file tests with buffer pool much smaller than heap file, so pages
+ * are evicted and written back all the time.
+ */
+class SmallBufferPoolUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions()
+				.bufferPoolSize(2)
+				.evictionPolicy(nrOfFrames -> new LruKPolicy(nrOfFrames, 2));
+	}
+
+	@Test
+	void write_back_evicted_pages() throws IOException, ClassNotFoundException {
+
+		// given
+		// a page each
+		for(int i=0;i<10;i++) {
+			heapFile.put(newEntry(i, value(i)));
+		}
+
+		// when
+		for(int i=0;i<10;i++) {
+			assertArrayEquals(value(i), (byte[])heapFile.get(i));
+		}
+
+		// then
+		var stats = heapFile.bufferPoolStats();
+		assertTrue(stats.evictions() >= 8);
+		assertTrue(stats.writeBacks() >= 8);
+		heapFile.close();
+		heapFile = openHeapFile();
+		for(int i=0;i<10;i++) {
+			assertArrayEquals(value(i), (byte[])heapFile.get(i));
+		}
+
+	}
+
+	private static byte[] value(int i) {
+		var value = new byte[3000];
+		value[0] = (byte)i;
+		return value;
+	}
+
+}
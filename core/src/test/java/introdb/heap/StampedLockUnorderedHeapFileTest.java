@@ -0,0 +1,68 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.lock.LockManager.LockType;
+
+/**
+ * Runs heap file tests with stamped page locks, so reads are optimistic
+ * first.
+ */
+class StampedLockUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().lockType(LockType.STAMPED);
+	}
+
+	@Test
+	void never_read_torn_value_while_it_is_written() throws Exception {
+
+		// given
+		heapFile.put(newEntry("key", filled(0)));
+		var executor = Executors.newSingleThreadExecutor();
+		var done = new AtomicBoolean();
+
+		// when
+		// regions of replaced values are reused, so readers race writer on the same bytes
+		var writer = executor.submit(() -> {
+			try {
+				for(int i=1;i<5000;i++) {
+					heapFile.put(newEntry("key", filled(i)));
+				}
+			} finally {
+				done.set(true);
+			}
+			return null;
+		});
+
+		// then
+		try {
+			while (!done.get()) {
+				var value = (byte[])heapFile.get("key");
+				assertNotNull(value);
+				for (var b : value) {
+					assertEquals(value[0], b);
+				}
+			}
+			writer.get();
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+	private static byte[] filled(int i) {
+		var value = new byte[1000];
+		Arrays.fill(value, (byte)i);
+		return value;
+	}
+
+}
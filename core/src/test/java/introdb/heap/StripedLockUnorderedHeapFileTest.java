@@ -0,0 +1,62 @@
+package introdb.heap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs heap file tests with just a few lock stripes, so that pages share them
+ * all the time.
+ */
+class StripedLockUnorderedHeapFileTest extends UnorderedHeapFileTest {
+
+	@Override
+	HeapFileOptions options() {
+		return new HeapFileOptions().lockStripes(2);
+	}
+
+	@Test
+	void share_lock_of_pages_in_the_same_stripe() throws Exception {
+
+		// given
+		// a page each, pages 0 and 2 share a stripe
+		var entries = new ArrayList<Entry>();
+		for(int i=0;i<4;i++) {
+			entries.add(newEntry(i, value(i)));
+		}
+		heapFile.putAll(entries);
+		var executor = Executors.newSingleThreadExecutor();
+
+		try (var view = heapFile.getView(0)) {
+			// when
+			// reader of the other page of a stripe is not blocked, replace of its value is
+			assertArrayEquals(value(2), (byte[])executor.submit(() -> heapFile.get(2)).get(1, TimeUnit.SECONDS));
+			var put = executor.submit(() -> {
+				heapFile.put(newEntry(2, value(20)));
+				return null;
+			});
+			Thread.sleep(100);
+
+			// then
+			assertFalse(put.isDone());
+			view.close();
+			put.get(1, TimeUnit.SECONDS);
+			assertArrayEquals(value(20), (byte[])heapFile.get(2));
+		} finally {
+			executor.shutdown();
+		}
+
+	}
+
+	private static byte[] value(int i) {
+		var value = new byte[3000];
+		value[0] = (byte)i;
+		return value;
+	}
+
+}
@@ -5,12 +5,23 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,18 +29,23 @@ import org.junit.jupiter.api.Test;
 
 class UnorderedHeapFileTest {
 
-	private Path heapFilePath;
-	private Store heapFile;
+	Path heapFilePath;
+	UnorderedHeapFile heapFile;
 
 	@BeforeEach
 	public void setUp() throws IOException {
 		heapFilePath = Files.createTempFile("heap", "0001");
-		heapFile = new UnorderedHeapFile(heapFilePath, 1024, 4*1024);
+		heapFile = openHeapFile();
 	}
 	
 	@AfterEach
 	public void tearDown() throws IOException {
+		heapFile.close();
 		Files.delete(heapFilePath);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.logPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(heapFilePath));
+		Files.deleteIfExists(UnorderedHeapFile.bloomFilterPath(heapFilePath));
 	}
 
 	@Test
@@ -140,22 +156,381 @@ class UnorderedHeapFileTest {
 	}
 	
 	@Test
-	void throw_exception_when_entry_too_large() throws ClassNotFoundException, IOException {
+	void put_all_and_get_records() throws ClassNotFoundException, IOException {
 
 		// given
-		byte[] value = new byte[4*1024];
+		byte[] value = new byte[256];
 		new Random().nextBytes(value);
+		var entries = new ArrayList<Entry>();
+		for(int i=0;i<1000;i++) {
+			entries.add(new Entry(i, value));
+		}
+		entries.add(new Entry(0, "last"));
+
+		// when
+		heapFile.putAll(entries);
+
+		// then
+		assertEquals("last", heapFile.get(0));
+		for(int i=1;i<1000;i++) {
+			assertArrayEquals(value,(byte[])heapFile.get(i));
+		}
+
+	}
+
+	@Test
+	void remove_all_records() throws ClassNotFoundException, IOException {
+
+		// given
+		var keys = new ArrayList<Serializable>();
+		for(int i=0;i<100;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+			if (i % 2 == 0) {
+				keys.add(i);
+			}
+		}
+		keys.add(1000);
+
+		// when
+		heapFile.removeAll(keys);
+
+		// then
+		for(int i=0;i<100;i++) {
+			if (i % 2 == 0) {
+				assertNull(heapFile.get(i));
+			} else {
+				assertEquals("value"+i, heapFile.get(i));
+			}
+		}
+
+	}
+
+	@Test
+	void get_value_into_buffer() throws ClassNotFoundException, IOException {
+
+		// given
+		byte[] value = new byte[1024];
+		new Random().nextBytes(value);
+		heapFile.put(newEntry("key", value));
+
+		// when
+		var small = ByteBuffer.allocate(16);
+		var dst = ByteBuffer.allocate(2048);
+
+		// then
+		assertEquals(1024, heapFile.get("key", small));
+		assertEquals(0, small.position());
+		assertEquals(1024, heapFile.get("key", dst));
+		assertArrayEquals(value, Arrays.copyOf(dst.array(), dst.position()));
+		assertEquals(-1, heapFile.get("missing", dst));
+
+	}
+
+	@Test
+	void get_value_view() throws ClassNotFoundException, IOException {
+
+		// given
+		byte[] value = new byte[1024];
+		new Random().nextBytes(value);
+		heapFile.put(newEntry("key", value));
+
+		// when
+		var actual = new byte[1024];
+		try (var view = heapFile.getView("key")) {
+			assertTrue(view.buffer().isReadOnly());
+			view.buffer().get(actual);
+		}
+
+		// then
+		assertArrayEquals(value, actual);
+		assertNull(heapFile.getView("missing"));
+		heapFile.put(newEntry("key", "value"));
+		assertEquals("value", heapFile.get("key"));
+
+	}
+
+	@Test
+	void throw_exception_when_key_too_large() throws ClassNotFoundException, IOException {
+
+		// given
+		byte[] key = new byte[4*1024];
+		new Random().nextBytes(key);
 
 		// when
 		
 		assertThatThrownBy(() -> {
-			heapFile.put(new Entry("0",value ));
+			heapFile.put(new Entry(key, "value"));
 		})
 		.isInstanceOf(IllegalArgumentException.class);
 
 	}
 	
-	private Entry newEntry(Serializable firstkey, Serializable firstvalue) {
+	@Test
+	void get_records_after_reopen() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<100;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		heapFile.remove(50);
+
+		// when
+		heapFile.close();
+		heapFile = openHeapFile();
+		heapFile.put(newEntry(100, "value100"));
+
+		// then
+		for(int i=0;i<=100;i++) {
+			assertEquals(i==50 ? null : "value"+i, heapFile.get(i));
+		}
+
+	}
+
+	@Test
+	void rebuild_index_when_not_closed() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<100;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+
+		// when
+		heapFile.flush();
+		Files.delete(UnorderedHeapFile.indexPath(heapFilePath));
+		// crashed instance is closed only once test is done with reopened one
+		var crashed = heapFile;
+		heapFile = openHeapFile();
+
+		// then
+		try {
+			for(int i=0;i<100;i++) {
+				assertEquals("value"+i, heapFile.get(i));
+			}
+		} finally {
+			crashed.close();
+		}
+
+	}
+
+	@Test
+	void rebuild_free_space_when_map_is_missing() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<100;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		for(int i=0;i<100;i+=2) {
+			heapFile.remove(i);
+		}
+
+		// when
+		heapFile.close();
+		Files.delete(UnorderedHeapFile.freeSpaceMapPath(heapFilePath));
+		heapFile = openHeapFile();
+		for(int i=100;i<200;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+
+		// then
+		for(int i=0;i<200;i++) {
+			assertEquals(i<100 && i%2==0 ? null : "value"+i, heapFile.get(i));
+		}
+
+	}
+
+	@Test
+	void compact_sparse_pages() throws IOException, ClassNotFoundException {
+
+		// given
+		for(int i=0;i<1000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		for(int i=0;i<1000;i++) {
+			if(i%10!=0) {
+				heapFile.remove(i);
+			}
+		}
+
+		// when
+		var moved = heapFile.compact(Long.MAX_VALUE);
+		heapFile.put(newEntry(1000, "value1000"));
+
+		// then
+		assertTrue(moved > 0);
+		for(int i=0;i<=1000;i++) {
+			assertEquals(i%10==0 ? "value"+i : null, heapFile.get(i));
+		}
+		heapFile.close();
+		heapFile = openHeapFile();
+		for(int i=0;i<=1000;i++) {
+			assertEquals(i%10==0 ? "value"+i : null, heapFile.get(i));
+		}
+
+	}
+
+	@Test
+	void compact_while_putting_and_removing() throws Exception {
+
+		// given
+		var nrOfWriters = 4;
+		var keysPerWriter = 250;
+		var executor = Executors.newFixedThreadPool(nrOfWriters + 1);
+		var writing = new CountDownLatch(nrOfWriters);
+		var expected = new String[nrOfWriters * keysPerWriter];
+
+		// when
+		try {
+			var writers = new ArrayList<Future<?>>();
+			for(int w=0;w<nrOfWriters;w++) {
+				var first = w * keysPerWriter;
+				writers.add(executor.submit(() -> {
+					try {
+						var random = new Random(first);
+						for(int i=0;i<10000;i++) {
+							var key = first + random.nextInt(keysPerWriter);
+							if(random.nextInt(3)==0) {
+								heapFile.remove(key);
+								expected[key] = null;
+							} else {
+								expected[key] = "value"+key+"-"+i;
+								heapFile.put(newEntry(key, expected[key]));
+							}
+						}
+					} finally {
+						writing.countDown();
+					}
+					return null;
+				}));
+			}
+			var compactor = executor.submit(() -> {
+				while(writing.getCount() > 0) {
+					heapFile.compact(Long.MAX_VALUE);
+				}
+				return null;
+			});
+			for(var writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+			compactor.get(1, TimeUnit.MINUTES);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// then
+		for(int key=0;key<expected.length;key++) {
+			assertEquals(expected[key], heapFile.get(key));
+		}
+		heapFile.close();
+		heapFile = openHeapFile();
+		for(int key=0;key<expected.length;key++) {
+			assertEquals(expected[key], heapFile.get(key));
+		}
+
+	}
+
+	@Test
+	void put_and_get_value_larger_than_page() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[100*1024];
+		new Random().nextBytes(value);
+		var text = String.join("", Collections.nCopies(2000, "value"));
+
+		// when
+		heapFile.put(newEntry("bytes", value));
+		heapFile.put(newEntry("text", text));
+
+		// then
+		assertArrayEquals(value, (byte[])heapFile.get("bytes"));
+		assertEquals(text, heapFile.get("text"));
+		heapFile.close();
+		heapFile = openHeapFile();
+		assertArrayEquals(value, (byte[])heapFile.get("bytes"));
+		assertEquals(text, heapFile.get("text"));
+
+	}
+
+	@Test
+	void stream_value_larger_than_page() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[50*1024];
+		new Random().nextBytes(value);
+
+		// when
+		heapFile.put("key", new ByteArrayInputStream(value));
+
+		// then
+		try (var stream = heapFile.getStream("key")) {
+			assertArrayEquals(value, stream.readAllBytes());
+		}
+		assertArrayEquals(value, (byte[])heapFile.get("key"));
+		var buffer = ByteBuffer.allocate(value.length);
+		assertEquals(value.length, heapFile.get("key", buffer));
+		assertArrayEquals(value, buffer.array());
+
+	}
+
+	@Test
+	void reuse_pages_of_removed_large_value() throws IOException, ClassNotFoundException {
+
+		// given
+		var value = new byte[1000*1024];
+		new Random().nextBytes(value);
+
+		// when
+		for(int i=0;i<10;i++) {
+			heapFile.put(newEntry("key", value));
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		assertArrayEquals(value, (byte[])heapFile.remove("key"));
+		heapFile.put(newEntry("key", value));
+
+		// then
+		assertArrayEquals(value, (byte[])heapFile.get("key"));
+		for(int i=0;i<10;i++) {
+			assertEquals("value"+i, heapFile.get(i));
+		}
+
+	}
+
+	@Test
+	void scan_all_entries() throws IOException, ClassNotFoundException {
+
+		// given
+		var large = new byte[10*1024];
+		new Random().nextBytes(large);
+		for(int i=0;i<1000;i++) {
+			heapFile.put(newEntry(i, "value"+i));
+		}
+		for(int i=0;i<1000;i+=3) {
+			heapFile.remove(i);
+		}
+		heapFile.put(newEntry("large", large));
+
+		// when
+		var entries = heapFile.entries().collect(Collectors.toMap(Entry::key, Entry::value));
+		var keys = heapFile.keys().parallel().collect(Collectors.toSet());
+
+		// then
+		assertEquals(667, entries.size());
+		for(int i=0;i<1000;i++) {
+			assertEquals(i%3==0 ? null : "value"+i, entries.get(i));
+		}
+		assertArrayEquals(large, (byte[])entries.get("large"));
+		assertEquals(entries.keySet(), keys);
+
+	}
+
+	HeapFileOptions options() {
+		return new HeapFileOptions();
+	}
+
+	UnorderedHeapFile openHeapFile() throws IOException {
+		return new UnorderedHeapFile(heapFilePath, 1024, 4*1024, options());
+	}
+
+	Entry newEntry(Serializable firstkey, Serializable firstvalue) {
 		Entry entry = new Entry(firstkey,firstvalue);
 		return entry;
 	}
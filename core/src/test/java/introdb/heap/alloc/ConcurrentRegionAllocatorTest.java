@@ -0,0 +1,142 @@
+package introdb.heap.alloc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ConcurrentRegionAllocatorTest {
+
+	private static final int MIN_REGION_SIZE = 128;
+	private static final int _4Kb = 4 * 1024;
+
+	@Test
+	public void touch_pages_in_order_across_stripes() {
+		var allocator = new ConcurrentRegionAllocator(4, _4Kb, MIN_REGION_SIZE, 2);
+
+		var pages = new ArrayList<Integer>();
+		for (int i = 0; i < 4; i++) {
+			pages.add(allocator.alloc(_4Kb).get().pageNr());
+		}
+
+		assertThat(pages).containsExactly(0, 1, 2, 3);
+		assertThat(allocator.touchedPages()).isEqualTo(4);
+	}
+
+	@Test
+	public void fill_touched_pages_before_touching_new_one() {
+		var allocator = new ConcurrentRegionAllocator(4, _4Kb, MIN_REGION_SIZE, 2);
+
+		var first = allocator.alloc(1024).get();
+		var second = allocator.alloc(1024).get();
+
+		assertThat(second.pageNr()).isEqualTo(first.pageNr());
+		assertThat(allocator.touchedPages()).isEqualTo(1);
+	}
+
+	@Test
+	public void steal_from_other_stripes_when_home_stripe_is_full() {
+		var allocator = new ConcurrentRegionAllocator(4, _4Kb, MIN_REGION_SIZE, 2);
+
+		var pages = new HashSet<Integer>();
+		for (int i = 0; i < 4; i++) {
+			pages.add(allocator.alloc(_4Kb).get().pageNr());
+		}
+
+		assertThat(pages).containsExactlyInAnyOrder(0, 1, 2, 3);
+		assertThat(allocator.alloc(MIN_REGION_SIZE)).isEmpty();
+	}
+
+	@Test
+	public void reuse_freed_region() {
+		var allocator = new ConcurrentRegionAllocator(3, _4Kb, MIN_REGION_SIZE, 2);
+		var regions = new ArrayList<Region>();
+		for (int i = 0; i < 3; i++) {
+			regions.add(allocator.alloc(_4Kb).get());
+		}
+
+		allocator.free(regions.get(1));
+
+		assertThat(allocator.alloc(_4Kb)).get().isEqualTo(regions.get(1));
+	}
+
+	@Test
+	public void reserve_region_in_its_stripe() {
+		var allocator = new ConcurrentRegionAllocator(2, _4Kb, MIN_REGION_SIZE, 2);
+
+		allocator.reserve(new Region(1, 0, 1024));
+
+		var regions = allocator.allocAll(new int[] { _4Kb, 3072 });
+		assertThat(regions).get().asList().containsExactlyInAnyOrder(new Region(0, 0, _4Kb), new Region(1, 1024, 3072));
+		assertThat(allocator.alloc(MIN_REGION_SIZE)).isEmpty();
+	}
+
+	@Test
+	public void allocate_distinct_regions_concurrently() throws Exception {
+		var allocator = new ConcurrentRegionAllocator(1024, _4Kb, MIN_REGION_SIZE, 4);
+		var executor = Executors.newFixedThreadPool(8);
+		try {
+			var tasks = new ArrayList<Callable<List<Region>>>();
+			for (int i = 0; i < 8; i++) {
+				tasks.add(() -> {
+					var regions = new ArrayList<Region>();
+					for (int j = 0; j < 1000; j++) {
+						var region = allocator.alloc(512).get();
+						if (j % 2 == 0) {
+							allocator.free(region);
+						} else {
+							regions.add(region);
+						}
+					}
+					return regions;
+				});
+			}
+			var allocated = new HashSet<Region>();
+			for (var future : executor.invokeAll(tasks)) {
+				for (var region : future.get()) {
+					assertThat(allocated.add(region)).isTrue();
+				}
+			}
+			assertThat(allocated).hasSize(4000);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void touch_distinct_pages_by_concurrent_writers() throws Exception {
+		var allocator = new ConcurrentRegionAllocator(64, _4Kb, MIN_REGION_SIZE, 4);
+		var executor = Executors.newFixedThreadPool(4);
+		try {
+			var start = new CyclicBarrier(4);
+			var tasks = new ArrayList<Callable<Set<Integer>>>();
+			for (int i = 0; i < 4; i++) {
+				tasks.add(() -> {
+					start.await();
+					var pages = new HashSet<Integer>();
+					for (int j = 0; j < 16; j++) {
+						pages.add(allocator.alloc(1000).get().pageNr());
+					}
+					return pages;
+				});
+			}
+			var touched = new HashSet<Integer>();
+			for (var future : executor.invokeAll(tasks)) {
+				for (var pageNr : future.get()) {
+					assertThat(touched.add(pageNr)).isTrue();
+				}
+			}
+			assertThat(touched).hasSize(16);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package introdb.heap.alloc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest {
+
+	private static final int MIN_REGION_SIZE = 128;
+	private static final int _4Kb = 4 * 1024;
+
+	private Path path;
+
+	@Before
+	public void setUp() throws IOException {
+		path = Files.createTempFile("heap", ".fsm");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	@Test
+	public void restore_allocator_with_different_number_of_stripes() throws IOException {
+		var allocator = new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 2);
+		var kept = allocator.alloc(1024).get();
+		var freed = allocator.alloc(1024).get();
+		allocator.free(freed);
+		// page of the other stripe, so one in between stays untouched
+		var otherPage = new Region(4, 0, _4Kb);
+		allocator.reserve(otherPage);
+
+		FreeSpaceMap.save(path, _4Kb, allocator);
+		var restored = new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 3);
+
+		assertThat(FreeSpaceMap.load(path, _4Kb, 8, restored)).isTrue();
+		assertThatThrownBy(() -> restored.reserve(kept)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> restored.reserve(otherPage)).isInstanceOf(IllegalArgumentException.class);
+		restored.reserve(freed);
+		restored.reserve(new Region(kept.pageNr() == 0 ? 1 : 0, 0, _4Kb));
+	}
+
+	@Test
+	public void ignore_map_once_loaded() throws IOException {
+		var allocator = new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1);
+		allocator.alloc(1024);
+		FreeSpaceMap.save(path, _4Kb, allocator);
+
+		assertThat(FreeSpaceMap.load(path, _4Kb, 8, new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1))).isTrue();
+		assertThat(FreeSpaceMap.load(path, _4Kb, 8, new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1))).isFalse();
+	}
+
+	@Test
+	public void ignore_map_of_other_heap_file() throws IOException {
+		var allocator = new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1);
+		allocator.reserve(new Region(7, 0, MIN_REGION_SIZE));
+		FreeSpaceMap.save(path, _4Kb, allocator);
+
+		assertThat(FreeSpaceMap.load(path, _4Kb, 4, new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1))).isFalse();
+		FreeSpaceMap.save(path, _4Kb, allocator);
+		assertThat(FreeSpaceMap.load(path, 2 * _4Kb, 8, new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1))).isFalse();
+	}
+
+	@Test
+	public void ignore_missing_map() throws IOException {
+		Files.delete(path);
+
+		assertThat(FreeSpaceMap.load(path, _4Kb, 8, new ConcurrentRegionAllocator(8, _4Kb, MIN_REGION_SIZE, 1))).isFalse();
+	}
+
+}
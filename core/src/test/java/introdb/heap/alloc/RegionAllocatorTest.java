@@ -108,4 +108,86 @@ public class RegionAllocatorTest {
 		var region3 = regionAllocator.alloc(_4Kb);
 		assertThat(region3).get().isEqualTo(new Region(1, 0, _4Kb));
 	}
+
+	@Test
+	public void reserve_region() {
+		RegionAllocator regionAllocator = new RegionAllocator(2, _4Kb, MIN_REGION_SIZE);
+
+		regionAllocator.reserve(new Region(1, 1024, 1024));
+
+		assertThat(regionAllocator.alloc(_4Kb)).get().isEqualTo(new Region(0, 0, _4Kb));
+		assertThat(regionAllocator.alloc(1024)).get().isEqualTo(new Region(1, 0, 1024));
+		assertThat(regionAllocator.alloc(2048)).get().isEqualTo(new Region(1, 2048, 2048));
+	}
+
+	@Test
+	public void alloc_all_packs_regions_into_pages() {
+		RegionAllocator regionAllocator = new RegionAllocator(2, _4Kb, MIN_REGION_SIZE);
+
+		var regions = regionAllocator.allocAll(new int[] { 1024, 3072, 2048, 2048 });
+
+		assertThat(regions).get().asList().containsExactly(
+				new Region(0, 3072, 1024),
+				new Region(0, 0, 3072),
+				new Region(1, 0, 2048),
+				new Region(1, 2048, 2048));
+	}
+
+	@Test
+	public void alloc_all_or_nothing() {
+		RegionAllocator regionAllocator = new RegionAllocator(2, _4Kb, MIN_REGION_SIZE);
+
+		var regions = regionAllocator.allocAll(new int[] { _4Kb, _4Kb, 1024 });
+
+		assertThat(regions).isEmpty();
+		assertThat(regionAllocator.alloc(_4Kb)).get().isEqualTo(new Region(0, 0, _4Kb));
+		assertThat(regionAllocator.alloc(_4Kb)).get().isEqualTo(new Region(1, 0, _4Kb));
+	}
+
+	@Test(timeout = 10_000)
+	public void alloc_and_free_in_million_pages() {
+		RegionAllocator regionAllocator = new RegionAllocator(1_000_000, _4Kb, MIN_REGION_SIZE);
+
+		for (int i = 0; i < 1_000_000; i++) {
+			assertThat(regionAllocator.alloc(_4Kb - 1024)).isPresent();
+		}
+		for (int i = 0; i < 1_000_000; i++) {
+			assertThat(regionAllocator.alloc(1024)).get().isEqualTo(new Region(i, _4Kb - 1024, 1024));
+		}
+		assertThat(regionAllocator.alloc(MIN_REGION_SIZE)).isEmpty();
+
+		regionAllocator.free(new Region(999_999, _4Kb - 1024, 1024));
+		assertThat(regionAllocator.alloc(MIN_REGION_SIZE)).get().isEqualTo(new Region(999_999, _4Kb - 1024, MIN_REGION_SIZE));
+	}
+
+	@Test
+	public void dont_alloc_from_claimed_page() {
+		RegionAllocator regionAllocator = new RegionAllocator(2, _4Kb, MIN_REGION_SIZE);
+		var region0 = regionAllocator.alloc(1024).get();
+		var region1 = regionAllocator.alloc(1024).get();
+
+		assertThat(regionAllocator.claim(0)).isTrue();
+		regionAllocator.free(region0);
+
+		assertThat(regionAllocator.alloc(1024)).get().isEqualTo(new Region(1, 0, 1024));
+		assertThat(regionAllocator.claim(0)).isFalse();
+		regionAllocator.unclaim(0);
+		assertThat(regionAllocator.alloc(1024)).get().isEqualTo(new Region(0, 0, 1024));
+		regionAllocator.free(region1);
+	}
+
+	@Test
+	public void keep_regions_allocated_before_claim() {
+		RegionAllocator regionAllocator = new RegionAllocator(1, _4Kb, MIN_REGION_SIZE);
+		var region = regionAllocator.alloc(1024).get();
+
+		assertThat(regionAllocator.claim(0)).isTrue();
+		regionAllocator.unclaim(0);
+
+		assertThat(regionAllocator.alloc(3072)).get().isEqualTo(new Region(0, 1024, 3072));
+		assertThat(regionAllocator.alloc(MIN_REGION_SIZE)).isEmpty();
+		regionAllocator.free(region);
+		assertThat(regionAllocator.alloc(_4Kb)).isEmpty();
+	}
+
 }
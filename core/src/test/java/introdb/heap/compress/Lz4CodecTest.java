@@ -0,0 +1,90 @@
+package introdb.heap.compress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class Lz4CodecTest {
+
+	@Test
+	void round_trip_values_of_any_length() throws IOException {
+		var random = new Random(42);
+		for (int length = 0; length < 300; length++) {
+			var value = new byte[length];
+			for (int i = 0; i < length; i++) {
+				value[i] = (byte) random.nextInt(4);
+			}
+			assertArrayEquals(value, roundTrip(value));
+		}
+	}
+
+	@Test
+	void round_trip_long_runs_and_random_bytes() throws IOException {
+		var run = new byte[100_000];
+		var random = new byte[100_000];
+		new Random(42).nextBytes(random);
+
+		assertArrayEquals(run, roundTrip(run));
+		assertArrayEquals(random, roundTrip(random));
+	}
+
+	@Test
+	void compress_repetitive_value() {
+		var value = json(100);
+		var compressed = new byte[Lz4Codec.maxCompressedLength(value.length)];
+
+		assertTrue(Lz4Codec.compress(value, 0, value.length, compressed, 0) < value.length / 3);
+	}
+
+	@Test
+	void reject_corrupted_block() {
+		var value = json(10);
+		var compressed = new byte[Lz4Codec.maxCompressedLength(value.length)];
+		var length = Lz4Codec.compress(value, 0, value.length, compressed, 0);
+
+		assertThrows(IOException.class, () -> Lz4Codec.decompress(ByteBuffer.wrap(compressed, 0, length - 1), new byte[value.length]));
+		assertThrows(IOException.class, () -> Lz4Codec.decompress(ByteBuffer.wrap(compressed, 0, length), new byte[value.length + 1]));
+	}
+
+	@Test
+	void store_incompressible_values_raw() throws IOException {
+		var compressor = new ValueCompressor();
+		var random = new byte[1024];
+		new Random(42).nextBytes(random);
+
+		assertNull(compressor.compress(random));
+		// compression is not tried for a while after a miss
+		assertNull(compressor.compress(json(10)));
+		var compressed = compressor.compress(json(10));
+		assertNotNull(compressed);
+		assertArrayEquals(json(10), ValueCompressor.decompress(ByteBuffer.wrap(compressed)));
+		assertNull(compressor.compress(Arrays.copyOf(json(10), ValueCompressor.MIN_LENGTH - 1)));
+	}
+
+	private static byte[] roundTrip(byte[] value) throws IOException {
+		var compressed = new byte[Lz4Codec.maxCompressedLength(value.length) + 3];
+		var length = Lz4Codec.compress(value, 0, value.length, compressed, 3);
+		var decompressed = new byte[value.length];
+		Lz4Codec.decompress(ByteBuffer.wrap(compressed, 3, length), decompressed);
+		return decompressed;
+	}
+
+	private static byte[] json(int count) {
+		var json = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			json.append("{\"id\":").append(i).append(",\"name\":\"user").append(i).append("\",\"active\":true},");
+		}
+		return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
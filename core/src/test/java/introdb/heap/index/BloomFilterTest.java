@@ -0,0 +1,111 @@
+package introdb.heap.index;
+
+import static introdb.heap.index.HashIndex.location;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+
+	private Path path;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		path = Files.createTempFile("bloom", "0001");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		Files.delete(path);
+	}
+
+	@Test
+	void keep_false_positive_rate() {
+		var filter = BloomFilter.create(10000, 0.01, Long.MAX_VALUE);
+		var random = new Random(42);
+		var added = new long[10000];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = random.nextLong();
+			filter.add(added[i]);
+		}
+
+		var falsePositives = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain(random.nextLong())) {
+				falsePositives++;
+			}
+		}
+
+		for (var fingerprint : added) {
+			assertTrue(filter.mightContain(fingerprint));
+		}
+		// blocked filter trades a bit of accuracy for locality
+		assertTrue(falsePositives < 2000, falsePositives + " false positives");
+	}
+
+	@Test
+	void load_saved_filter_once() throws IOException {
+		var filter = BloomFilter.create(1000, 0.01, Long.MAX_VALUE);
+		filter.add(42L);
+
+		filter.save(path);
+		var loaded = BloomFilter.load(path);
+
+		assertNotNull(loaded);
+		assertTrue(loaded.mightContain(42L));
+		assertNull(BloomFilter.load(path));
+	}
+
+	@Test
+	void rebuild_filter_after_removes() throws IOException {
+		var indexPath = Files.createTempFile("index", "0001");
+		try (var index = HashIndex.open(indexPath, 4 * 1024)) {
+			for (long i = 0; i < 4000; i++) {
+				index.put(HashIndex.fingerprint(new byte[] { (byte) i, (byte) (i >>> 8) }), location(0, 0), l -> true);
+			}
+			var filter = IndexFilter.open(path, index, 0.01, Long.MAX_VALUE);
+
+			for (long i = 0; i < 3000; i++) {
+				index.remove(HashIndex.fingerprint(new byte[] { (byte) i, (byte) (i >>> 8) }), l -> true);
+				filter.remove();
+			}
+			filter.close();
+
+			// rebuild starts once a half of keys is removed
+			var present = 0;
+			for (long i = 0; i < 2000; i++) {
+				if (filter.mightContain(HashIndex.fingerprint(new byte[] { (byte) i, (byte) (i >>> 8) }))) {
+					present++;
+				}
+			}
+			assertTrue(present < 200, present + " removed keys in filter");
+			for (long i = 3000; i < 4000; i++) {
+				assertTrue(filter.mightContain(HashIndex.fingerprint(new byte[] { (byte) i, (byte) (i >>> 8) })));
+			}
+		} finally {
+			Files.delete(indexPath);
+		}
+	}
+
+	@Test
+	void never_miss_fingerprint_when_memory_is_exceeded() {
+		var filter = BloomFilter.create(1000, 0.01, 64);
+		for (long i = 0; i < 1000; i++) {
+			filter.add(i);
+		}
+
+		for (long i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain(i));
+		}
+	}
+
+}
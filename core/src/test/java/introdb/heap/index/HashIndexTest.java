@@ -0,0 +1,184 @@
+package introdb.heap.index;
+
+import static introdb.heap.index.HashIndex.NOT_FOUND;
+import static introdb.heap.index.HashIndex.location;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HashIndexTest {
+
+	// small pages, so buckets are split often
+	private static final int PAGE_SIZE = 128;
+
+	private Path indexPath;
+	private HashIndex index;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		indexPath = Files.createTempFile("index", "0001");
+		index = HashIndex.open(indexPath, PAGE_SIZE);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		index.close();
+		Files.delete(indexPath);
+	}
+
+	@Test
+	void put_and_get_location() throws IOException {
+		index.put(1L, location(1, 128), l -> true);
+
+		assertEquals(location(1, 128), index.get(1L, l -> true));
+		assertEquals(NOT_FOUND, index.get(2L, l -> true));
+	}
+
+	@Test
+	void replace_location_of_matching_key() throws IOException {
+		index.put(1L, location(1, 128), l -> true);
+
+		var previous = index.put(1L, location(2, 256), l -> l == location(1, 128));
+
+		assertEquals(location(1, 128), previous);
+		assertEquals(location(2, 256), index.get(1L, l -> true));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	void keep_locations_of_colliding_keys() throws IOException {
+		index.put(1L, location(1, 0), l -> false);
+		index.put(1L, location(2, 0), l -> false);
+
+		assertEquals(location(1, 0), index.get(1L, l -> l == location(1, 0)));
+		assertEquals(location(2, 0), index.get(1L, l -> l == location(2, 0)));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	void remove_location() throws IOException {
+		index.put(1L, location(1, 0), l -> true);
+
+		assertEquals(location(1, 0), index.remove(1L, l -> true));
+		assertEquals(NOT_FOUND, index.remove(1L, l -> true));
+		assertEquals(NOT_FOUND, index.get(1L, l -> true));
+	}
+
+	@Test
+	void split_buckets() throws IOException {
+		for (int i = 0; i < 10_000; i++) {
+			index.put(HashIndex.fingerprint(Integer.toString(i).getBytes()), location(i, i), l -> false);
+		}
+
+		for (int i = 0; i < 10_000; i++) {
+			var expected = location(i, i);
+			assertEquals(expected, index.get(HashIndex.fingerprint(Integer.toString(i).getBytes()), l -> l == expected));
+		}
+		assertEquals(10_000, index.size());
+	}
+
+	@Test
+	void update_index_while_key_is_matched() throws Exception {
+		index.put(1L, location(1, 0), l -> true);
+		var matching = new CountDownLatch(1);
+		var updated = new CountDownLatch(1);
+		var executor = Executors.newSingleThreadExecutor();
+		try {
+			var lookup = executor.submit(() -> index.get(1L, l -> {
+				matching.countDown();
+				try {
+					return updated.await(1, TimeUnit.MINUTES);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}));
+			matching.await();
+
+			// would wait for lookup if matcher ran under index lock
+			index.put(1L, location(2, 0), l -> true);
+			index.put(2L, location(3, 0), l -> true);
+			updated.countDown();
+
+			assertEquals(location(1, 0), (long) lookup.get());
+			assertEquals(location(2, 0), index.get(1L, l -> true));
+			assertEquals(location(3, 0), index.get(2L, l -> true));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void put_and_remove_concurrently() throws Exception {
+		var executor = Executors.newFixedThreadPool(8);
+		try {
+			var tasks = new ArrayList<Callable<Void>>();
+			for (int t = 0; t < 8; t++) {
+				var first = t * 2_000;
+				tasks.add(() -> {
+					for (int i = first; i < first + 2_000; i++) {
+						var location = location(i, i);
+						index.put(HashIndex.fingerprint(Integer.toString(i).getBytes()), location, l -> l == location);
+					}
+					for (int i = first; i < first + 2_000; i += 2) {
+						var location = location(i, i);
+						assertEquals(location, index.remove(HashIndex.fingerprint(Integer.toString(i).getBytes()), l -> l == location));
+					}
+					return null;
+				});
+			}
+			for (var future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		for (int i = 0; i < 16_000; i++) {
+			var location = location(i, i);
+			assertEquals(i % 2 == 0 ? NOT_FOUND : location, index.get(HashIndex.fingerprint(Integer.toString(i).getBytes()), l -> l == location));
+		}
+		assertEquals(8_000, index.size());
+	}
+
+	@Test
+	void load_closed_index() throws IOException {
+		for (int i = 0; i < 1_000; i++) {
+			index.put(HashIndex.fingerprint(Integer.toString(i).getBytes()), location(i, i), l -> false);
+		}
+		assertFalse(index.isValid());
+
+		index.close();
+		index = HashIndex.open(indexPath, PAGE_SIZE);
+
+		assertTrue(index.isValid());
+		for (int i = 0; i < 1_000; i++) {
+			var expected = location(i, i);
+			assertEquals(expected, index.get(HashIndex.fingerprint(Integer.toString(i).getBytes()), l -> l == expected));
+		}
+	}
+
+	@Test
+	void invalid_when_not_closed() throws IOException {
+		index.put(1L, location(1, 0), l -> true);
+
+		var reopened = HashIndex.open(indexPath, PAGE_SIZE);
+
+		assertFalse(reopened.isValid());
+		assertEquals(0, reopened.size());
+		reopened.close();
+	}
+
+}
@@ -1,10 +1,30 @@
 package introdb.heap.lock;
 
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
@@ -86,4 +106,217 @@ public class LockManagerTest {
 		verify(writeLockSpy).lock();
 		verify(writeLockSpy).unlock();		
 	}
+
+	@Test
+	public void hold_readlock_until_lease_closed() throws Exception {
+		var lockSupport = lockManager.lockForPage(0);
+
+		try (var lease = lockSupport.readLease()) {
+			verify(readLockSpy).lock();
+			verify(readLockSpy, never()).unlock();
+		}
+
+		verify(readLockSpy).unlock();
+	}
+
+	@Test
+	public void hold_writelock_until_lease_closed() throws Exception {
+		var lockSupport = lockManager.lockForPage(0);
+
+		try (var lease = lockSupport.writeLease()) {
+			verify(writeLockSpy).lock();
+			verify(writeLockSpy, never()).unlock();
+		}
+
+		verify(writeLockSpy).unlock();
+	}
+
+	@Test
+	public void run_optimistic_read_without_lock() throws Exception {
+		var stamped = new LockManager(LockManager.LockType.STAMPED);
+		var lockSupport = stamped.lockForPage(0);
+		var calls = new AtomicInteger();
+
+		var operation = lockSupport.inOptimisticReadOperation(calls::incrementAndGet);
+
+		assertEquals(Integer.valueOf(1), operation.get());
+		stamped.shutdown();
+	}
+
+	@Test
+	public void rerun_optimistic_read_when_writer_got_in() throws Exception {
+		var stamped = new LockManager(LockManager.LockType.STAMPED);
+		var lockSupport = stamped.lockForPage(0);
+		var calls = new AtomicInteger();
+
+		var operation = lockSupport.inOptimisticReadOperation(() -> {
+			if (calls.incrementAndGet() == 1) {
+				CompletableFuture.runAsync(() -> lockSupport.inWriteOperation(() -> null).join()).join();
+				throw new IllegalStateException("inconsistent state");
+			}
+			return "read";
+		});
+
+		assertEquals("read", operation.get());
+		assertEquals(2, calls.get());
+		stamped.shutdown();
+	}
+
+	@Test
+	public void hold_stamped_readlock_until_lease_closed() throws Exception {
+		var stamped = new LockManager(LockManager.LockType.STAMPED);
+		var lockSupport = stamped.lockForPage(0);
+
+		CompletableFuture<Object> write;
+		try (var lease = lockSupport.readLease()) {
+			write = CompletableFuture.supplyAsync(() -> lockSupport.inWriteOperation(() -> null).join());
+			assertThrows(TimeoutException.class, () -> write.get(100, TimeUnit.MILLISECONDS));
+		}
+
+		write.get(1, TimeUnit.SECONDS);
+		stamped.shutdown();
+	}
+
+	@Test
+	public void share_striped_locks_between_pages() throws Exception {
+		var striped = new LockManager(LockManager.LockType.READ_WRITE, 3);
+
+		assertSame(striped.lockForPage(1), striped.lockForPage(1));
+		assertNotSame(striped.lockForPage(1), striped.lockForPage(2));
+		// stripe count is rounded up to 4
+		assertSame(striped.lockForPage(1), striped.lockForPage(5));
+		assertNotSame(striped.lockForPage(1), striped.lockForPage(4));
+		striped.shutdown();
+	}
+
+	@Test
+	public void hold_locks_of_page_range_until_lease_closed() throws Exception {
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0);
+
+		CompletableFuture<Object> write;
+		try (var lease = manager.lockForPageRange(0, 4).readLease()) {
+			write = CompletableFuture.supplyAsync(() -> manager.lockForPage(3).inWriteOperation(() -> null).join());
+			assertThrows(TimeoutException.class, () -> write.get(100, TimeUnit.MILLISECONDS));
+		}
+
+		write.get(1, TimeUnit.SECONDS);
+		manager.shutdown();
+	}
+
+	@Test
+	public void time_out_waiting_for_page_lock() throws Exception {
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0, Duration.ofMillis(50));
+		var page = manager.lockForPage(1);
+
+		var operation = page.inWriteOperation(() -> CompletableFuture.supplyAsync(() -> manager.lockForPages(0, 1).inReadOperation(() -> null)).join());
+
+		var e = assertThrows(ExecutionException.class, () -> operation.get().get());
+		assertTrue(e.getCause() instanceof LockTimeoutException);
+		assertEquals(1, manager.stats().timeouts());
+		assertEquals(1, manager.stats().waits());
+		manager.shutdown();
+	}
+
+	@Test
+	public void abort_one_thread_of_deadlock() throws Exception {
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0);
+		var barrier = new CyclicBarrier(2);
+		var executor = Executors.newFixedThreadPool(2);
+
+		var first = CompletableFuture.supplyAsync(() -> lockInTurn(manager, barrier, 1, 2), executor);
+		var second = CompletableFuture.supplyAsync(() -> lockInTurn(manager, barrier, 2, 1), executor);
+
+		var results = List.of(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+		assertTrue(results.contains("locked"));
+		assertTrue(results.contains("deadlock"));
+		assertEquals(1, manager.stats().deadlocks());
+		executor.shutdown();
+		manager.shutdown();
+	}
+
+	private static String lockInTurn(LockManager manager, CyclicBarrier barrier, int firstPage, int secondPage) {
+		try {
+			return manager.lockForPages(firstPage).inWriteOperation(() -> {
+				try {
+					barrier.await();
+				} catch (InterruptedException | BrokenBarrierException e) {
+					throw new IllegalStateException(e);
+				}
+				return manager.lockForPages(secondPage).inWriteOperation(() -> "locked").join();
+			}).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof DeadlockException) {
+				return "deadlock";
+			}
+			throw e;
+		}
+	}
+
+	@Test
+	public void run_operation_inline_when_lock_is_free() throws Exception {
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0, Duration.ofSeconds(1), LockExecution.boundedIO(1, 8));
+
+		var operation = manager.lockForPage(0).inWriteOperation(() -> Thread.currentThread());
+
+		assertSame(Thread.currentThread(), operation.get());
+		manager.shutdown();
+	}
+
+	@Test
+	public void hand_off_operation_when_lock_is_taken() throws Exception {
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0, Duration.ofSeconds(1), LockExecution.boundedIO(1, 8));
+		var lockSupport = manager.lockForPage(0);
+
+		CompletableFuture<Thread> operation;
+		try (var lease = lockSupport.readLease()) {
+			operation = lockSupport.inWriteOperation(() -> Thread.currentThread());
+			assertFalse(operation.isDone());
+		}
+
+		assertTrue(operation.get(1, TimeUnit.SECONDS).getName().startsWith("page-io-"));
+		manager.shutdown();
+	}
+
+	@Test
+	public void queue_writes_of_page_in_order() throws Exception {
+		var executor = Executors.newSingleThreadExecutor();
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0, Duration.ofSeconds(1), LockExecution.serial(executor));
+		var lockSupport = manager.lockForPage(0);
+		var written = new CopyOnWriteArrayList<Integer>();
+
+		var operations = new ArrayList<CompletableFuture<Boolean>>();
+		try (var lease = lockSupport.readLease()) {
+			for (int i = 0; i < 3; i++) {
+				var value = i;
+				operations.add(lockSupport.inWriteOperation(() -> written.add(value)));
+			}
+			assertTrue(operations.stream().noneMatch(CompletableFuture::isDone));
+		}
+
+		CompletableFuture.allOf(operations.toArray(new CompletableFuture[0])).get(1, TimeUnit.SECONDS);
+		assertEquals(List.of(0, 1, 2), written);
+		executor.shutdown();
+		manager.shutdown();
+	}
+
+	@Test
+	public void fail_queued_writes_when_executor_rejects_drain() throws Exception {
+		var calls = new AtomicInteger();
+		Executor executor = task -> {
+			if (calls.getAndIncrement() == 0) {
+				throw new RejectedExecutionException();
+			}
+			task.run();
+		};
+		var manager = new LockManager(LockManager.LockType.READ_WRITE, 0, Duration.ofSeconds(1), LockExecution.serial(executor));
+		var lockSupport = manager.lockForPage(0);
+
+		var rejected = lockSupport.inWriteOperation(() -> 1);
+		var e = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+		// next write schedules drain again
+		assertEquals(2, (int) lockSupport.inWriteOperation(() -> 2).get(1, TimeUnit.SECONDS));
+		manager.shutdown();
+	}
 }
@@ -0,0 +1,175 @@
+package introdb.heap.page;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import introdb.heap.lock.LockManager;
+
+class BufferPoolTest {
+
+	private static final int PAGE_SIZE = 4 * 1024;
+
+	private Path path;
+	private ChannelPageFile pageFile;
+	private LockManager lockManager;
+	private BufferPool bufferPool;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		path = Files.createTempFile("pages", "0001");
+		pageFile = new ChannelPageFile(path, PAGE_SIZE, FlushPolicy.onClose());
+		lockManager = new LockManager();
+		bufferPool = new BufferPool(pageFile, 2, ClockPolicy::new, lockManager);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		bufferPool.close();
+		lockManager.shutdown();
+		Files.delete(path);
+	}
+
+	@Test
+	void pin_cached_page() throws IOException {
+		var frame = bufferPool.pin(0);
+		bufferPool.unpin(frame, false);
+
+		assertSame(frame, bufferPool.pin(0));
+		assertEquals(1, bufferPool.stats().hits());
+		assertEquals(1, bufferPool.stats().misses());
+	}
+
+	@Test
+	void pin_prefetched_page() throws IOException {
+		var frame = bufferPool.pin(1);
+		frame.buffer().putInt(0, 42);
+		bufferPool.unpin(frame, true);
+		bufferPool.flush();
+		bufferPool.unpin(bufferPool.pin(2), false);
+		bufferPool.unpin(bufferPool.pin(3), false);
+
+		bufferPool.prefetch(1);
+		frame = bufferPool.pin(1);
+
+		assertEquals(42, frame.buffer().getInt(0));
+		assertEquals(4, bufferPool.stats().misses());
+		assertEquals(1, bufferPool.stats().hits());
+	}
+
+	@Test
+	void share_page_lock_while_page_is_cached() throws IOException {
+		var frame = bufferPool.pin(0);
+
+		assertSame(lockManager.lockForPage(0), frame.lock());
+	}
+
+	@Test
+	void write_back_dirty_page_when_evicted() throws IOException {
+		var frame = bufferPool.pin(0);
+		frame.buffer().putInt(0, 42);
+		bufferPool.unpin(frame, true);
+
+		bufferPool.unpin(bufferPool.pin(1), false);
+		bufferPool.unpin(bufferPool.pin(2), false);
+
+		assertEquals(1, bufferPool.stats().evictions());
+		assertEquals(1, bufferPool.stats().writeBacks());
+		assertEquals(42, pageFile.read(0).getInt(0));
+	}
+
+	@Test
+	void write_back_dirty_pages_when_flushed() throws IOException {
+		var frame = bufferPool.pin(1);
+		frame.buffer().putInt(0, 42);
+		bufferPool.unpin(frame, true);
+
+		bufferPool.flush();
+
+		assertEquals(42, pageFile.read(1).getInt(0));
+		assertEquals(0, bufferPool.stats().evictions());
+	}
+
+	@Test
+	void never_evict_pinned_page() throws Exception {
+		var frame0 = bufferPool.pin(0);
+		var frame1 = bufferPool.pin(1);
+
+		var pin2 = CompletableFuture.supplyAsync(() -> {
+			try {
+				return bufferPool.pin(2);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		assertThrows(TimeoutException.class, () -> pin2.get(100, TimeUnit.MILLISECONDS));
+		assertFalse(pin2.isDone());
+
+		bufferPool.unpin(frame1, false);
+
+		assertSame(frame1, pin2.get(1, TimeUnit.SECONDS));
+		assertEquals(0, frame0.pageNr());
+		assertEquals(2, frame1.pageNr());
+	}
+
+	@Test
+	void hit_page_while_victim_is_written_back() throws Exception {
+		var writeStarted = new CountDownLatch(1);
+		var writeAllowed = new CountDownLatch(1);
+		var blockingFile = new ChannelPageFile(path, PAGE_SIZE, FlushPolicy.onClose()) {
+			@Override
+			public void write(int pageNr, ByteBuffer page) throws IOException {
+				writeStarted.countDown();
+				try {
+					writeAllowed.await();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				super.write(pageNr, page);
+			}
+		};
+		var pool = new BufferPool(blockingFile, 2, ClockPolicy::new, lockManager);
+		var frame = pool.pin(0);
+		frame.buffer().putInt(0, 42);
+		pool.unpin(frame, true);
+		pool.unpin(pool.pin(1), false);
+
+		var pin2 = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool.pin(2);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		assertTrue(writeStarted.await(1, TimeUnit.SECONDS));
+
+		pool.unpin(pool.pin(1), false);
+		assertFalse(pin2.isDone());
+
+		writeAllowed.countDown();
+		assertEquals(2, pin2.get(1, TimeUnit.SECONDS).pageNr());
+		assertEquals(42, blockingFile.read(0).getInt(0));
+		assertEquals(1, pool.stats().writeBacks());
+		pool.unpin(pin2.get(), false);
+		pool.close();
+	}
+
+}
@@ -0,0 +1,71 @@
+package introdb.heap.page;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class EvictionPolicyTest {
+
+	@Test
+	void clock_gives_referenced_frames_second_chance() {
+		var policy = new ClockPolicy(3);
+		policy.loaded(0);
+		policy.loaded(1);
+		policy.loaded(2);
+
+		// first sweep clears reference bits
+		assertEquals(0, policy.victim(frame -> true));
+
+		policy.accessed(1);
+		assertEquals(2, policy.victim(frame -> true));
+	}
+
+	@Test
+	void clock_skips_frames_which_are_not_evictable() {
+		var policy = new ClockPolicy(3);
+
+		assertEquals(1, policy.victim(frame -> frame != 0));
+		assertEquals(-1, policy.victim(frame -> false));
+	}
+
+	@Test
+	void lru_k_evicts_frames_with_less_than_k_accesses_first() {
+		var policy = new LruKPolicy(3, 2);
+		policy.loaded(0);
+		policy.accessed(0);
+		policy.loaded(1);
+		policy.loaded(2);
+		policy.accessed(2);
+
+		// frame 1 was accessed only once, even though it is not least recently used
+		assertEquals(1, policy.victim(frame -> true));
+	}
+
+	@Test
+	void lru_k_evicts_frame_with_oldest_kth_access() {
+		var policy = new LruKPolicy(3, 2);
+		policy.loaded(0);
+		policy.loaded(1);
+		policy.accessed(1);
+		policy.loaded(2);
+		policy.accessed(2);
+		// frame 0 was used most recently, but its second last access is the oldest
+		policy.accessed(0);
+
+		assertEquals(0, policy.victim(frame -> true));
+	}
+
+	@Test
+	void lru_k_forgets_history_of_evicted_page() {
+		var policy = new LruKPolicy(2, 2);
+		policy.loaded(0);
+		policy.accessed(0);
+		policy.loaded(1);
+		policy.accessed(1);
+
+		policy.loaded(0);
+
+		assertEquals(0, policy.victim(frame -> true));
+	}
+
+}
@@ -0,0 +1,114 @@
+package introdb.heap.page;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MappedPageFileTest {
+
+	private static final int PAGE_SIZE = 4 * 1024;
+	// two pages per segment, so tests cross segment boundaries
+	private static final int SEGMENT_SIZE = 2 * PAGE_SIZE;
+
+	private Path path;
+	private MappedPageFile pageFile;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		path = Files.createTempFile("pages", "0001");
+		pageFile = new MappedPageFile(path, 5, PAGE_SIZE, SEGMENT_SIZE, FlushPolicy.everyWrite());
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		pageFile.close();
+		Files.delete(path);
+	}
+
+	@Test
+	void read_zeroed_page_when_never_written() throws IOException {
+		var page = pageFile.read(3);
+
+		assertEquals(PAGE_SIZE, page.capacity());
+		for (int i = 0; i < PAGE_SIZE; i++) {
+			assertEquals(0, page.get(i));
+		}
+	}
+
+	@Test
+	void read_view_of_mapped_page() throws IOException {
+		var page = pageFile.read(1);
+		page.put(10, (byte) 1);
+
+		assertEquals(1, pageFile.read(1).get(10));
+		assertEquals(0, pageFile.read(2).get(10));
+	}
+
+	@Test
+	void read_written_pages_after_reopen() throws IOException {
+		for (int pageNr = 0; pageNr < 5; pageNr++) {
+			var page = pageFile.read(pageNr);
+			page.putInt(0, pageNr + 1);
+			pageFile.write(pageNr, page);
+		}
+
+		pageFile.close();
+		pageFile = new MappedPageFile(path, 5, PAGE_SIZE, SEGMENT_SIZE, FlushPolicy.onClose());
+
+		assertEquals(5, pageFile.nrOfPages());
+		for (int pageNr = 0; pageNr < 5; pageNr++) {
+			assertEquals(pageNr + 1, pageFile.read(pageNr).getInt(0));
+		}
+	}
+
+	@Test
+	void read_pages_written_through_channel() throws IOException {
+		try (var channelPageFile = new ChannelPageFile(path, PAGE_SIZE, FlushPolicy.onClose())) {
+			var page = channelPageFile.read(4);
+			page.putInt(PAGE_SIZE - 4, 42);
+			channelPageFile.write(4, page);
+		}
+
+		assertEquals(42, pageFile.read(4).getInt(PAGE_SIZE - 4));
+	}
+
+	@Test
+	void count_pages_up_to_last_written_one() throws IOException {
+		var page = pageFile.read(2);
+		page.putInt(0, 1);
+		pageFile.write(2, page);
+
+		// mapping grew file to the end of second segment
+		assertEquals(4 * PAGE_SIZE, Files.size(path));
+		assertEquals(3, pageFile.nrOfPages());
+	}
+
+	@Test
+	void count_written_pages_when_not_closed() throws IOException {
+		var page = pageFile.read(2);
+		page.putInt(0, 1);
+		pageFile.write(2, page);
+
+		try (var reopened = new MappedPageFile(path, 5, PAGE_SIZE, SEGMENT_SIZE, FlushPolicy.onClose())) {
+			assertEquals(3, reopened.nrOfPages());
+		}
+	}
+
+	@Test
+	void truncate_file_to_written_pages_on_close() throws IOException {
+		var page = pageFile.read(2);
+		page.putInt(0, 1);
+		pageFile.write(2, page);
+
+		pageFile.close();
+
+		assertEquals(3 * PAGE_SIZE, Files.size(path));
+	}
+
+}
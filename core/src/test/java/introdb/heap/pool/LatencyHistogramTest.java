@@ -0,0 +1,47 @@
+package introdb.heap.pool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	@Test
+	void map_values_to_buckets_with_relative_precision() {
+		for (long value : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE }) {
+			var bucket = LatencyHistogram.bucket(value);
+			assertTrue(LatencyHistogram.lowestEquivalent(bucket) <= value);
+			assertTrue(LatencyHistogram.highestEquivalent(bucket) >= value);
+			assertTrue(LatencyHistogram.highestEquivalent(bucket) - LatencyHistogram.lowestEquivalent(bucket) <= value / 8);
+		}
+	}
+
+	@Test
+	void return_values_at_percentiles() {
+		var histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(1000, histogram.count());
+		assertEquals(500_500.0, histogram.mean(), 0.1);
+		assertWithinPrecision(500_000, histogram.valueAtPercentile(50));
+		assertWithinPrecision(990_000, histogram.valueAtPercentile(99));
+		assertWithinPrecision(1_000_000, histogram.max());
+	}
+
+	@Test
+	void return_zero_when_empty() {
+		var histogram = new LatencyHistogram();
+
+		assertEquals(0, histogram.valueAtPercentile(99));
+		assertEquals(0, histogram.max());
+		assertEquals(0.0, histogram.mean());
+	}
+
+	private static void assertWithinPrecision(long expected, long actual) {
+		assertTrue(actual >= expected && actual <= expected + expected / 8, () -> actual + " is not within precision of " + expected);
+	}
+
+}
@@ -5,8 +5,21 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -82,4 +95,146 @@ class ObjectPoolTest {
 		assertNotSame(second.get(),first.get());
 	}
 
+	@Test
+	void borrow_object_cached_by_other_thread() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 1);
+
+		var object = CompletableFuture.supplyAsync(() -> {
+			var borrowed = objectPool.borrowObject().join();
+			objectPool.returnObject(borrowed);
+			return borrowed;
+		}).get(1, TimeUnit.SECONDS);
+
+		assertEquals(object, objectPool.borrowObject().get(1, TimeUnit.SECONDS));
+		assertEquals(1, objectPool.getPoolSize());
+	}
+
+	@Test
+	void complete_waiter_when_object_returned_by_other_thread() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 1);
+		var object = objectPool.borrowObject().get();
+
+		var waiter = CompletableFuture.supplyAsync(() -> objectPool.borrowObject()).get(1, TimeUnit.SECONDS);
+		assertFalse(waiter.isDone());
+
+		objectPool.returnObject(object);
+
+		assertEquals(object, waiter.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void never_exceed_pool_size_when_borrowed_concurrently() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 4);
+		var borrowed = ConcurrentHashMap.<Object>newKeySet();
+		var overlaps = new AtomicInteger();
+		var executor = Executors.newFixedThreadPool(8);
+
+		var tasks = new ArrayList<Future<?>>();
+		for (int i = 0; i < 8; i++) {
+			tasks.add(executor.submit(() -> {
+				for (int j = 0; j < 10_000; j++) {
+					var object = objectPool.borrowObject().join();
+					if (!borrowed.add(object)) {
+						overlaps.incrementAndGet();
+					}
+					borrowed.remove(object);
+					objectPool.returnObject(object);
+				}
+				return null;
+			}));
+		}
+		for (var task : tasks) {
+			task.get(30, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+
+		assertEquals(0, overlaps.get());
+		assertTrue(objectPool.getPoolSize() <= 4);
+		assertEquals(0, objectPool.getInUse());
+	}
+
+	@Test
+	void grow_pool_when_borrower_waits_longer_than_target() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, PoolSizing.adaptive(1, 2, Duration.ofMillis(10), Duration.ofMinutes(1)));
+
+		var first = objectPool.borrowObject().get();
+		var second = objectPool.borrowObject();
+
+		assertNotSame(first, second.get(1, TimeUnit.SECONDS));
+		assertEquals(2, objectPool.getTargetPoolSize());
+		assertEquals(2, objectPool.getPoolSize());
+		assertTrue(objectPool.getBorrowWaitTimes().max() >= TimeUnit.MILLISECONDS.toNanos(10));
+	}
+
+	@Test
+	void evict_idle_objects_down_to_minimum_size() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, PoolSizing.adaptive(1, 3, Duration.ofMillis(1), Duration.ofMillis(20)));
+		var objects = new ArrayList<Object>();
+		for (int i = 0; i < 3; i++) {
+			objects.add(objectPool.borrowObject().get(1, TimeUnit.SECONDS));
+		}
+		assertEquals(3, objectPool.getPoolSize());
+
+		objects.forEach(objectPool::returnObject);
+		Thread.sleep(100);
+
+		assertEquals(1, objectPool.getPoolSize());
+		assertEquals(1, objectPool.getTargetPoolSize());
+		assertEquals(3, objectPool.getHoldTimes().count());
+	}
+
+	@Test
+	void evict_idle_objects_which_are_not_valid() throws Exception {
+		var valid = new AtomicBoolean(true);
+		objectPool = new ObjectPool<>(Object::new, obj -> valid.get(), 5);
+		var objects = new ArrayList<Object>();
+		for (int i = 0; i < 5; i++) {
+			objects.add(objectPool.borrowObject().get());
+		}
+		// all but one stay cached in magazine of this thread
+		objects.forEach(objectPool::returnObject);
+
+		valid.set(false);
+		objectPool.evictIdle();
+
+		assertEquals(0, objectPool.getPoolSize());
+	}
+
+	@Test
+	void try_borrow_only_available_object() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 1);
+
+		var first = objectPool.tryBorrow();
+
+		assertNotNull(first);
+		assertNull(objectPool.tryBorrow());
+		objectPool.returnObject(first);
+		assertSame(first, objectPool.tryBorrow());
+	}
+
+	@Test
+	void time_out_borrow_when_out_of_objects() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 1);
+		var first = objectPool.borrow(1, TimeUnit.SECONDS);
+
+		assertThrows(TimeoutException.class, () -> objectPool.borrow(10, TimeUnit.MILLISECONDS));
+
+		objectPool.returnObject(first);
+		assertSame(first, objectPool.borrow(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void return_object_when_lease_closed() throws Exception {
+		objectPool = new ObjectPool<>(Object::new, obj -> true, 1);
+
+		Object leased;
+		try (var lease = objectPool.lease(1, TimeUnit.SECONDS)) {
+			leased = lease.get();
+			assertEquals(1, objectPool.getInUse());
+		}
+
+		assertEquals(0, objectPool.getInUse());
+		assertSame(leased, objectPool.tryBorrow());
+	}
+
 }
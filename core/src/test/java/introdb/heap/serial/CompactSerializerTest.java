@@ -0,0 +1,90 @@
+package introdb.heap.serial;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class CompactSerializerTest {
+
+	private final CompactSerializer serializer = new CompactSerializer();
+
+	@Test
+	void round_trip_common_types() throws Exception {
+		Serializable[] values = { null, "ala ma kota ą😀", "", 42, -1L, (short) 7, (byte) -3, true, false, 'x',
+				1.5f, Math.PI, UUID.randomUUID() };
+
+		for (var value : values) {
+			assertEquals(value, roundTrip(value));
+		}
+	}
+
+	@Test
+	void round_trip_byte_array() throws Exception {
+		var bytes = new byte[] { 1, 2, 3 };
+
+		assertArrayEquals(bytes, (byte[]) roundTrip(bytes));
+	}
+
+	@Test
+	void view_of_byte_array() throws Exception {
+		var bytes = ByteBuffer.wrap(serializer.serialize(new byte[] { 1, 2, 3 }));
+
+		var view = serializer.byteArray(bytes);
+
+		assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), view);
+		assertSame(bytes.array(), view.array());
+	}
+
+	@Test
+	void fall_back_to_java_serialization() throws Exception {
+		var list = new ArrayList<>(List.of(1, 2, 3));
+
+		var bytes = serializer.serialize(list);
+
+		assertEquals(CompactSerializer.JAVA, bytes[0]);
+		assertEquals(list, serializer.deserialize(ByteBuffer.wrap(bytes)));
+	}
+
+	@Test
+	void read_java_serialized_values() throws Exception {
+		var bytes = new JavaSerializer().serialize(42);
+
+		assertEquals(42, serializer.deserialize(ByteBuffer.wrap(bytes)));
+	}
+
+	@Test
+	void tag_common_types_compactly() throws Exception {
+		assertArrayEquals(new byte[] { CompactSerializer.INTEGER, 0, 0, 0, 1 }, serializer.serialize(1));
+		assertArrayEquals(new byte[] { CompactSerializer.STRING, 'a' }, serializer.serialize("a"));
+	}
+
+	@Test
+	void deserialize_remaining_bytes_only() throws Exception {
+		var buffer = ByteBuffer.allocate(16);
+		buffer.put((byte) 0xff).put(serializer.serialize("key"));
+		buffer.flip().position(1);
+
+		assertEquals("key", serializer.deserialize(buffer));
+		assertEquals(1, buffer.position());
+	}
+
+	@Test
+	void throw_exception_on_unknown_tag() {
+		assertThrows(IOException.class, () -> serializer.deserialize(ByteBuffer.wrap(new byte[] { 100 })));
+	}
+
+	private Object roundTrip(Serializable value) throws Exception {
+		return serializer.deserialize(ByteBuffer.wrap(serializer.serialize(value)));
+	}
+
+}
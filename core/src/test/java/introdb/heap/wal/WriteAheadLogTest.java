@@ -0,0 +1,129 @@
+package introdb.heap.wal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class WriteAheadLogTest {
+
+	private Path logPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		logPath = Files.createTempFile("heap", "wal");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		Files.delete(logPath);
+	}
+
+	@Test
+	void replay_committed_records() throws IOException {
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.everyOperation())) {
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 1 }, new byte[] { 2, 3 }));
+			log.commit(log.append(WriteAheadLog.REMOVE, new byte[] { 1 }, new byte[0]));
+		}
+
+		var records = replay();
+
+		assertEquals(2, records.size());
+		assertEquals(WriteAheadLog.PUT, records.get(0)[0][0]);
+		assertArrayEquals(new byte[] { 1 }, records.get(0)[1]);
+		assertArrayEquals(new byte[] { 2, 3 }, records.get(0)[2]);
+		assertEquals(WriteAheadLog.REMOVE, records.get(1)[0][0]);
+	}
+
+	@Test
+	void skip_torn_record() throws IOException {
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.everyOperation())) {
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 1 }, new byte[] { 2 }));
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 3 }, new byte[] { 4 }));
+		}
+		try (var channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+
+		assertEquals(1, replay().size());
+	}
+
+	@Test
+	void skip_corrupted_record() throws IOException {
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.everyOperation())) {
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 1 }, new byte[] { 2 }));
+		}
+		try (var channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 9 }), channel.size() - 1);
+		}
+
+		assertEquals(0, replay().size());
+	}
+
+	@Test
+	void drop_truncated_records() throws IOException {
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.everyOperation())) {
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 1 }, new byte[] { 2 }));
+			log.truncate();
+			assertEquals(0, log.size());
+		}
+
+		assertEquals(0, replay().size());
+	}
+
+	@Test
+	void group_commit_of_concurrent_writers() throws Exception {
+		var executor = Executors.newFixedThreadPool(8);
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.group(Duration.ofMillis(1)))) {
+			var futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 8; i++) {
+				var writer = (byte) i;
+				futures.add(executor.submit(() -> {
+					for (int j = 0; j < 100; j++) {
+						log.commit(log.append(WriteAheadLog.PUT, new byte[] { writer }, new byte[] { (byte) j }));
+					}
+					return null;
+				}));
+			}
+			for (var future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(800, replay().size());
+	}
+
+	@Test
+	void flush_async_records_on_close() throws IOException {
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.async(Duration.ofSeconds(10)))) {
+			log.commit(log.append(WriteAheadLog.PUT, new byte[] { 1 }, new byte[] { 2 }));
+		}
+
+		assertEquals(1, replay().size());
+	}
+
+	private List<byte[][]> replay() throws IOException {
+		var records = new ArrayList<byte[][]>();
+		try (var log = new WriteAheadLog(logPath, CommitPolicy.everyOperation())) {
+			log.replay((type, key, value) -> records.add(new byte[][] { { type }, key, value }));
+		}
+		return records;
+	}
+
+}
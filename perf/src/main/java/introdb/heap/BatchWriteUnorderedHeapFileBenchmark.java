@@ -0,0 +1,68 @@
+package introdb.heap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Benchmark)
+public class BatchWriteUnorderedHeapFileBenchmark {
+
+	// every invocation writes that many entries, so scores of batch sizes are comparable
+	private static final int ENTRIES = 1000;
+	// keys are overwritten, so heap file never fills up
+	private static final int KEYS = 100_000;
+
+	@Param({"1","10","100","1000"})
+	public int batchSize;
+	@Param({"512"})
+	public int bufferSize;
+	private byte[] buffer;
+
+	private UnorderedHeapFile heapFile;
+	private int key;
+	private Path tempFile;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		tempFile = Files.createTempFile("heap", "0001");
+		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024);
+		buffer = new byte[bufferSize];
+		key = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception{
+		heapFile.close();
+		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void writeBatches() throws Exception {
+		for (int i = 0; i < ENTRIES; i += batchSize) {
+			heapFile.putAll(nextBatch());
+		}
+	}
+
+	private List<Entry> nextBatch() {
+		var batch = new ArrayList<Entry>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			batch.add(new Entry(key, buffer));
+			key = (key + 1) % KEYS;
+		}
+		return batch;
+	}
+
+}
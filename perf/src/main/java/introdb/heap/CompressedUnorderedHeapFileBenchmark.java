@@ -0,0 +1,90 @@
+package introdb.heap;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Writes and reads of JSON-like values, which compress well, and random ones,
+ * which don't, with and without compression.
+ */
+@State(Scope.Benchmark)
+public class CompressedUnorderedHeapFileBenchmark {
+
+	private static final int NR_OF_ENTRIES = 10000;
+
+	@Param({"json","random"})
+	public String payload;
+	@Param({"true","false"})
+	public String compression;
+	@Param({"1024"})
+	public String valueSize;
+
+	private UnorderedHeapFile heapFile;
+	private Path tempFile;
+	private byte[][] values;
+	private int key;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		tempFile = Files.createTempFile("heap", "0001");
+		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024, new HeapFileOptions()
+				.compression(Boolean.parseBoolean(compression)));
+		values = new byte[64][];
+		var random = new Random(42);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = payload(random, Integer.parseInt(valueSize));
+		}
+		for (key = 0; key < NR_OF_ENTRIES; key++) {
+			heapFile.put(new Entry(key, values[key % values.length]));
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception {
+		heapFile.close();
+		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
+	}
+
+	@Benchmark
+	public void write() throws Exception {
+		heapFile.put(new Entry(key, values[key++ % values.length]));
+	}
+
+	@Benchmark
+	public Object read() throws Exception {
+		return heapFile.get(key++ % NR_OF_ENTRIES);
+	}
+
+	private byte[] payload(Random random, int size) {
+		var bytes = new byte[size];
+		switch (payload) {
+		case "json":
+			var json = new StringBuilder();
+			while (json.length() < size) {
+				json.append("{\"id\":").append(random.nextInt(100000))
+					.append(",\"name\":\"user").append(random.nextInt(1000))
+					.append("\",\"active\":").append(random.nextBoolean()).append("},");
+			}
+			System.arraycopy(json.toString().getBytes(StandardCharsets.UTF_8), 0, bytes, 0, size);
+			return bytes;
+		case "random":
+			random.nextBytes(bytes);
+			return bytes;
+		default:
+			throw new IllegalArgumentException("unknown payload " + payload);
+		}
+	}
+
+}
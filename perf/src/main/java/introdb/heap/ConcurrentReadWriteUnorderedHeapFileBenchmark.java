@@ -16,6 +16,8 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
+import introdb.heap.lock.LockManager.LockType;
+
 @State(Scope.Benchmark)
 public class ConcurrentReadWriteUnorderedHeapFileBenchmark {
 
@@ -23,6 +25,9 @@ public class ConcurrentReadWriteUnorderedHeapFileBenchmark {
 	
 	@Param( {"512","1024","2048"})
 	public int bufferSize;
+
+	@Param( {"READ_WRITE","STAMPED"})
+	public String lockType;
 	
 	private byte[] readKey_0 = toArrayWithPadding(0, 64);
 
@@ -46,7 +51,7 @@ public class ConcurrentReadWriteUnorderedHeapFileBenchmark {
 		}
 
 		tempFile = Files.createTempFile("heap", "0001");
-		heapFile = new UnorderedHeapFile(tempFile, MAX_PAGES, 4*1024);
+		heapFile = new UnorderedHeapFile(tempFile, MAX_PAGES, 4*1024, new HeapFileOptions().lockType(LockType.valueOf(lockType)));
 
 		heapFile.put(new Entry(readKey_0, toArrayWithPadding(0, bufferSize)));
 
@@ -55,7 +60,10 @@ public class ConcurrentReadWriteUnorderedHeapFileBenchmark {
 	
 	@TearDown(Level.Iteration)
 	public void tearDown() throws IOException{
+		heapFile.close();
 		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
 	}
 	
     @Benchmark
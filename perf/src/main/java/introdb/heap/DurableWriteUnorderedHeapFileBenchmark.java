@@ -0,0 +1,65 @@
+package introdb.heap;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import introdb.heap.wal.CommitPolicy;
+
+@State(Scope.Benchmark)
+@Threads(8)
+public class DurableWriteUnorderedHeapFileBenchmark {
+
+	@Param({"none","sync","group","async"})
+	public String commitPolicy;
+	private byte[] buffer = new byte[512];
+
+	private UnorderedHeapFile heapFile;
+	private AtomicInteger key;
+	private Path tempFile;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		tempFile = Files.createTempFile("heap", "0001");
+		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024, new HeapFileOptions().commitPolicy(commitPolicy()));
+		key = new AtomicInteger();
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception{
+		heapFile.close();
+		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.logPath(tempFile));
+	}
+
+	@Benchmark
+	public void writeBuffer() throws Exception {
+		heapFile.put(new Entry(key.incrementAndGet(),buffer));
+	}
+
+	private CommitPolicy commitPolicy() {
+		switch (commitPolicy) {
+		case "group":
+			return CommitPolicy.group(Duration.ofMillis(1));
+		case "none":
+			return null;
+		case "async":
+			return CommitPolicy.async(Duration.ofMillis(10));
+		default:
+			return CommitPolicy.everyOperation();
+		}
+	}
+
+}
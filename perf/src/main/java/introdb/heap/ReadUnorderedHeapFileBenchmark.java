@@ -1,5 +1,6 @@
 package introdb.heap;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -10,6 +11,11 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import introdb.heap.HeapFileOptions.PageIO;
 
 @State(Scope.Benchmark)
 public class ReadUnorderedHeapFileBenchmark {
@@ -19,13 +25,17 @@ public class ReadUnorderedHeapFileBenchmark {
 	@Param({"10","100","500"})
 	public String key;
 	
-	private Store heapFile;
+	@Param({"CHANNEL","MAPPED"})
+	public String pageIO;
+	
+	private UnorderedHeapFile heapFile;
 	private Path tempFile;
+	private final ByteBuffer dst = ByteBuffer.allocateDirect(4*1024);
 	
 	@Setup(Level.Trial)
 	public void setUp() throws Exception {
 		tempFile = Files.createTempFile("heap", "0001");
-		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024);
+		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024, new HeapFileOptions().pageIO(PageIO.valueOf(pageIO)));
 		for(int i=0;i<1000;i++) {
 			heapFile.put(new Entry(Integer.toString(i),buffer));			
 		}
@@ -33,7 +43,10 @@ public class ReadUnorderedHeapFileBenchmark {
 	
 	@TearDown(Level.Trial)
 	public void tearDown() throws Exception{
+		heapFile.close();
 		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
 	}
 	
     @Benchmark
@@ -41,4 +54,30 @@ public class ReadUnorderedHeapFileBenchmark {
     	return heapFile.get(key);
     }
 
+    @Benchmark
+    public int readKeyIntoBuffer() throws Exception {
+    	dst.clear();
+    	return heapFile.get(key, dst);
+    }
+
+    @Benchmark
+    public byte readKeyView() throws Exception {
+    	try (var view = heapFile.getView(key)) {
+    		return view.buffer().get(0);
+    	}
+    }
+
+    /**
+     * Runs read benchmarks with allocation profiler, so bytes allocated per
+     * read of each variant can be compared.
+     */
+    public static void main(String[] args) throws Exception {
+    	var options = new OptionsBuilder()
+    			.include(ReadUnorderedHeapFileBenchmark.class.getSimpleName())
+    			.addProfiler(GCProfiler.class)
+    			.forks(1)
+    			.build();
+    	new Runner(options).run();
+    }
+
 }
@@ -11,27 +11,41 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
+import introdb.heap.HeapFileOptions.PageIO;
+import introdb.heap.serial.CompactSerializer;
+import introdb.heap.serial.JavaSerializer;
+
 @State(Scope.Benchmark)
 public class WriteUnorderedHeapFileBenchmark {
 		
 	@Param( {"512","1024","2048"})
 	public int bufferSize; 
 	private byte[] buffer;
-	private Store heapFile;
+	@Param({"CHANNEL","MAPPED"})
+	public String pageIO;
+	@Param({"compact","java"})
+	public String serializer;
+	
+	private UnorderedHeapFile heapFile;
 	private int key;
 	private Path tempFile;
 	
 	@Setup(Level.Iteration)
 	public void setUp() throws Exception {
 		tempFile = Files.createTempFile("heap", "0001");
-		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024);
+		heapFile = new UnorderedHeapFile(tempFile, 50000, 4*1024, new HeapFileOptions()
+				.pageIO(PageIO.valueOf(pageIO))
+				.serializer("java".equals(serializer) ? new JavaSerializer() : new CompactSerializer()));
 		buffer = new byte[bufferSize];
 		key = 0;
 	}
 	
 	@TearDown(Level.Iteration)
 	public void tearDown() throws Exception{
+		heapFile.close();
 		Files.delete(tempFile);
+		Files.deleteIfExists(UnorderedHeapFile.indexPath(tempFile));
+		Files.deleteIfExists(UnorderedHeapFile.freeSpaceMapPath(tempFile));
 	}
 	
     @Benchmark
@@ -0,0 +1,83 @@
+package introdb.heap.alloc;
+
+import java.util.Optional;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Allocates and frees regions from many threads, compares single allocator
+ * guarded by a lock with striped one.
+ */
+@State(Scope.Benchmark)
+public class RegionAllocatorBenchmark {
+
+	private static final int NR_OF_PAGES = 1_000_000;
+	private static final int PAGE_SIZE = 4 * 1024;
+
+	@Param({"locked","striped"})
+	public String allocator;
+	@Param({"16"})
+	public int stripes;
+
+	private RegionAllocator lockedAllocator;
+	private ConcurrentRegionAllocator stripedAllocator;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		lockedAllocator = new RegionAllocator(NR_OF_PAGES, PAGE_SIZE, 32);
+		stripedAllocator = new ConcurrentRegionAllocator(NR_OF_PAGES, PAGE_SIZE, 32, stripes);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Region allocAndFree_1() {
+		return allocAndFree();
+	}
+
+	@Benchmark
+	@Threads(2)
+	public Region allocAndFree_2() {
+		return allocAndFree();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Region allocAndFree_4() {
+		return allocAndFree();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Region allocAndFree_8() {
+		return allocAndFree();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public Region allocAndFree_16() {
+		return allocAndFree();
+	}
+
+	private Region allocAndFree() {
+		if ("locked".equals(allocator)) {
+			Optional<Region> region;
+			synchronized (lockedAllocator) {
+				region = lockedAllocator.alloc(512);
+			}
+			synchronized (lockedAllocator) {
+				lockedAllocator.free(region.get());
+			}
+			return region.get();
+		}
+		var region = stripedAllocator.alloc(512).get();
+		stripedAllocator.free(region);
+		return region;
+	}
+
+}
@@ -0,0 +1,55 @@
+package introdb.heap.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import introdb.heap.lock.LockManager.LockType;
+
+/**
+ * Compares pooled page locks with striped ones, when pages are accessed at
+ * high rate, stripes = 0 means pooled locks.
+ */
+@State(Scope.Benchmark)
+public class LockManagerBenchmark {
+
+	@Param({"0","1024"})
+	public int stripes;
+
+	@Param({"4096"})
+	public int pages;
+
+	private LockManager lockManager;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		lockManager = new LockManager(LockType.READ_WRITE, stripes);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception {
+		lockManager.shutdown();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object readPage() {
+		var pageNr = ThreadLocalRandom.current().nextInt(pages);
+		return lockManager.lockForPage(pageNr).inReadOperation(() -> pageNr).join();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object writePage() {
+		var pageNr = ThreadLocalRandom.current().nextInt(pages);
+		return lockManager.lockForPage(pageNr).inWriteOperation(() -> pageNr).join();
+	}
+
+}
@@ -3,6 +3,8 @@ package introdb.heap.pool;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.openjdk.jmh.annotations.Benchmark;
@@ -33,9 +35,43 @@ public class ObjectPoolBenchmark {
 		pool.shutdown();
 	}
 
+	@Benchmark
+	@Threads(1)
+	public void testPool_1(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		borrowAndReturn(blackhole);
+	}
+
 	@Benchmark
 	@Threads(8)
 	public void testPool(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		borrowAndReturn(blackhole);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void testPool_32(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		borrowAndReturn(blackhole);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void testPoolLease(Blackhole blackhole) throws InterruptedException, TimeoutException {
+		try (var lease = pool.lease(1, TimeUnit.SECONDS)) {
+			blackhole.consume(lease.get());
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void testPoolTryBorrow(Blackhole blackhole) {
+		Object obj = pool.tryBorrow();
+		if (obj != null) {
+			blackhole.consume(obj);
+			pool.returnObject(obj);
+		}
+	}
+
+	private void borrowAndReturn(Blackhole blackhole) throws InterruptedException, ExecutionException {
 		CompletableFuture<Object> future = pool.borrowObject();
 		Object obj = future.get();
 		try {